@@ -0,0 +1,84 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+/**
+ * Message texts for the benchmarks.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class BenchmarkText
+{
+    private static final String GSM_TEXT = "Hello world! Your code is 4711, valid for 10 minutes. @Home & Co. ";
+    private static final String UCS2_TEXT = "Привет мир! 你好 ";
+
+    private BenchmarkText()
+    {
+        // Empty
+    }
+
+    /**
+     * Returns a text with only GSM default alphabet characters.
+     * 
+     * @param length Number of characters
+     * @return The text
+     */
+    public static String gsmText(int length)
+    {
+        return repeat(GSM_TEXT, length);
+    }
+
+    /**
+     * Returns a text that needs UCS2.
+     * 
+     * @param length Number of characters
+     * @return The text
+     */
+    public static String ucs2Text(int length)
+    {
+        return repeat(UCS2_TEXT, length);
+    }
+
+    private static String repeat(String text, int length)
+    {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length)
+        {
+            sb.append(text.charAt(sb.length() % text.length()));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,133 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Submit throughput of the UcpTransport against the UcpSmscSimulator, for a
+ * few window sizes and SMSC latencies.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UcpTransportBenchmark
+{
+    private static final int BATCH_SIZE = 100;
+
+    @Param({ "1", "10", "100" })
+    public int window;
+
+    @Param({ "0", "1" })
+    public long latency;
+
+    private UcpSmscSimulator smsc_;
+    private UcpTransport transport_;
+    private SmsTextMessage msg_;
+    private SmsAddress destination_;
+    private SmsAddress sender_;
+    private List<SmsAddress> batch_;
+
+    @Setup
+    public void setUp() throws SmsException, IOException
+    {
+        smsc_ = new UcpSmscSimulator();
+        smsc_.setLatency(latency);
+
+        Properties props = new Properties();
+        props.setProperty("smsj.ucp.ip.host", "127.0.0.1");
+        props.setProperty("smsj.ucp.ip.port", Integer.toString(smsc_.getPort()));
+        props.setProperty("smsj.ucp.window", Integer.toString(window));
+        transport_ = new UcpTransport();
+        transport_.init(props);
+        transport_.connect();
+
+        msg_ = new SmsTextMessage("Hello world");
+        destination_ = new SmsAddress("46712345678");
+        sender_ = new SmsAddress("4699");
+        batch_ = new ArrayList<SmsAddress>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++)
+        {
+            batch_.add(new SmsAddress("46712" + (100000 + i)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        transport_.disconnect();
+        smsc_.close();
+    }
+
+    @Benchmark
+    public String send() throws SmsException, IOException
+    {
+        return transport_.send(msg_, destination_, sender_);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String[] sendBatch() throws SmsException, IOException
+    {
+        return transport_.sendBatch(msg_, batch_, sender_);
+    }
+}
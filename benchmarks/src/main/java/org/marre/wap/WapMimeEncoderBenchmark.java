@@ -0,0 +1,117 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.wap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.marre.mime.MimeFactory;
+import org.marre.mime.MimeMultipartRelated;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WSP encoding of a multipart message, as used for MMS.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WapMimeEncoderBenchmark
+{
+    private WapMimeEncoder encoder_;
+    private MimeMultipartRelated multipart_;
+
+    @Setup
+    public void setUp()
+    {
+        encoder_ = new WapMimeEncoder();
+        multipart_ = BenchmarkMessages.createMultipart();
+    }
+
+    @Benchmark
+    public byte[] writeMultipart() throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(16 * 1024);
+        encoder_.writeContentType(baos, multipart_);
+        encoder_.writeHeaders(baos, multipart_);
+        encoder_.writeBody(baos, multipart_);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Multipart messages for the benchmarks.
+     */
+    public static final class BenchmarkMessages
+    {
+        private BenchmarkMessages()
+        {
+            // Empty
+        }
+
+        /**
+         * Creates a multipart/related with a SMIL presentation, a text and a
+         * 10 kB image.
+         * 
+         * @return The message
+         */
+        public static MimeMultipartRelated createMultipart()
+        {
+            MimeMultipartRelated multipart = new MimeMultipartRelated();
+
+            multipart.setStartBodyPart(MimeFactory.createTextBodyPart(
+                    "<smil><body><par dur=\"5s\"><img src=\"image.gif\"/><text src=\"text.txt\"/></par></body></smil>",
+                    "application/smil"));
+            multipart.addBodyPart(MimeFactory.createTextBodyPart("Hello from the benchmarks"));
+            multipart.addBodyPart(MimeFactory.createBinaryBodyPart(new byte[10 * 1024], "image/gif"));
+
+            return multipart;
+        }
+    }
+}
@@ -245,11 +245,41 @@ public class SmsSender
         return new SmsSender("org.marre.sms.transport.ucp.UcpTransport", props);
     }
 
+    /**
+     * Convenience method to create a SmsSender object that spreads the
+     * messages over several binds to one or more UCP SMSCs.
+     * 
+     * @param hosts
+     *            Comma separated list of SMSCs, ex "smsc1:5000,smsc2:5000"
+     * @param binds
+     *            Total number of binds, spread evenly over the hosts
+     * @param ucp60Uid
+     *            A string containing the UCP60 userid
+     * @param ucp60Pwd
+     *            A string containing the UCP60 password
+     *            
+     * @return A SmsSender object that uses the UcpPoolTransport to send messages
+     * 
+     * @throws SmsException
+     */
+    public static SmsSender getUcpPoolSender(String hosts, int binds, String ucp60Uid, String ucp60Pwd)
+            throws SmsException
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.ucp.pool.hosts", hosts);
+        props.setProperty("smsj.ucp.pool.binds", Integer.toString(binds));
+        props.setProperty("smsj.ucp.ucp60.uid", ucp60Uid);
+        props.setProperty("smsj.ucp.ucp60.password", ucp60Pwd);
+        return new SmsSender("org.marre.sms.transport.ucp.UcpPoolTransport", props);
+    }
+
     /**
      * Sends an ordinary SMS to the given recipient.
      * 
      * There is no limit on the number of concatenated SMS that this message will
-     * use. It will send the message with the GSM charset (Max 160 chars/SMS).
+     * use. It will send the message with the GSM charset (Max 160 chars/SMS),
+     * or with UCS2 (Max 70 chars/SMS) if the text has chars that aren't in the
+     * GSM charset.
      * 
      * @param text Message to send
      * @param dest Destination number (international format without leading +).
@@ -263,7 +293,7 @@ public class SmsSender
      */
     public String sendTextSms(String text, String dest, String sender) throws SmsException, IOException
     {
-        SmsTextMessage textMessage = new SmsTextMessage(text, SmsAlphabet.GSM, SmsMsgClass.CLASS_UNKNOWN);
+        SmsTextMessage textMessage = new SmsTextMessage(text, new SmsNationalLanguage[0]);
         return sendSms(textMessage, dest, sender);
     }
 
@@ -271,7 +301,9 @@ public class SmsSender
      * Sends an ordinary SMS to the given recipient.
      * 
      * There is no limit on the number of concatenated SMS that this message will
-     * use. It will send the message with the GSM charset (Max 160 chars/SMS).
+     * use. It will send the message with the GSM charset (Max 160 chars/SMS),
+     * or with UCS2 (Max 70 chars/SMS) if the text has chars that aren't in the
+     * GSM charset.
      * 
      * @param text Message to send
      * @param dest Destination number (international format without leading +).
@@ -283,7 +315,7 @@ public class SmsSender
      */
     public String sendTextSms(String text, String dest) throws SmsException, IOException
     {
-        SmsTextMessage textMessage = new SmsTextMessage(text, SmsAlphabet.GSM, SmsMsgClass.CLASS_UNKNOWN);
+        SmsTextMessage textMessage = new SmsTextMessage(text, new SmsNationalLanguage[0]);
         return sendSms(textMessage, dest, null);
     }
     
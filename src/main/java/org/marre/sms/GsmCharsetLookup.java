@@ -0,0 +1,120 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reverse lookup from unicode chars to GSM septets.
+ * <p>
+ * Chars below 0x400 (latin and greek, all of the default alphabet) are
+ * looked up in an array, the rest in a map.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+final class GsmCharsetLookup
+{
+    /** Chars below this are looked up in the dense table. */
+    private static final int DENSE_SIZE = 0x400;
+
+    private final byte[] dense_ = new byte[DENSE_SIZE];
+    private final Map<Character, Byte> sparse_ = new HashMap<Character, Byte>();
+
+    /**
+     * Creates a lookup for a GSM alphabet.
+     * 
+     * @param table The unicode char of each septet, the index of the char
+     *            is the septet. Chars that appear more than once map to the
+     *            first septet.
+     * @param alternatives Pairs of unicode char and septet for chars that
+     *            aren't in the table
+     * @param skip A septet that is never looked up, ex the escape to the
+     *            extension table. -1 for none.
+     */
+    GsmCharsetLookup(char[] table, char[] alternatives, int skip)
+    {
+        for (int i = 0; i < DENSE_SIZE; i++)
+        {
+            dense_[i] = -1;
+        }
+
+        for (int i = 0; i < table.length; i++)
+        {
+            if (i != skip)
+            {
+                put(table[i], i);
+            }
+        }
+
+        for (int i = 0; i < alternatives.length / 2; i++)
+        {
+            put(alternatives[i * 2], alternatives[i * 2 + 1] & 0x7f);
+        }
+    }
+
+    private void put(char ch, int septet)
+    {
+        if (ch < DENSE_SIZE)
+        {
+            if (dense_[ch] < 0)
+            {
+                dense_[ch] = (byte) septet;
+            }
+        }
+        else if (!sparse_.containsKey(ch))
+        {
+            sparse_.put(ch, (byte) septet);
+        }
+    }
+
+    /**
+     * Returns the septet of a char.
+     * 
+     * @param ch The unicode char
+     * @return The septet, or -1 if the char isn't in the alphabet
+     */
+    int get(char ch)
+    {
+        if (ch < DENSE_SIZE)
+        {
+            return dense_[ch];
+        }
+
+        Byte septet = sparse_.get(ch);
+        return (septet != null) ? septet : -1;
+    }
+}
@@ -0,0 +1,151 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+/**
+ * Packs a text into GSM septets, one piece at a time.
+ * <p>
+ * Used to pack each SMS of a concatenated message directly from the text.
+ * A char from the single shift table is never split between two pieces.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+final class GsmSeptetPacker
+{
+    private final CharSequence text_;
+    private final GsmCharsetLookup lockingLookup_;
+    private final GsmCharsetLookup singleLookup_;
+    private int pos_;
+
+    /**
+     * Creates a packer that starts at the first char of the text.
+     * 
+     * @param text The text to pack
+     * @param lockingShift Language of the locking shift table, must have one
+     * @param singleShift Language of the single shift table
+     */
+    GsmSeptetPacker(CharSequence text, SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift)
+    {
+        SmsPduUtil.checkLockingShift(lockingShift);
+
+        text_ = text;
+        lockingLookup_ = lockingShift.getLockingShiftLookup();
+        singleLookup_ = singleShift.getSingleShiftLookup();
+    }
+
+    /**
+     * Returns true if there are chars left to pack.
+     */
+    boolean hasMore()
+    {
+        return pos_ < text_.length();
+    }
+
+    /**
+     * Moves back to the first char of the text.
+     */
+    void reset()
+    {
+        pos_ = 0;
+    }
+
+    /**
+     * Packs chars until the text ends or the next char doesn't fit.
+     * <p>
+     * Chars from the single shift table are written as EXT_TABLE_PREFIX and
+     * the septet from the table, chars that can't be encoded as '?'.
+     * 
+     * @param out Array to write to, must have room for
+     *            SmsPduUtil.getSeptetsLength(maxSeptets) octets from off
+     * @param off Offset of the first octet
+     * @param maxSeptets Max number of septets to write
+     * @return Number of septets written
+     */
+    int pack(byte[] out, int off, int maxSeptets)
+    {
+        int data = 0;
+        int nBits = 0;
+        int nSeptets = 0;
+        int pos = off;
+
+        while (pos_ < text_.length())
+        {
+            char ch = text_.charAt(pos_);
+            int septet = lockingLookup_.get(ch);
+            int nCharSeptets = 1;
+
+            if (septet < 0)
+            {
+                septet = singleLookup_.get(ch);
+                if (septet >= 0)
+                {
+                    septet = (septet << 7) | SmsPduUtil.EXT_TABLE_PREFIX;
+                    nCharSeptets = 2;
+                }
+                else
+                {
+                    // Couldn't find a valid char
+                    septet = '?';
+                }
+            }
+
+            if (nSeptets + nCharSeptets > maxSeptets)
+            {
+                break;
+            }
+
+            data |= septet << nBits;
+            nBits += nCharSeptets * 7;
+            nSeptets += nCharSeptets;
+            pos_++;
+
+            while (nBits >= 8)
+            {
+                out[pos++] = (byte) data;
+                data >>>= 8;
+                nBits -= 8;
+            }
+        }
+
+        // Write remaining byte
+        if (nBits > 0)
+        {
+            out[pos] = (byte) data;
+        }
+
+        return nSeptets;
+    }
+}
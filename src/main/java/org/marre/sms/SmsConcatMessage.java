@@ -34,8 +34,6 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms;
 
-import java.util.Random;
-
 /**
  * Baseclass for messages that needs to be concatenated.
  * <p>- Only usable for messages that uses the same UDH fields for all message
@@ -48,7 +46,11 @@ import java.util.Random;
  */
 public abstract class SmsConcatMessage implements SmsMessage
 {
-    private static final Random rnd_ = new Random();
+    /** Allocator shared by all messages that don't have their own. */
+    private static final SmsConcatRefAllocator DEFAULT_REF_ALLOCATOR = new SmsConcatRefCounter();
+
+    private SmsConcatMode concatMode_ = SmsConcatMode.CONCAT_8BIT;
+    private SmsConcatRefAllocator refAllocator_ = DEFAULT_REF_ALLOCATOR;
 
     /**
      * Creates an empty SmsConcatMessage.
@@ -75,14 +77,91 @@ public abstract class SmsConcatMessage implements SmsMessage
      */
     public abstract SmsUdhElement[] getUdhElements();
 
-    private SmsPdu[] createOctalPdus(SmsUdhElement[] udhElements, SmsUserData ud, int maxBytes)
+    /**
+     * Returns the UDH element used to concatenate the SMS.
+     */
+    public SmsConcatMode getConcatMode()
+    {
+        return concatMode_;
+    }
+
+    /**
+     * Sets the UDH element used to concatenate the SMS. Default is
+     * CONCAT_8BIT.
+     * <p>
+     * The 16-bit reference number makes collisions less likely, but takes
+     * one more octet from every SMS.
+     * 
+     * @param concatMode The concat mode
+     */
+    public void setConcatMode(SmsConcatMode concatMode)
+    {
+        if (concatMode == null)
+        {
+            throw new IllegalArgumentException("concatMode cannot be null.");
+        }
+
+        concatMode_ = concatMode;
+    }
+
+    /**
+     * Sets the allocator of the concat reference numbers.
+     * <p>
+     * The default is a SmsConcatRefCounter shared by all messages.
+     * 
+     * @param refAllocator The allocator
+     */
+    public void setConcatRefAllocator(SmsConcatRefAllocator refAllocator)
+    {
+        if (refAllocator == null)
+        {
+            throw new IllegalArgumentException("refAllocator cannot be null.");
+        }
+
+        refAllocator_ = refAllocator;
+    }
+
+    /**
+     * Returns the allocator of the concat reference numbers.
+     */
+    SmsConcatRefAllocator getConcatRefAllocator()
+    {
+        return refAllocator_;
+    }
+
+    /**
+     * Creates the concat UDH element of one SMS.
+     * 
+     * @param refno The reference number
+     * @param nSms Total number of SMS
+     * @param seqNr Sequence number of the SMS, from 1
+     * @return The UDH element
+     */
+    private SmsUdhElement getConcatUdh(int refno, int nSms, int seqNr)
+    {
+        if (concatMode_ == SmsConcatMode.CONCAT_16BIT)
+        {
+            return SmsUdhUtil.get16BitConcatUdh(refno, nSms, seqNr);
+        }
+        return SmsUdhUtil.get8BitConcatUdh(refno, nSms, seqNr);
+    }
+
+    /**
+     * Allocates the reference number of a message to a destination.
+     */
+    private int nextRef(SmsConcatRefAllocator refAllocator, SmsAddress destination)
+    {
+        return refAllocator.nextRef(destination, concatMode_.getRefCount());
+    }
+
+    private SmsPdu[] createOctalPdus(SmsUdhElement[] udhElements, SmsUserData ud, int maxBytes, int maxConcatBytes,
+            SmsAddress destination, SmsConcatRefAllocator refAllocator)
     {
         int nMaxChars;
         int nMaxConcatChars;
         SmsPdu[] smsPdus = null;
 
-        // 8-bit concat header is 6 bytes...
-        nMaxConcatChars = maxBytes - 6;
+        nMaxConcatChars = maxConcatBytes;
         nMaxChars = maxBytes;
 
         if (ud.getLength() <= nMaxChars)
@@ -91,7 +170,7 @@ public abstract class SmsConcatMessage implements SmsMessage
         }
         else
         {
-            int refno = rnd_.nextInt(256);
+            int refno = nextRef(refAllocator, destination);
 
             // Calculate number of SMS needed
             int nSms = ud.getLength() / nMaxConcatChars;
@@ -124,7 +203,7 @@ public abstract class SmsConcatMessage implements SmsMessage
                 int udOffset;
 
                 // Create concat header
-                pduUdhElements[0] = SmsUdhUtil.get8BitConcatUdh(refno, nSms, i + 1);
+                pduUdhElements[0] = getConcatUdh(refno, nSms, i + 1);
 
                 // Create
                 // Must concatenate messages
@@ -145,13 +224,13 @@ public abstract class SmsConcatMessage implements SmsMessage
         return smsPdus;
     }
 
-    private SmsPdu[] createUnicodePdus(SmsUdhElement[] udhElements, SmsUserData ud, int maxBytes)
+    private SmsPdu[] createUnicodePdus(SmsUdhElement[] udhElements, SmsUserData ud, int maxBytes, int maxConcatBytes,
+            SmsAddress destination, SmsConcatRefAllocator refAllocator)
     {
         int nMaxConcatChars;
         SmsPdu[] smsPdus = null;
 
-        // 8-bit concat header is 6 bytes...
-        nMaxConcatChars = (maxBytes - 6) / 2;
+        nMaxConcatChars = maxConcatBytes / 2;
 
         if (ud.getLength() <= maxBytes)
         {
@@ -159,7 +238,7 @@ public abstract class SmsConcatMessage implements SmsMessage
         }
         else
         {
-            int refno = rnd_.nextInt(256);
+            int refno = nextRef(refAllocator, destination);
 
             // Calculate number of SMS needed
             int nSms = (ud.getLength() / 2) / nMaxConcatChars;
@@ -192,7 +271,7 @@ public abstract class SmsConcatMessage implements SmsMessage
                 int udOffset;
 
                 // Create concat header
-                pduUdhElements[0] = SmsUdhUtil.get8BitConcatUdh(refno, nSms, i + 1);
+                pduUdhElements[0] = getConcatUdh(refno, nSms, i + 1);
 
                 // Create
                 // Must concatenate messages
@@ -213,14 +292,14 @@ public abstract class SmsConcatMessage implements SmsMessage
         return smsPdus;
     }
 
-    private SmsPdu[] createSeptetPdus(SmsUdhElement[] udhElements, SmsUserData ud, int maxBytes)
+    private SmsPdu[] createSeptetPdus(SmsUdhElement[] udhElements, SmsUserData ud, int maxBytes, int maxConcatBytes,
+            SmsAddress destination, SmsConcatRefAllocator refAllocator)
     {
         int nMaxChars;
         int nMaxConcatChars;
         SmsPdu[] smsPdus = null;
 
-        // 8-bit concat header is 6 bytes...
-        nMaxConcatChars = ((maxBytes - 6) * 8) / 7;
+        nMaxConcatChars = (maxConcatBytes * 8) / 7;
         nMaxChars = (maxBytes * 8) / 7;
 
         if (ud.getLength() <= nMaxChars)
@@ -229,13 +308,21 @@ public abstract class SmsConcatMessage implements SmsMessage
         }
         else
         {
-            int refno = rnd_.nextInt(256);
-
-            // Calculate number of SMS needed
-            int nSms = ud.getLength() / nMaxConcatChars;
-            if ((ud.getLength() % nMaxConcatChars) > 0)
+            int refno = nextRef(refAllocator, destination);
+            byte[] septets = SmsPduUtil.unpackSeptets(ud.getData(), ud.getLength());
+
+            // Calculate where each SMS ends. An escape to the extension table
+            // must be in the same SMS as the char it escapes.
+            int[] ends = new int[ud.getLength() / (nMaxConcatChars - 1) + 1];
+            int nSms = 0;
+            for (int start = 0; start < septets.length; start = ends[nSms++])
             {
-                nSms += 1;
+                int end = Math.min(start + nMaxConcatChars, septets.length);
+                if ((end < septets.length) && endsWithEscape(septets, start, end))
+                {
+                    end--;
+                }
+                ends[nSms] = end;
             }
             smsPdus = new SmsPdu[nSms];
 
@@ -253,66 +340,219 @@ public abstract class SmsConcatMessage implements SmsMessage
                 System.arraycopy(udhElements, 0, pduUdhElements, 1, udhElements.length);
             }
 
-            // Convert septets into a string...
-            String msg = SmsPduUtil.readSeptets(ud.getData(), ud.getLength());
-
             // Create pdus
             for (int i = 0; i < nSms; i++)
             {
-                byte[] pduUd;
-                int udOffset;
-                int udLength;
+                int udOffset = (i == 0) ? 0 : ends[i - 1];
+                int udLength = ends[i] - udOffset;
 
                 // Create concat header
-                pduUdhElements[0] = SmsUdhUtil.get8BitConcatUdh(refno, nSms, i + 1);
-
-                // Create
-                // Must concatenate messages
-                // Calc pdu length
-                udOffset = nMaxConcatChars * i;
-                udLength = ud.getLength() - udOffset;
-                if (udLength > nMaxConcatChars)
-                {
-                    udLength = nMaxConcatChars;
-                }
+                pduUdhElements[0] = getConcatUdh(refno, nSms, i + 1);
 
-                pduUd = SmsPduUtil.getSeptets(msg.substring(udOffset, udOffset + udLength));
+                byte[] pduUd = SmsPduUtil.packSeptets(septets, udOffset, udLength);
                 smsPdus[i] = new SmsPdu(pduUdhElements, pduUd, udLength, ud.getDcs());
             }
         }
         return smsPdus;
     }
 
+    /**
+     * Converts a GSM encoded text into SmsPdu:s.
+     * <p>
+     * The user data of each SmsPdu is packed directly from the text. A char
+     * from the single shift table is never split between two SMS.
+     * 
+     * @param udhElements The UDH elements of the message, without concat
+     *            headers
+     * @param text The text
+     * @param lockingShift Language of the locking shift table, must have one
+     * @param singleShift Language of the single shift table
+     * @param dcs The data coding scheme, must use the GSM alphabet
+     * @param destination The destination, or null
+     * @param refAllocator The allocator of the reference number
+     * @return The message as SmsPdu:s
+     */
+    protected SmsPdu[] createSeptetPdus(SmsUdhElement[] udhElements, CharSequence text, 
+            SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift, SmsDcs dcs, SmsAddress destination,
+            SmsConcatRefAllocator refAllocator)
+    {
+        int udhLength = SmsUdhUtil.getTotalSize(udhElements);
+        int nMaxChars = (getMaxBytes(udhLength) * 8) / 7;
+        int nMaxConcatChars = (getMaxConcatBytes(udhLength) * 8) / 7;
+        int nMaxConcatBytes = SmsPduUtil.getSeptetsLength(nMaxConcatChars);
+        GsmSeptetPacker packer = new GsmSeptetPacker(text, lockingShift, singleShift);
+
+        // Pack as concatenated SMS, most texts end in the first one
+        byte[][] uds = new byte[1][];
+        int[] udLengths = new int[1];
+        int nSms = 0;
+        int nSeptets = 0;
+        do
+        {
+            if (nSms == uds.length)
+            {
+                byte[][] tmpUds = new byte[nSms * 2][];
+                System.arraycopy(uds, 0, tmpUds, 0, nSms);
+                uds = tmpUds;
+
+                int[] tmpUdLengths = new int[nSms * 2];
+                System.arraycopy(udLengths, 0, tmpUdLengths, 0, nSms);
+                udLengths = tmpUdLengths;
+            }
+
+            byte[] ud = new byte[nMaxConcatBytes];
+            int udLength = packer.pack(ud, 0, nMaxConcatChars);
+            if (SmsPduUtil.getSeptetsLength(udLength) < ud.length)
+            {
+                byte[] tmp = new byte[SmsPduUtil.getSeptetsLength(udLength)];
+                System.arraycopy(ud, 0, tmp, 0, tmp.length);
+                ud = tmp;
+            }
+
+            uds[nSms] = ud;
+            udLengths[nSms] = udLength;
+            nSeptets += udLength;
+            nSms++;
+        }
+        while (packer.hasMore());
+
+        if (nSeptets <= nMaxChars)
+        {
+            if (nSms > 1)
+            {
+                // Fits in one SMS without the concat header
+                packer.reset();
+                uds[0] = new byte[SmsPduUtil.getSeptetsLength(nSeptets)];
+                packer.pack(uds[0], 0, nSeptets);
+            }
+            return new SmsPdu[]{new SmsPdu(udhElements, uds[0], nSeptets, dcs)};
+        }
+
+        int refno = nextRef(refAllocator, destination);
+        SmsPdu[] smsPdus = new SmsPdu[nSms];
+
+        // Calculate number of UDHI
+        SmsUdhElement[] pduUdhElements = null;
+        if (udhElements == null)
+        {
+            pduUdhElements = new SmsUdhElement[1];
+        }
+        else
+        {
+            pduUdhElements = new SmsUdhElement[udhElements.length + 1];
+
+            // Copy the UDH headers
+            System.arraycopy(udhElements, 0, pduUdhElements, 1, udhElements.length);
+        }
+
+        // Create pdus
+        for (int i = 0; i < nSms; i++)
+        {
+            // Create concat header
+            pduUdhElements[0] = getConcatUdh(refno, nSms, i + 1);
+            smsPdus[i] = new SmsPdu(pduUdhElements, uds[i], udLengths[i], dcs);
+        }
+        return smsPdus;
+    }
+
+    /**
+     * Returns true if the last septet in the range is an escape to the
+     * extension table, not the char after an escape.
+     */
+    private static boolean endsWithEscape(byte[] septets, int start, int end)
+    {
+        int i = start;
+        while (i < end - 1)
+        {
+            i += (septets[i] == SmsPduUtil.EXT_TABLE_PREFIX) ? 2 : 1;
+        }
+        return (i == end - 1) && (septets[i] == SmsPduUtil.EXT_TABLE_PREFIX);
+    }
+
     /**
      * Converts this message into SmsPdu:s
      * <p>
      * If the message is too long to fit in one SmsPdu the message is divided
-     * into many SmsPdu:s with a 8-bit concat pdu UDH element.
+     * into many SmsPdu:s with a concat pdu UDH element. The reference number
+     * is allocated as for a message that is sent to many destinations.
      * 
      * @return Returns the message as SmsPdu:s
      */
     public SmsPdu[] getPdus()
+    {
+        return getPdus(null);
+    }
+
+    /**
+     * Converts this message into SmsPdu:s for a destination
+     * <p>
+     * If the message is too long to fit in one SmsPdu the message is divided
+     * into many SmsPdu:s with a concat pdu UDH element. The reference number
+     * is allocated for the destination.
+     * 
+     * @param destination The destination, or null if the SmsPdu:s are sent
+     *            to many destinations
+     * @return Returns the message as SmsPdu:s
+     */
+    public SmsPdu[] getPdus(SmsAddress destination)
+    {
+        return createPdus(destination, refAllocator_);
+    }
+
+    /**
+     * Converts this message into SmsPdu:s, with the reference number from
+     * the given allocator.
+     * 
+     * @param destination The destination, or null
+     * @param refAllocator The allocator of the reference number
+     * @return Returns the message as SmsPdu:s
+     */
+    SmsPdu[] createPdus(SmsAddress destination, SmsConcatRefAllocator refAllocator)
     {
         SmsPdu[] smsPdus;
         SmsUserData ud = getUserData();
         SmsUdhElement[] udhElements = getUdhElements();        
         int udhLength = SmsUdhUtil.getTotalSize(udhElements);
-        int nBytesLeft = 140 - udhLength;
+        int nBytesLeft = getMaxBytes(udhLength);
+        int nConcatBytesLeft = getMaxConcatBytes(udhLength);
 
         switch (ud.getDcs().getAlphabet())
         {
         case GSM:
-            smsPdus = createSeptetPdus(udhElements, ud, nBytesLeft);
+            smsPdus = createSeptetPdus(udhElements, ud, nBytesLeft, nConcatBytesLeft, destination, refAllocator);
             break;
         case UCS2:
-            smsPdus = createUnicodePdus(udhElements, ud, nBytesLeft);
+            smsPdus = createUnicodePdus(udhElements, ud, nBytesLeft, nConcatBytesLeft, destination, refAllocator);
             break;
         case LATIN1:
         default:
-            smsPdus = createOctalPdus(udhElements, ud, nBytesLeft);
+            smsPdus = createOctalPdus(udhElements, ud, nBytesLeft, nConcatBytesLeft, destination, refAllocator);
             break;
         }
 
         return smsPdus;
     }
+
+    /**
+     * Returns the number of user data octets left in one SMS.
+     * 
+     * @param udhLength Size of the UDH elements, without the UDH length octet
+     */
+    private static int getMaxBytes(int udhLength)
+    {
+        // The UDH length octet is only there if there is a UDH
+        return (udhLength > 0) ? 140 - udhLength - 1 : 140;
+    }
+
+    /**
+     * Returns the number of user data octets left in one SMS of a
+     * concatenated message.
+     * 
+     * @param udhLength Size of the UDH elements, without the UDH length octet
+     */
+    private int getMaxConcatBytes(int udhLength)
+    {
+        // The concat header, plus the UDH length octet
+        return 140 - udhLength - 1 - concatMode_.getUdhSize();
+    }
 }
@@ -0,0 +1,36 @@
+package org.marre.sms;
+
+/**
+ * The UDH element used to concatenate SMS.
+ */
+public enum SmsConcatMode {
+    /** Concatenated short messages, 8-bit reference number. */
+    CONCAT_8BIT(256, 5),
+
+    /** Concatenated short messages, 16-bit reference number. */
+    CONCAT_16BIT(65536, 6);
+
+    private final int refCount;
+    private final int udhSize;
+
+    private SmsConcatMode(int refCount, int udhSize) {
+        this.refCount = refCount;
+        this.udhSize = udhSize;
+    }
+
+    /**
+     * Returns the number of reference numbers.
+     * @return 256 or 65536
+     */
+    public int getRefCount() {
+        return refCount;
+    }
+
+    /**
+     * Returns the size of the UDH element, IEI and length included.
+     * @return The size in octets
+     */
+    public int getUdhSize() {
+        return udhSize;
+    }
+}
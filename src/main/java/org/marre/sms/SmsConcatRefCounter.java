@@ -0,0 +1,203 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocates reference numbers from one counter per destination.
+ * <p>
+ * The last refCount messages to a destination always have different
+ * reference numbers. The counters start at a random number so that two
+ * processes sending to the same destination are unlikely to collide.
+ * <p>
+ * The counters are kept in a number of stripes with their own lock, so
+ * threads sending to different destinations seldom wait for each other. A
+ * counter is removed when it hasn't been used for the ttl, by then the
+ * handset has stopped waiting for parts of the old messages.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsConcatRefCounter implements SmsConcatRefAllocator
+{
+    /** Default time before an unused counter is removed. */
+    public static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis(1);
+
+    /** Default number of stripes. */
+    public static final int DEFAULT_STRIPES = 16;
+
+    /** Reference numbers are unique modulo this, both concat modes fit. */
+    private static final int MAX_REFS = 65536;
+
+    private static final class Counter
+    {
+        private int next_;
+        private long lastUsed_;
+    }
+
+    private static final class Stripe
+    {
+        private final Map<String, Counter> counters_ = new HashMap<String, Counter>();
+        private long nextSweep_;
+    }
+
+    private final Stripe[] stripes_;
+    private final long ttl_;
+    private final Random rnd_ = new Random();
+
+    /**
+     * Creates a counter with the default ttl and number of stripes.
+     */
+    public SmsConcatRefCounter()
+    {
+        this(DEFAULT_TTL, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a counter.
+     * 
+     * @param ttl Time in milliseconds before an unused counter is removed
+     * @param nStripes Number of stripes
+     */
+    public SmsConcatRefCounter(long ttl, int nStripes)
+    {
+        if (ttl <= 0)
+        {
+            throw new IllegalArgumentException("ttl must be positive: " + ttl);
+        }
+        if (nStripes <= 0)
+        {
+            throw new IllegalArgumentException("nStripes must be positive: " + nStripes);
+        }
+
+        ttl_ = TimeUnit.MILLISECONDS.toNanos(ttl);
+        stripes_ = new Stripe[nStripes];
+        long firstSweep = System.nanoTime() + ttl_ / 2;
+        for (int i = 0; i < nStripes; i++)
+        {
+            stripes_[i] = new Stripe();
+            stripes_[i].nextSweep_ = firstSweep;
+        }
+    }
+
+    /**
+     * @see SmsConcatRefAllocator#nextRef(SmsAddress, int)
+     */
+    public int nextRef(SmsAddress destination, int refCount)
+    {
+        String key = (destination == null) ? "" : destination.getAddress();
+        return nextRef(key, refCount, System.nanoTime());
+    }
+
+    /**
+     * Returns the next reference number for the destination.
+     * 
+     * @param key The destination address
+     * @param refCount Number of reference numbers
+     * @param now Current time from System.nanoTime()
+     * @return The reference number
+     */
+    int nextRef(String key, int refCount, long now)
+    {
+        if ((refCount <= 0) || (MAX_REFS % refCount != 0))
+        {
+            throw new IllegalArgumentException("Unsupported number of reference numbers: " + refCount);
+        }
+
+        Stripe stripe = stripes_[(key.hashCode() & 0x7fffffff) % stripes_.length];
+
+        synchronized (stripe)
+        {
+            if (now - stripe.nextSweep_ >= 0)
+            {
+                sweep(stripe, now);
+            }
+
+            Counter counter = stripe.counters_.get(key);
+            if (counter == null)
+            {
+                counter = new Counter();
+                synchronized (rnd_)
+                {
+                    counter.next_ = rnd_.nextInt(MAX_REFS);
+                }
+                stripe.counters_.put(key, counter);
+            }
+
+            int ref = counter.next_;
+            counter.next_ = (ref + 1) % MAX_REFS;
+            counter.lastUsed_ = now;
+
+            return ref % refCount;
+        }
+    }
+
+    /**
+     * Removes the expired counters of a stripe.
+     */
+    private void sweep(Stripe stripe, long now)
+    {
+        Iterator<Counter> iter = stripe.counters_.values().iterator();
+        while (iter.hasNext())
+        {
+            if (now - iter.next().lastUsed_ >= ttl_)
+            {
+                iter.remove();
+            }
+        }
+        stripe.nextSweep_ = now + ttl_ / 2;
+    }
+
+    /**
+     * Returns the number of destinations with a counter.
+     */
+    int size()
+    {
+        int size = 0;
+        for (Stripe stripe : stripes_)
+        {
+            synchronized (stripe)
+            {
+                size += stripe.counters_.size();
+            }
+        }
+        return size;
+    }
+}
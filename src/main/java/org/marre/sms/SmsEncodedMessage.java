@@ -0,0 +1,211 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+/**
+ * An immutable message that is encoded once.
+ * <p>
+ * The user data and the UDH of the message and of every pdu are encoded
+ * when the message is created, and the same objects are used every time. The
+ * message can be shared between threads and sent to many destinations, or
+ * sent again, without being encoded again.
+ * <p>
+ * A message that fits in one SMS returns the same SmsPdu objects on every
+ * call. A concatenated message returns new SmsPdu objects, only their concat
+ * header is written. The reference number of that header is allocated for
+ * each destination, with the concat mode and allocator of the original
+ * message, so sending the message again to the same handset doesn't reuse
+ * the reference of the last send.
+ * <p>
+ * The returned SmsPdu objects and their byte arrays are shared and must not
+ * be modified.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class SmsEncodedMessage implements SmsMessage
+{
+    /** Allocator used when the message is encoded, the pdus get a reference per send. */
+    private static final SmsConcatRefAllocator NO_REF = new SmsConcatRefAllocator()
+    {
+        public int nextRef(SmsAddress destination, int refCount)
+        {
+            return 0;
+        }
+    };
+
+    private final SmsUserData ud_;
+    private final SmsUdhElement[] udhElements_;
+    private final SmsConcatMode concatMode_;
+    private final SmsConcatRefAllocator refAllocator_;
+
+    /** The pdus of a message that fits in one SMS, null if concatenated. */
+    private final SmsPdu[] pdus_;
+
+    /** The user data of every pdu of a concatenated message. */
+    private final SmsUserData[] pduUd_;
+
+    /** UDH elements of every pdu, without the concat header and the UDH length octet. */
+    private final byte[] pduUdh_;
+
+    /**
+     * Encodes a message.
+     * 
+     * @param msg The message to encode
+     */
+    public SmsEncodedMessage(SmsConcatMessage msg)
+    {
+        ud_ = msg.getUserData();
+        concatMode_ = msg.getConcatMode();
+        refAllocator_ = msg.getConcatRefAllocator();
+
+        SmsUdhElement[] udhElements = msg.getUdhElements();
+        udhElements_ = (udhElements == null) ? null : udhElements.clone();
+        byte[] udh = (udhElements_ == null) ? null : SmsUdhUtil.toByteArray(udhElements_);
+
+        SmsPdu[] pdus = msg.createPdus(null, NO_REF);
+        if (pdus.length == 1)
+        {
+            pdus_ = new SmsPdu[] { new SmsPdu(udh, pdus[0].getUserData()) };
+            pduUd_ = null;
+            pduUdh_ = null;
+        }
+        else
+        {
+            pdus_ = null;
+            pduUd_ = new SmsUserData[pdus.length];
+            for (int i = 0; i < pdus.length; i++)
+            {
+                pduUd_[i] = pdus[i].getUserData();
+            }
+
+            pduUdh_ = new byte[(udh == null) ? 0 : udh.length - 1];
+            if (udh != null)
+            {
+                System.arraycopy(udh, 1, pduUdh_, 0, pduUdh_.length);
+            }
+        }
+    }
+
+    /**
+     * Returns the user data of the original message.
+     * 
+     * @return the UD
+     */
+    public SmsUserData getUserData()
+    {
+        return ud_;
+    }
+
+    /**
+     * Returns the UDH elements of the original message.
+     * 
+     * @return the UDH as SmsUdhElements
+     */
+    public SmsUdhElement[] getUdhElements()
+    {
+        return (udhElements_ == null) ? null : udhElements_.clone();
+    }
+
+    /**
+     * Returns the concat mode of the original message.
+     * 
+     * @return The concat mode
+     */
+    public SmsConcatMode getConcatMode()
+    {
+        return concatMode_;
+    }
+
+    /**
+     * Returns the encoded pdus. The reference number is allocated as for a
+     * message that is sent to many destinations.
+     * 
+     * @return The pdus
+     */
+    public SmsPdu[] getPdus()
+    {
+        return getPdus(null);
+    }
+
+    /**
+     * Returns the encoded pdus for a destination.
+     * 
+     * @param destination The destination, or null if the pdus are sent to
+     *            many destinations
+     * @return The pdus, with a reference number allocated for the destination
+     */
+    public SmsPdu[] getPdus(SmsAddress destination)
+    {
+        if (pdus_ != null)
+        {
+            return pdus_.clone();
+        }
+
+        int nSms = pduUd_.length;
+        int refno = refAllocator_.nextRef(destination, concatMode_.getRefCount());
+        boolean concat16 = (concatMode_ == SmsConcatMode.CONCAT_16BIT);
+        int concatLength = concat16 ? 6 : 5;
+        SmsPdu[] pdus = new SmsPdu[nSms];
+
+        for (int i = 0; i < nSms; i++)
+        {
+            byte[] udh = new byte[1 + concatLength + pduUdh_.length];
+            int pos = 0;
+
+            // The concat header is always first
+            udh[pos++] = (byte) (udh.length - 1);
+            if (concat16)
+            {
+                udh[pos++] = SmsUdhIei.CONCATENATED_16BIT.getValue();
+                udh[pos++] = 4;
+                udh[pos++] = (byte) ((refno >> 8) & 0xff);
+            }
+            else
+            {
+                udh[pos++] = SmsUdhIei.CONCATENATED_8BIT.getValue();
+                udh[pos++] = 3;
+            }
+            udh[pos++] = (byte) (refno & 0xff);
+            udh[pos++] = (byte) (nSms & 0xff);
+            udh[pos++] = (byte) ((i + 1) & 0xff);
+            System.arraycopy(pduUdh_, 0, udh, pos, pduUdh_.length);
+
+            pdus[i] = new SmsPdu(udh, pduUd_[i]);
+        }
+
+        return pdus;
+    }
+}
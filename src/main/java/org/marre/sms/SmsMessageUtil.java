@@ -0,0 +1,99 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+/**
+ * Toolkit class for SmsMessage objects.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class SmsMessageUtil
+{
+    /**
+     * Constructor for SmsMessageUtil.
+     */
+    private SmsMessageUtil()
+    {
+    }
+
+    /**
+     * Converts a message into SmsPdu:s for a destination.
+     * <p>
+     * The concat reference number of a SmsConcatMessage or a
+     * SmsEncodedMessage is allocated for the destination, other messages
+     * are converted with getPdus().
+     * 
+     * @param msg The message
+     * @param destination The destination, or null if the SmsPdu:s are sent
+     *            to many destinations
+     * @return The message as SmsPdu:s
+     */
+    public static SmsPdu[] getPdus(SmsMessage msg, SmsAddress destination)
+    {
+        if (msg instanceof SmsConcatMessage)
+        {
+            return ((SmsConcatMessage) msg).getPdus(destination);
+        }
+        if (msg instanceof SmsEncodedMessage)
+        {
+            return ((SmsEncodedMessage) msg).getPdus(destination);
+        }
+        return msg.getPdus();
+    }
+
+    /**
+     * Returns the whole message as one SmsPdu, before it is divided into
+     * SMS. Used by gateways that divide messages themselves.
+     * 
+     * @param msg The message
+     * @return The user data and UDH elements of a SmsConcatMessage or a
+     *         SmsEncodedMessage, null for other messages
+     */
+    public static SmsPdu getUnsplitPdu(SmsMessage msg)
+    {
+        if (msg instanceof SmsConcatMessage)
+        {
+            SmsConcatMessage concatMsg = (SmsConcatMessage) msg;
+            return new SmsPdu(concatMsg.getUdhElements(), concatMsg.getUserData());
+        }
+        if (msg instanceof SmsEncodedMessage)
+        {
+            SmsEncodedMessage encodedMsg = (SmsEncodedMessage) msg;
+            return new SmsPdu(encodedMsg.getUdhElements(), encodedMsg.getUserData());
+        }
+        return null;
+    }
+}
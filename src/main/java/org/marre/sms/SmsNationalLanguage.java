@@ -0,0 +1,409 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+/**
+ * National language shift tables according to 3GPP 23.038.
+ * <p>
+ * A locking shift table replaces the default GSM alphabet, a single shift
+ * table replaces the extension table. They are selected with the
+ * NATIONAL_LANGUAGE_LOCKING_SHIFT and NATIONAL_LANGUAGE_SINGLE_SHIFT UDH
+ * elements. Not all languages have a locking shift table.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public enum SmsNationalLanguage
+{
+    /** The default GSM alphabet and extension table. */
+    DEFAULT(0, SmsPduUtil.GSM_DEFAULT_ALPHABET_TABLE, SmsPduUtil.GSM_EXTENSION_TABLE),
+
+    /** Turkish. */
+    TURKISH(1, Tables.TURKISH_LOCKING_SHIFT_TABLE, Tables.TURKISH_SINGLE_SHIFT_TABLE),
+
+    /** Spanish, only has a single shift table. */
+    SPANISH(2, null, Tables.SPANISH_SINGLE_SHIFT_TABLE),
+
+    /** Portuguese. */
+    PORTUGUESE(3, Tables.PORTUGUESE_LOCKING_SHIFT_TABLE, Tables.PORTUGUESE_SINGLE_SHIFT_TABLE);
+
+    private final int id_;
+    private final char[] lockingShiftTable_;
+    private final GsmCharsetLookup lockingShiftLookup_;
+    private final GsmCharsetLookup singleShiftLookup_;
+    private final char[] singleShiftDecodeTable_ = new char[128];
+
+    private SmsNationalLanguage(int id, char[] lockingShiftTable, char[] singleShiftTable)
+    {
+        id_ = id;
+        lockingShiftTable_ = lockingShiftTable;
+        lockingShiftLookup_ = (lockingShiftTable == null) ? null : new GsmCharsetLookup(lockingShiftTable,
+                SmsPduUtil.GSM_DEFAULT_ALPHABET_ALTERNATIVES, SmsPduUtil.EXT_TABLE_PREFIX);
+        singleShiftLookup_ = new GsmCharsetLookup(new char[0], singleShiftTable, -1);
+
+        for (int i = 0; i < singleShiftTable.length / 2; i++)
+        {
+            singleShiftDecodeTable_[singleShiftTable[i * 2 + 1]] = singleShiftTable[i * 2];
+        }
+    }
+
+    /**
+     * Returns the language id used in the shift UDH elements.
+     * 
+     * @return The language id
+     */
+    public int getId()
+    {
+        return id_;
+    }
+
+    /**
+     * Returns true if the language has a locking shift table.
+     * 
+     * @return true if the language has a locking shift table
+     */
+    public boolean hasLockingShiftTable()
+    {
+        return lockingShiftTable_ != null;
+    }
+
+    /**
+     * Returns the language with the given id.
+     * 
+     * @param id The language id from a shift UDH element
+     * @return The language, or null if unknown
+     */
+    public static SmsNationalLanguage valueOf(int id)
+    {
+        for (SmsNationalLanguage language : values())
+        {
+            if (language.id_ == id)
+            {
+                return language;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the locking and single shift tables that encode the text in
+     * the fewest SMS.
+     * <p>
+     * The default alphabet and extension table are always candidates. When
+     * two combinations need the same number of SMS the one with the smallest
+     * UDH wins, and after that the one with the fewest septets.
+     * 
+     * @param text The text to encode
+     * @param languages The languages that may be used
+     * @return The locking shift and the single shift language, or null if
+     *         no combination can encode all chars in the text
+     */
+    public static SmsNationalLanguage[] select(CharSequence text, SmsNationalLanguage[] languages)
+    {
+        SmsTextAnalysis analysis = SmsTextAnalysis.analyze(text, languages);
+        if (analysis.getAlphabet() != SmsAlphabet.GSM)
+        {
+            return null;
+        }
+        return new SmsNationalLanguage[]{analysis.getLockingShift(), analysis.getSingleShift()};
+    }
+
+    /**
+     * Returns the reverse lookup of the locking shift table.
+     */
+    GsmCharsetLookup getLockingShiftLookup()
+    {
+        return lockingShiftLookup_;
+    }
+
+    /**
+     * Returns the locking shift table, indexed by septet.
+     */
+    char[] getLockingShiftTable()
+    {
+        return lockingShiftTable_;
+    }
+
+    /**
+     * Returns the reverse lookup of the single shift table.
+     */
+    GsmCharsetLookup getSingleShiftLookup()
+    {
+        return singleShiftLookup_;
+    }
+
+    /**
+     * Returns the single shift table indexed by septet, 0 for unused septets.
+     */
+    char[] getSingleShiftDecodeTable()
+    {
+        return singleShiftDecodeTable_;
+    }
+
+    /**
+     * The national language tables. In a nested class since enum constants
+     * can't refer to static fields declared after them.
+     */
+    private static final class Tables
+    {
+        /** Turkish national language locking shift table, 3GPP 23.038 A.3.1. */
+        static final char[] TURKISH_LOCKING_SHIFT_TABLE = {
+                //   0 '@', '£', '$', '¥', '€', 'é', 'ù', 'ı'
+                '@', 0xa3, '$', 0xa5, 0x20ac, 0xe9, 0xf9, 0x131,
+                //   8 'ò', 'Ç', LF, 'Ğ', 'ğ', CR, 'Å', 'å'
+                0xf2, 0xc7, 10, 0x11e, 0x11f, 13, 0xc5, 0xe5,
+                //  16 'Δ', '_', 'Φ', 'Γ', 'Λ', 'Ω', 'Π', 'Ψ'
+                0x394, '_', 0x3a6, 0x393, 0x39b, 0x3a9, 0x3a0, 0x3a8,
+                //  24 'Σ', 'Θ', 'Ξ', EXT, 'Ş', 'ş', 'ß', 'É'
+                0x3a3, 0x398, 0x39e, 0xa0, 0x15e, 0x15f, 0xdf, 0xc9,
+                //  32 ' ', '!', '"', '#', '¤', '%', '&', '''
+                ' ', '!', '"', '#', 0xa4, '%', '&', '\'',
+                //  40 '(', ')', '*', '+', ',', '-', '.', '/'
+                '(', ')', '*', '+', ',', '-', '.', '/',
+                //  48 '0', '1', '2', '3', '4', '5', '6', '7'
+                '0', '1', '2', '3', '4', '5', '6', '7',
+                //  56 '8', '9', ':', ';', '<', '=', '>', '?'
+                '8', '9', ':', ';', '<', '=', '>', '?',
+                //  64 'İ', 'A', 'B', 'C', 'D', 'E', 'F', 'G'
+                0x130, 'A', 'B', 'C', 'D', 'E', 'F', 'G',
+                //  72 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O'
+                'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O',
+                //  80 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W'
+                'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W',
+                //  88 'X', 'Y', 'Z', 'Ä', 'Ö', 'Ñ', 'Ü', '§'
+                'X', 'Y', 'Z', 0xc4, 0xd6, 0xd1, 0xdc, 0xa7,
+                //  96 'ç', 'a', 'b', 'c', 'd', 'e', 'f', 'g'
+                0xe7, 'a', 'b', 'c', 'd', 'e', 'f', 'g',
+                // 104 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o'
+                'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o',
+                // 112 'p', 'q', 'r', 's', 't', 'u', 'v', 'w'
+                'p', 'q', 'r', 's', 't', 'u', 'v', 'w',
+                // 120 'x', 'y', 'z', 'ä', 'ö', 'ñ', 'ü', 'à'
+                'x', 'y', 'z', 0xe4, 0xf6, 0xf1, 0xfc, 0xe0};
+
+        /** Turkish national language single shift table, 3GPP 23.038 A.2.1. */
+        static final char[] TURKISH_SINGLE_SHIFT_TABLE = {
+                // FORM FEED
+                0xc, 0x0a,
+                // CIRCUMFLEX ACCENT
+                '^', 0x14,
+                // LEFT CURLY BRACKET
+                '{', 0x28,
+                // RIGHT CURLY BRACKET
+                '}', 0x29,
+                // REVERSE SOLIDUS
+                '\\', 0x2f,
+                // LEFT SQUARE BRACKET
+                '[', 0x3c,
+                // TILDE
+                '~', 0x3d,
+                // RIGHT SQUARE BRACKET
+                ']', 0x3e,
+                // VERTICAL LINE
+                '|', 0x40,
+                // LATIN CAPITAL LETTER G WITH BREVE
+                0x11e, 0x47,
+                // LATIN CAPITAL LETTER I WITH DOT ABOVE
+                0x130, 0x49,
+                // LATIN CAPITAL LETTER S WITH CEDILLA
+                0x15e, 0x53,
+                // LATIN SMALL LETTER C WITH CEDILLA
+                0xe7, 0x63,
+                // EURO SIGN
+                0x20ac, 0x65,
+                // LATIN SMALL LETTER G WITH BREVE
+                0x11f, 0x67,
+                // LATIN SMALL LETTER DOTLESS I
+                0x131, 0x69,
+                // LATIN SMALL LETTER S WITH CEDILLA
+                0x15f, 0x73};
+
+        /** Spanish national language single shift table, 3GPP 23.038 A.2.2. */
+        static final char[] SPANISH_SINGLE_SHIFT_TABLE = {
+                // LATIN SMALL LETTER C WITH CEDILLA
+                0xe7, 0x09,
+                // FORM FEED
+                0xc, 0x0a,
+                // CIRCUMFLEX ACCENT
+                '^', 0x14,
+                // LEFT CURLY BRACKET
+                '{', 0x28,
+                // RIGHT CURLY BRACKET
+                '}', 0x29,
+                // REVERSE SOLIDUS
+                '\\', 0x2f,
+                // LEFT SQUARE BRACKET
+                '[', 0x3c,
+                // TILDE
+                '~', 0x3d,
+                // RIGHT SQUARE BRACKET
+                ']', 0x3e,
+                // VERTICAL LINE
+                '|', 0x40,
+                // LATIN CAPITAL LETTER A WITH ACUTE
+                0xc1, 0x41,
+                // LATIN CAPITAL LETTER I WITH ACUTE
+                0xcd, 0x49,
+                // LATIN CAPITAL LETTER O WITH ACUTE
+                0xd3, 0x4f,
+                // LATIN CAPITAL LETTER U WITH ACUTE
+                0xda, 0x55,
+                // LATIN SMALL LETTER A WITH ACUTE
+                0xe1, 0x61,
+                // EURO SIGN
+                0x20ac, 0x65,
+                // LATIN SMALL LETTER I WITH ACUTE
+                0xed, 0x69,
+                // LATIN SMALL LETTER O WITH ACUTE
+                0xf3, 0x6f,
+                // LATIN SMALL LETTER U WITH ACUTE
+                0xfa, 0x75};
+
+        /** Portuguese national language locking shift table, 3GPP 23.038 A.3.3. */
+        static final char[] PORTUGUESE_LOCKING_SHIFT_TABLE = {
+                //   0 '@', '£', '$', '¥', 'ê', 'é', 'ú', 'í'
+                '@', 0xa3, '$', 0xa5, 0xea, 0xe9, 0xfa, 0xed,
+                //   8 'ó', 'ç', LF, 'Ô', 'ô', CR, 'Á', 'á'
+                0xf3, 0xe7, 10, 0xd4, 0xf4, 13, 0xc1, 0xe1,
+                //  16 'Δ', '_', 'ª', 'Ç', 'À', '∞', '^', '\'
+                0x394, '_', 0xaa, 0xc7, 0xc0, 0x221e, '^', '\\',
+                //  24 '€', 'Ó', '|', EXT, 'Â', 'â', 'Ê', 'É'
+                0x20ac, 0xd3, '|', 0xa0, 0xc2, 0xe2, 0xca, 0xc9,
+                //  32 ' ', '!', '"', '#', 'º', '%', '&', '''
+                ' ', '!', '"', '#', 0xba, '%', '&', '\'',
+                //  40 '(', ')', '*', '+', ',', '-', '.', '/'
+                '(', ')', '*', '+', ',', '-', '.', '/',
+                //  48 '0', '1', '2', '3', '4', '5', '6', '7'
+                '0', '1', '2', '3', '4', '5', '6', '7',
+                //  56 '8', '9', ':', ';', '<', '=', '>', '?'
+                '8', '9', ':', ';', '<', '=', '>', '?',
+                //  64 'Í', 'A', 'B', 'C', 'D', 'E', 'F', 'G'
+                0xcd, 'A', 'B', 'C', 'D', 'E', 'F', 'G',
+                //  72 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O'
+                'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O',
+                //  80 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W'
+                'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W',
+                //  88 'X', 'Y', 'Z', 'Ã', 'Õ', 'Ú', 'Ü', '§'
+                'X', 'Y', 'Z', 0xc3, 0xd5, 0xda, 0xdc, 0xa7,
+                //  96 '~', 'a', 'b', 'c', 'd', 'e', 'f', 'g'
+                '~', 'a', 'b', 'c', 'd', 'e', 'f', 'g',
+                // 104 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o'
+                'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o',
+                // 112 'p', 'q', 'r', 's', 't', 'u', 'v', 'w'
+                'p', 'q', 'r', 's', 't', 'u', 'v', 'w',
+                // 120 'x', 'y', 'z', 'ã', 'õ', '`', 'ü', 'à'
+                'x', 'y', 'z', 0xe3, 0xf5, '`', 0xfc, 0xe0};
+
+        /** Portuguese national language single shift table, 3GPP 23.038 A.2.3. */
+        static final char[] PORTUGUESE_SINGLE_SHIFT_TABLE = {
+                // LATIN SMALL LETTER E WITH CIRCUMFLEX
+                0xea, 0x05,
+                // LATIN SMALL LETTER C WITH CEDILLA
+                0xe7, 0x09,
+                // FORM FEED
+                0xc, 0x0a,
+                // LATIN CAPITAL LETTER O WITH CIRCUMFLEX
+                0xd4, 0x0b,
+                // LATIN SMALL LETTER O WITH CIRCUMFLEX
+                0xf4, 0x0c,
+                // LATIN CAPITAL LETTER A WITH ACUTE
+                0xc1, 0x0e,
+                // LATIN SMALL LETTER A WITH ACUTE
+                0xe1, 0x0f,
+                // GREEK CAPITAL LETTER PHI
+                0x3a6, 0x12,
+                // GREEK CAPITAL LETTER GAMMA
+                0x393, 0x13,
+                // CIRCUMFLEX ACCENT
+                '^', 0x14,
+                // GREEK CAPITAL LETTER OMEGA
+                0x3a9, 0x15,
+                // GREEK CAPITAL LETTER PI
+                0x3a0, 0x16,
+                // GREEK CAPITAL LETTER PSI
+                0x3a8, 0x17,
+                // GREEK CAPITAL LETTER SIGMA
+                0x3a3, 0x18,
+                // GREEK CAPITAL LETTER THETA
+                0x398, 0x19,
+                // LATIN CAPITAL LETTER E WITH CIRCUMFLEX
+                0xca, 0x1f,
+                // LEFT CURLY BRACKET
+                '{', 0x28,
+                // RIGHT CURLY BRACKET
+                '}', 0x29,
+                // REVERSE SOLIDUS
+                '\\', 0x2f,
+                // LEFT SQUARE BRACKET
+                '[', 0x3c,
+                // TILDE
+                '~', 0x3d,
+                // RIGHT SQUARE BRACKET
+                ']', 0x3e,
+                // VERTICAL LINE
+                '|', 0x40,
+                // LATIN CAPITAL LETTER A WITH GRAVE
+                0xc0, 0x41,
+                // LATIN CAPITAL LETTER I WITH ACUTE
+                0xcd, 0x49,
+                // LATIN CAPITAL LETTER O WITH ACUTE
+                0xd3, 0x4f,
+                // LATIN CAPITAL LETTER U WITH ACUTE
+                0xda, 0x55,
+                // LATIN CAPITAL LETTER A WITH TILDE
+                0xc3, 0x5b,
+                // LATIN CAPITAL LETTER O WITH TILDE
+                0xd5, 0x5c,
+                // LATIN CAPITAL LETTER A WITH CIRCUMFLEX
+                0xc2, 0x61,
+                // EURO SIGN
+                0x20ac, 0x65,
+                // LATIN SMALL LETTER I WITH ACUTE
+                0xed, 0x69,
+                // LATIN SMALL LETTER O WITH ACUTE
+                0xf3, 0x6f,
+                // LATIN SMALL LETTER U WITH ACUTE
+                0xfa, 0x75,
+                // LATIN SMALL LETTER A WITH TILDE
+                0xe3, 0x7b,
+                // LATIN SMALL LETTER O WITH TILDE
+                0xf5, 0x7c,
+                // LATIN SMALL LETTER A WITH CIRCUMFLEX
+                0xe2, 0x7f};
+        private Tables()
+        {
+        }
+    }
+}
@@ -51,6 +51,9 @@ public class SmsPdu
     protected SmsUdhElement[] udhElements_;
     protected SmsUserData ud_;
 
+    /** The encoded UDH, if the pdu was created with one. */
+    private byte[] udh_;
+
     /**
      * Creates an empty SMS pdu object
      */
@@ -89,6 +92,22 @@ public class SmsPdu
         setUserDataHeaders(udhElements);
         setUserData(ud);
     }
+
+    /**
+     * Creates an SMS pdu object with an encoded UDH.
+     * <p>
+     * getUserDataHeaders() returns the given array, it must not be modified.
+     * 
+     * @param udh
+     *            The UDH, with the UDH length octet, or null
+     * @param ud
+     *            The content
+     */
+    SmsPdu(byte[] udh, SmsUserData ud)
+    {
+        udh_ = udh;
+        setUserData(ud);
+    }
     
     /**
      * Sets the UDH field
@@ -98,6 +117,8 @@ public class SmsPdu
      */
     public void setUserDataHeaders(SmsUdhElement[] udhElements)
     {
+        udh_ = null;
+
         if (udhElements != null)
         {
             udhElements_ = new SmsUdhElement[udhElements.length];
@@ -118,6 +139,11 @@ public class SmsPdu
      */
     public byte[] getUserDataHeaders()
     {
+        if (udh_ != null)
+        {
+            return udh_;
+        }
+
         if (udhElements_ == null)
         {
             return null;
@@ -127,7 +127,40 @@ public final class SmsPduUtil
             // GREEK CAPITAL LETTER CHI
             0x03a7, 0x58,
             // GREEK CAPITAL LETTER ZETA
-            0x0396, 0x5a};
+            0x0396, 0x5a,
+            // NO-BREAK SPACE, its position in the table is the escape to the extension table
+            0x00a0, 0x20};
+
+    /**
+     * Extension table according to GSM 03.38. The chars are encoded as
+     * EXT_TABLE_PREFIX followed by the septet of the char in this table.
+     * 
+     * The table is encoded as pairs with unicode value and gsm charset value,
+     * like GSM_DEFAULT_ALPHABET_ALTERNATIVES.
+     * 
+     * See http://www.unicode.org/Public/MAPPINGS/ETSI/GSM0338.TXT
+     */
+    public static final char[] GSM_EXTENSION_TABLE = {
+            // FORM FEED
+            0x000c, 0x0a,
+            // CIRCUMFLEX ACCENT
+            '^', 0x14,
+            // LEFT CURLY BRACKET
+            '{', 0x28,
+            // RIGHT CURLY BRACKET
+            '}', 0x29,
+            // REVERSE SOLIDUS
+            '\\', 0x2f,
+            // LEFT SQUARE BRACKET
+            '[', 0x3c,
+            // TILDE
+            '~', 0x3d,
+            // RIGHT SQUARE BRACKET
+            ']', 0x3e,
+            // VERTICAL LINE
+            '|', 0x40,
+            // EURO SIGN
+            0x20ac, 0x65};
 
     /**
      * This class isn't intended to be instantiated
@@ -142,20 +175,129 @@ public final class SmsPduUtil
      */
     public static byte[] getSeptets(String msg)
     {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(140);
+        return getSeptets(msg, SmsNationalLanguage.DEFAULT, SmsNationalLanguage.DEFAULT);
+    }
 
-        try
-        {
-            writeSeptets(baos, msg);
-            baos.close();
-        }
-        catch (IOException ex)
+    /**
+     * Pack the given string into septets using national language shift
+     * tables.
+     * 
+     * @param msg
+     *            The message to encode
+     * @param lockingShift
+     *            Language of the locking shift table, must have one
+     * @param singleShift
+     *            Language of the single shift table
+     * @return The septets
+     */
+    public static byte[] getSeptets(String msg, SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift)
+    {
+        byte[] septets = new byte[getSeptetsLength(getSeptetCount(msg, lockingShift, singleShift))];
+        writeSeptets(msg, septets, 0, lockingShift, singleShift);
+        return septets;
+    }
+
+    /**
+     * Returns the number of octets needed for the given number of septets.
+     * 
+     * @param nSeptets Number of septets
+     * @return Number of octets
+     */
+    public static int getSeptetsLength(int nSeptets)
+    {
+        return (nSeptets * 7 + 7) / 8;
+    }
+
+    /**
+     * Returns the number of septets needed to encode the given string.
+     * <p>
+     * Chars from the extension table count as two septets, the escape and
+     * the char.
+     * 
+     * @param msg
+     *            The message
+     * @return Number of septets
+     */
+    public static int getSeptetCount(CharSequence msg)
+    {
+        return getSeptetCount(msg, SmsNationalLanguage.DEFAULT, SmsNationalLanguage.DEFAULT);
+    }
+
+    /**
+     * Returns the number of septets needed to encode the given string using
+     * national language shift tables.
+     * 
+     * @param msg
+     *            The message
+     * @param lockingShift
+     *            Language of the locking shift table, must have one
+     * @param singleShift
+     *            Language of the single shift table
+     * @return Number of septets
+     */
+    public static int getSeptetCount(CharSequence msg, SmsNationalLanguage lockingShift,
+            SmsNationalLanguage singleShift)
+    {
+        checkLockingShift(lockingShift);
+        GsmCharsetLookup lockingLookup = lockingShift.getLockingShiftLookup();
+        GsmCharsetLookup singleLookup = singleShift.getSingleShiftLookup();
+        int nSeptets = msg.length();
+
+        for (int i = 0; i < msg.length(); i++)
         {
-            // Should not happen...
-            throw new RuntimeException(ex);
+            char ch = msg.charAt(i);
+            if ((lockingLookup.get(ch) < 0) && (singleLookup.get(ch) >= 0))
+            {
+                nSeptets++;
+            }
         }
 
-        return baos.toByteArray();
+        return nSeptets;
+    }
+
+    /**
+     * Pack the given string into septets, directly into an array.
+     * <p>
+     * Chars from the extension table are written as EXT_TABLE_PREFIX and the
+     * septet from GSM_EXTENSION_TABLE.
+     * 
+     * @param msg
+     *            The message to encode
+     * @param out
+     *            Array to write to, must have room for
+     *            getSeptetsLength(getSeptetCount(msg)) octets from off
+     * @param off
+     *            Offset of the first octet
+     * @return Number of octets written
+     */
+    public static int writeSeptets(CharSequence msg, byte[] out, int off)
+    {
+        return writeSeptets(msg, out, off, SmsNationalLanguage.DEFAULT, SmsNationalLanguage.DEFAULT);
+    }
+
+    /**
+     * Pack the given string into septets using national language shift
+     * tables, directly into an array.
+     * 
+     * @param msg
+     *            The message to encode
+     * @param out
+     *            Array to write to, must have room for
+     *            getSeptetsLength(getSeptetCount(msg, lockingShift, singleShift))
+     *            octets from off
+     * @param off
+     *            Offset of the first octet
+     * @param lockingShift
+     *            Language of the locking shift table, must have one
+     * @param singleShift
+     *            Language of the single shift table
+     * @return Number of octets written
+     */
+    public static int writeSeptets(CharSequence msg, byte[] out, int off, 
+            SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift)
+    {
+        GsmSeptetPacker packer = new GsmSeptetPacker(msg, lockingShift, singleShift);
+        return getSeptetsLength(packer.pack(out, off, Integer.MAX_VALUE));
     }
 
     /**
@@ -170,30 +312,7 @@ public final class SmsPduUtil
      */
     public static void writeSeptets(OutputStream os, String msg) throws IOException
     {
-        int data = 0;
-        int nBits = 0;
-
-        for (int i = 0; i < msg.length(); i++)
-        {
-            byte gsmChar = toGsmCharset(msg.charAt(i));
-
-            data |= (gsmChar << nBits);
-            nBits += 7;
-
-            while (nBits >= 8)
-            {
-                os.write((char) (data & 0xff));
-
-                data >>>= 8;
-                nBits -= 8;
-            } // while
-        } // for
-
-        // Write remaining byte
-        if (nBits > 0)
-        {
-            os.write(data);
-        }
+        os.write(getSeptets(msg));
     }
 
     /**
@@ -202,10 +321,30 @@ public final class SmsPduUtil
      * @param data
      *            The byte array to read from
      * @param length
-     *            Number of decoded chars to read from the stream
+     *            Number of septets to read, escapes included
      * @return The decoded string
      */
     public static String readSeptets(byte[] data, int length)
+    {
+        return readSeptets(data, length, SmsNationalLanguage.DEFAULT, SmsNationalLanguage.DEFAULT);
+    }
+
+    /**
+     * Decodes a 7-bit encoded string from the given byte array using
+     * national language shift tables
+     * 
+     * @param data
+     *            The byte array to read from
+     * @param length
+     *            Number of septets to read, escapes included
+     * @param lockingShift
+     *            Language of the locking shift table, must have one
+     * @param singleShift
+     *            Language of the single shift table
+     * @return The decoded string
+     */
+    public static String readSeptets(byte[] data, int length, 
+            SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift)
     {
         if (data == null)
         {
@@ -214,7 +353,7 @@ public final class SmsPduUtil
 
         try
         {
-            return readSeptets(new ByteArrayInputStream(data), length);
+            return readSeptets(new ByteArrayInputStream(data), length, lockingShift, singleShift);
         }
         catch (IOException ex)
         {
@@ -225,23 +364,54 @@ public final class SmsPduUtil
     
     /**
      * Decodes a 7-bit encoded string from the stream
+     * <p>
+     * EXT_TABLE_PREFIX and the following septet are decoded with the
+     * extension table. Unknown extension chars are decoded with the default
+     * table, as GSM 03.38 says.
      * 
      * @param is
      *            The stream to read from
      * @param length
-     *            Number of decoded chars to read from the stream
+     *            Number of septets to read from the stream, escapes included
      * @return The decoded string
      * @throws IOException
      *             when failing to read from is
      */
     public static String readSeptets(InputStream is, int length) throws IOException
     {
+        return readSeptets(is, length, SmsNationalLanguage.DEFAULT, SmsNationalLanguage.DEFAULT);
+    }
+
+    /**
+     * Decodes a 7-bit encoded string from the stream using national language
+     * shift tables
+     * 
+     * @param is
+     *            The stream to read from
+     * @param length
+     *            Number of septets to read from the stream, escapes included
+     * @param lockingShift
+     *            Language of the locking shift table, must have one
+     * @param singleShift
+     *            Language of the single shift table
+     * @return The decoded string
+     * @throws IOException
+     *             when failing to read from is
+     */
+    public static String readSeptets(InputStream is, int length, 
+            SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift) throws IOException
+    {
+        checkLockingShift(lockingShift);
+        char[] lockingTable = lockingShift.getLockingShiftTable();
+        char[] singleTable = singleShift.getSingleShiftDecodeTable();
         StringBuilder msg = new StringBuilder(160);
 
         int rest = 0;
         int restBits = 0;
+        int nSeptets = 0;
+        boolean escape = false;
 
-        while (msg.length() < length)
+        while (nSeptets < length)
         {
             int data = is.read();
 
@@ -253,18 +423,114 @@ public final class SmsPduUtil
             rest |= (data << restBits);
             restBits += 8;
 
-            while ((msg.length() < length) && (restBits >= 7))
+            while ((nSeptets < length) && (restBits >= 7))
             {
-                msg.append(fromGsmCharset((byte) (rest & 0x7f)));
+                int septet = rest & 0x7f;
+
+                if (escape)
+                {
+                    char ext = singleTable[septet];
+                    msg.append((ext != 0) ? ext : lockingTable[septet]);
+                    escape = false;
+                }
+                else if (septet == EXT_TABLE_PREFIX)
+                {
+                    escape = true;
+                }
+                else
+                {
+                    msg.append(lockingTable[septet]);
+                }
 
                 rest >>>= 7;
                 restBits -= 7;
+                nSeptets++;
             }
         } // for
 
         return msg.toString();
     }
 
+    /**
+     * Checks that a language can be used as locking shift table.
+     * 
+     * @throws IllegalArgumentException
+     *             if the language doesn't have a locking shift table
+     */
+    static void checkLockingShift(SmsNationalLanguage lockingShift)
+    {
+        if (!lockingShift.hasLockingShiftTable())
+        {
+            throw new IllegalArgumentException(lockingShift + " doesn't have a locking shift table");
+        }
+    }
+
+    /**
+     * Unpacks septets into one byte per septet.
+     * 
+     * @param data
+     *            The packed septets
+     * @param nSeptets
+     *            Number of septets
+     * @return The septets
+     */
+    static byte[] unpackSeptets(byte[] data, int nSeptets)
+    {
+        byte[] septets = new byte[nSeptets];
+
+        for (int i = 0; i < nSeptets; i++)
+        {
+            int bit = i * 7;
+            int value = (data[bit / 8] & 0xff) >>> (bit % 8);
+            if ((bit % 8) > 1)
+            {
+                value |= (data[bit / 8 + 1] & 0xff) << (8 - (bit % 8));
+            }
+            septets[i] = (byte) (value & 0x7f);
+        }
+
+        return septets;
+    }
+
+    /**
+     * Packs septets stored as one byte per septet.
+     * 
+     * @param septets
+     *            The septets
+     * @param offset
+     *            Index of the first septet
+     * @param nSeptets
+     *            Number of septets
+     * @return The packed septets
+     */
+    static byte[] packSeptets(byte[] septets, int offset, int nSeptets)
+    {
+        byte[] data = new byte[getSeptetsLength(nSeptets)];
+        int value = 0;
+        int nBits = 0;
+        int pos = 0;
+
+        for (int i = 0; i < nSeptets; i++)
+        {
+            value |= septets[offset + i] << nBits;
+            nBits += 7;
+
+            if (nBits >= 8)
+            {
+                data[pos++] = (byte) value;
+                value >>>= 8;
+                nBits -= 8;
+            }
+        }
+
+        if (nBits > 0)
+        {
+            data[pos] = (byte) value;
+        }
+
+        return data;
+    }
+
     /**
      * Writes the given phonenumber to the stream (BCD coded)
      * 
@@ -425,6 +691,9 @@ public final class SmsPduUtil
 
     /**
      * Converts a unicode string to GSM charset
+     * <p>
+     * Chars from the extension table are converted to EXT_TABLE_PREFIX and
+     * the char in the extension table.
      * 
      * @param str
      *            String to convert
@@ -432,11 +701,24 @@ public final class SmsPduUtil
      */
     public static byte[] toGsmCharset(String str)
     {
-        byte[] gsmBytes = new byte[str.length()];
+        byte[] gsmBytes = new byte[getSeptetCount(str)];
+        int pos = 0;
 
-        for (int i = 0; i < gsmBytes.length; i++)
+        for (int i = 0; i < str.length(); i++)
         {
-            gsmBytes[i] = toGsmCharset(str.charAt(i));
+            char ch = str.charAt(i);
+            int septet = SmsNationalLanguage.DEFAULT.getLockingShiftLookup().get(ch);
+            int ext = (septet < 0) ? SmsNationalLanguage.DEFAULT.getSingleShiftLookup().get(ch) : -1;
+
+            if (ext >= 0)
+            {
+                gsmBytes[pos++] = EXT_TABLE_PREFIX;
+                gsmBytes[pos++] = (byte) ext;
+            }
+            else
+            {
+                gsmBytes[pos++] = (septet < 0) ? (byte) '?' : (byte) septet;
+            }
         }
 
         return gsmBytes;
@@ -444,6 +726,9 @@ public final class SmsPduUtil
 
     /**
      * Convert a unicode char to a GSM char
+     * <p>
+     * Chars that are only in the extension table are converted to '?', use
+     * toGsmCharset(String) for them.
      * 
      * @param ch
      *            The unicode char to convert
@@ -451,27 +736,10 @@ public final class SmsPduUtil
      */
     public static byte toGsmCharset(char ch)
     {
-        // First check through the GSM charset table
-        for (int i = 0; i < GSM_DEFAULT_ALPHABET_TABLE.length; i++)
-        {
-            if (GSM_DEFAULT_ALPHABET_TABLE[i] == ch)
-            {
-                // Found the correct char
-                return (byte) i;
-            }
-        }
-
-        // Alternative chars.
-        for (int i = 0; i < GSM_DEFAULT_ALPHABET_ALTERNATIVES.length / 2; i += 2)
-        {
-            if (GSM_DEFAULT_ALPHABET_ALTERNATIVES[i * 2] == ch) 
-            { 
-                return (byte) (GSM_DEFAULT_ALPHABET_ALTERNATIVES[i * 2 + 1] & 0x7f); 
-            }
-        }
+        int septet = SmsNationalLanguage.DEFAULT.getLockingShiftLookup().get(ch);
 
         // Couldn't find a valid char
-        return '?';
+        return (septet < 0) ? (byte) '?' : (byte) septet;
     }
 
     /**
@@ -507,5 +775,9 @@ public final class SmsPduUtil
         {
             dest[destStart + nBytes] |= c & 0xff;
         }
+        if ((nRestBits + destBitOffset) > 8)
+        {
+            dest[destStart + nBytes + 1] |= (c >>> 8) & 0xff;
+        }
     }
 }
@@ -0,0 +1,426 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+/**
+ * The cheapest way to send a text, and how many SMS it needs.
+ * <p>
+ * The text is analyzed in one pass without creating any PDUs, so this can
+ * be used to quote the cost of a message before sending it. The segments
+ * are the same as the ones created by SmsTextMessage with the selected
+ * encoding and concat mode, when the message has no UDH elements of its
+ * own.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public final class SmsTextAnalysis
+{
+    /** Max octets of user data in one SMS. */
+    private static final int MAX_UD_OCTETS = 140;
+
+    /** Size of a shift UDH element, IEI, length and language id. */
+    private static final int SHIFT_UDH_SIZE = 3;
+
+    private static final SmsNationalLanguage[] NO_LANGUAGES = new SmsNationalLanguage[0];
+
+    private final SmsTextEncoding encoding_;
+    private final SmsNationalLanguage lockingShift_;
+    private final SmsNationalLanguage singleShift_;
+    private final int textLength_;
+    private final int length_;
+    private final int[] segmentEnds_;
+    private final int nSegments_;
+
+    private SmsTextAnalysis(SmsTextEncoding encoding, SmsNationalLanguage lockingShift,
+            SmsNationalLanguage singleShift, int textLength, int length, int[] segmentEnds, int nSegments)
+    {
+        encoding_ = encoding;
+        lockingShift_ = lockingShift;
+        singleShift_ = singleShift;
+        textLength_ = textLength;
+        length_ = length;
+        segmentEnds_ = segmentEnds;
+        nSegments_ = nSegments;
+    }
+
+    /**
+     * Analyzes a text for the default GSM alphabet, extension table and UCS2.
+     * 
+     * @param text The text
+     * @return The cheapest encoding
+     */
+    public static SmsTextAnalysis analyze(CharSequence text)
+    {
+        return analyze(text, NO_LANGUAGES);
+    }
+
+    /**
+     * Analyzes a text for the default GSM alphabet, extension table, the
+     * shift tables of the given languages and UCS2.
+     * <p>
+     * The encoding that needs the fewest SMS wins. On ties the smallest UDH
+     * wins, and after that the fewest septets. UCS2 is only used if no GSM
+     * tables can encode all chars.
+     * 
+     * @param text The text
+     * @param languages The national languages that may be used
+     * @return The cheapest encoding
+     */
+    public static SmsTextAnalysis analyze(CharSequence text, SmsNationalLanguage[] languages)
+    {
+        return analyze(text, languages, SmsConcatMode.CONCAT_8BIT);
+    }
+
+    /**
+     * Analyzes a text like analyze(CharSequence, SmsNationalLanguage[]) for
+     * messages that are concatenated with the given concat mode.
+     * 
+     * @param text The text
+     * @param languages The national languages that may be used
+     * @param concatMode The concat mode
+     * @return The cheapest encoding
+     */
+    public static SmsTextAnalysis analyze(CharSequence text, SmsNationalLanguage[] languages, 
+            SmsConcatMode concatMode)
+    {
+        // UDH length octet and concat element
+        int concatUdhSize = 1 + concatMode.getUdhSize();
+        SmsNationalLanguage[] singleShifts = getCandidates(languages, false);
+        SmsNationalLanguage[] lockingShifts = getCandidates(languages, true);
+        int nSingle = singleShifts.length;
+        int nPairs = lockingShifts.length * nSingle;
+
+        GsmCharsetLookup[] lockingLookups = new GsmCharsetLookup[lockingShifts.length];
+        for (int i = 0; i < lockingShifts.length; i++)
+        {
+            lockingLookups[i] = lockingShifts[i].getLockingShiftLookup();
+        }
+        GsmCharsetLookup[] singleLookups = new GsmCharsetLookup[nSingle];
+        for (int i = 0; i < nSingle; i++)
+        {
+            singleLookups[i] = singleShifts[i].getSingleShiftLookup();
+        }
+
+        // State of each locking/single shift pair, pair p uses locking shift
+        // p / nSingle and single shift p % nSingle. A pair that can't encode
+        // a char gets -1 septets.
+        int[] maxConcatSeptets = new int[nPairs];
+        int[] nSeptets = new int[nPairs];
+        int[] fill = new int[nPairs];
+        int[][] ends = new int[nPairs][];
+        int[] nEnds = new int[nPairs];
+        int nAlive = nPairs;
+
+        for (int p = 0; p < nPairs; p++)
+        {
+            int udhLength = getUdhLength(lockingShifts[p / nSingle], singleShifts[p % nSingle]);
+            maxConcatSeptets[p] = ((MAX_UD_OCTETS - concatUdhSize - udhLength) * 8) / 7;
+        }
+
+        int[] singleSeptets = new int[nSingle];
+        for (int i = 0; (i < text.length()) && (nAlive > 0); i++)
+        {
+            char ch = text.charAt(i);
+
+            for (int s = 0; s < nSingle; s++)
+            {
+                singleSeptets[s] = -2;
+            }
+
+            for (int l = 0; l < lockingLookups.length; l++)
+            {
+                int lockingCost = (lockingLookups[l].get(ch) >= 0) ? 1 : 0;
+
+                for (int s = 0; s < nSingle; s++)
+                {
+                    int p = l * nSingle + s;
+                    if (nSeptets[p] < 0)
+                    {
+                        continue;
+                    }
+
+                    int cost = lockingCost;
+                    if (cost == 0)
+                    {
+                        if (singleSeptets[s] == -2)
+                        {
+                            singleSeptets[s] = singleLookups[s].get(ch);
+                        }
+                        if (singleSeptets[s] < 0)
+                        {
+                            nSeptets[p] = -1;
+                            nAlive--;
+                            continue;
+                        }
+                        cost = 2;
+                    }
+
+                    nSeptets[p] += cost;
+                    fill[p] += cost;
+                    if (fill[p] > maxConcatSeptets[p])
+                    {
+                        // The char starts the next concatenated SMS
+                        if ((ends[p] == null) || (nEnds[p] == ends[p].length))
+                        {
+                            ends[p] = grow(ends[p]);
+                        }
+                        ends[p][nEnds[p]++] = i;
+                        fill[p] = cost;
+                    }
+                }
+            }
+        }
+
+        int best = -1;
+        int bestSms = Integer.MAX_VALUE;
+        int bestUdh = Integer.MAX_VALUE;
+
+        for (int p = 0; p < nPairs; p++)
+        {
+            if (nSeptets[p] < 0)
+            {
+                continue;
+            }
+
+            int udhLength = getUdhLength(lockingShifts[p / nSingle], singleShifts[p % nSingle]);
+            int nSms = isSingleSms(nSeptets[p], udhLength) ? 1 : nEnds[p] + 1;
+
+            if ((nSms < bestSms) 
+                    || ((nSms == bestSms) && (udhLength < bestUdh))
+                    || ((nSms == bestSms) && (udhLength == bestUdh) && (nSeptets[p] < nSeptets[best])))
+            {
+                best = p;
+                bestSms = nSms;
+                bestUdh = udhLength;
+            }
+        }
+
+        if (best < 0)
+        {
+            return analyzeUcs2(text, concatUdhSize);
+        }
+
+        SmsNationalLanguage lockingShift = lockingShifts[best / nSingle];
+        SmsNationalLanguage singleShift = singleShifts[best % nSingle];
+        SmsTextEncoding encoding;
+        if ((lockingShift != SmsNationalLanguage.DEFAULT) || (singleShift != SmsNationalLanguage.DEFAULT))
+        {
+            encoding = SmsTextEncoding.GSM_NATIONAL_LANGUAGE;
+        }
+        else
+        {
+            encoding = (nSeptets[best] > text.length()) ? SmsTextEncoding.GSM_EXTENSION : SmsTextEncoding.GSM;
+        }
+
+        int[] segmentEnds = (bestSms == 1) ? null : ends[best];
+        return new SmsTextAnalysis(encoding, lockingShift, singleShift, text.length(), nSeptets[best], 
+                segmentEnds, bestSms);
+    }
+
+    /**
+     * Creates the analysis of a UCS2 encoded text.
+     */
+    private static SmsTextAnalysis analyzeUcs2(CharSequence text, int concatUdhSize)
+    {
+        int length = text.length();
+        int[] segmentEnds = null;
+        int nSms = 1;
+
+        if (length * 2 > MAX_UD_OCTETS)
+        {
+            int maxConcatChars = (MAX_UD_OCTETS - concatUdhSize) / 2;
+            nSms = (length + maxConcatChars - 1) / maxConcatChars;
+            segmentEnds = new int[nSms - 1];
+            for (int i = 0; i < segmentEnds.length; i++)
+            {
+                segmentEnds[i] = (i + 1) * maxConcatChars;
+            }
+        }
+
+        return new SmsTextAnalysis(SmsTextEncoding.UCS2, null, null, length, length * 2, segmentEnds, nSms);
+    }
+
+    /**
+     * Returns the default tables followed by the given languages, without
+     * duplicates.
+     */
+    private static SmsNationalLanguage[] getCandidates(SmsNationalLanguage[] languages, boolean lockingShift)
+    {
+        SmsNationalLanguage[] candidates = new SmsNationalLanguage[languages.length + 1];
+        int n = 0;
+
+        candidates[n++] = SmsNationalLanguage.DEFAULT;
+        for (SmsNationalLanguage language : languages)
+        {
+            if ((!lockingShift || language.hasLockingShiftTable()) && !contains(candidates, n, language))
+            {
+                candidates[n++] = language;
+            }
+        }
+
+        if (n < candidates.length)
+        {
+            SmsNationalLanguage[] tmp = new SmsNationalLanguage[n];
+            System.arraycopy(candidates, 0, tmp, 0, n);
+            candidates = tmp;
+        }
+        return candidates;
+    }
+
+    private static boolean contains(SmsNationalLanguage[] languages, int n, SmsNationalLanguage language)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            if (languages[i] == language)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] grow(int[] ends)
+    {
+        int[] tmp = new int[(ends == null) ? 4 : ends.length * 2];
+        if (ends != null)
+        {
+            System.arraycopy(ends, 0, tmp, 0, ends.length);
+        }
+        return tmp;
+    }
+
+    /**
+     * Returns the size of the shift UDH elements for the tables.
+     */
+    private static int getUdhLength(SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift)
+    {
+        int udhLength = 0;
+        if (lockingShift != SmsNationalLanguage.DEFAULT)
+        {
+            udhLength += SHIFT_UDH_SIZE;
+        }
+        if (singleShift != SmsNationalLanguage.DEFAULT)
+        {
+            udhLength += SHIFT_UDH_SIZE;
+        }
+        return udhLength;
+    }
+
+    /**
+     * Returns true if the septets fit in one SMS with a UDH of the given
+     * size, not counting the UDH length octet.
+     */
+    private static boolean isSingleSms(int nSeptets, int udhLength)
+    {
+        int maxOctets = (udhLength == 0) ? MAX_UD_OCTETS : MAX_UD_OCTETS - udhLength - 1;
+        return nSeptets <= (maxOctets * 8) / 7;
+    }
+
+    /**
+     * Returns the cheapest encoding.
+     */
+    public SmsTextEncoding getEncoding()
+    {
+        return encoding_;
+    }
+
+    /**
+     * Returns the alphabet of the encoding, GSM or UCS2.
+     */
+    public SmsAlphabet getAlphabet()
+    {
+        return (encoding_ == SmsTextEncoding.UCS2) ? SmsAlphabet.UCS2 : SmsAlphabet.GSM;
+    }
+
+    /**
+     * Returns the language of the locking shift table, null for UCS2.
+     */
+    public SmsNationalLanguage getLockingShift()
+    {
+        return lockingShift_;
+    }
+
+    /**
+     * Returns the language of the single shift table, null for UCS2.
+     */
+    public SmsNationalLanguage getSingleShift()
+    {
+        return singleShift_;
+    }
+
+    /**
+     * Returns the length of the encoded text. In septets for GSM, escapes
+     * included, and in octets for UCS2.
+     */
+    public int getLength()
+    {
+        return length_;
+    }
+
+    /**
+     * Returns the number of SMS needed for the text.
+     */
+    public int getSegmentCount()
+    {
+        return nSegments_;
+    }
+
+    /**
+     * Returns the index of the first char in a segment.
+     * 
+     * @param segment The segment, from 0
+     * @return Index of the first char of the segment in the text
+     */
+    public int getSegmentStart(int segment)
+    {
+        return (segment == 0) ? 0 : getSegmentEnd(segment - 1);
+    }
+
+    /**
+     * Returns the index after the last char in a segment.
+     * 
+     * @param segment The segment, from 0
+     * @return Index after the last char of the segment in the text
+     */
+    public int getSegmentEnd(int segment)
+    {
+        if ((segment < 0) || (segment >= nSegments_))
+        {
+            throw new IndexOutOfBoundsException("No segment " + segment + ", there are " + nSegments_);
+        }
+        return (segment == nSegments_ - 1) ? textLength_ : segmentEnds_[segment];
+    }
+}
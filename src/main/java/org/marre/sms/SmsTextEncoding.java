@@ -0,0 +1,18 @@
+package org.marre.sms;
+
+/**
+ * The ways a text can be encoded in an SMS, from cheapest to most expensive.
+ */
+public enum SmsTextEncoding {
+    /** The default GSM alphabet only. */
+    GSM,
+
+    /** The default GSM alphabet and the extension table, extension chars use two septets. */
+    GSM_EXTENSION,
+
+    /** GSM with national language shift tables, selected with UDH elements. */
+    GSM_NATIONAL_LANGUAGE,
+
+    /** Unicode UCS-2. */
+    UCS2;
+}
@@ -42,6 +42,11 @@ import java.nio.charset.StandardCharsets;
  * <p>
  * The text can be sent in unicode (max 70 chars/SMS), 8-bit (max 140 chars/SMS)
  * or GSM encoding (max 160 chars/SMS).
+ * <p>
+ * GSM encoded text can use the national language shift tables. They are
+ * either set explicitly or selected from a set of languages to get as few
+ * SMS as possible. The alphabet can also be selected automatically, see
+ * SmsTextAnalysis.
  *
  * @author Markus Eriksson
  * @version $Id$
@@ -50,6 +55,9 @@ public class SmsTextMessage extends SmsConcatMessage
 {
     private String text_;
     private SmsDcs dcs_;
+    private SmsNationalLanguage lockingShift_ = SmsNationalLanguage.DEFAULT;
+    private SmsNationalLanguage singleShift_ = SmsNationalLanguage.DEFAULT;
+    private SmsNationalLanguage[] languages_;
     
     /**
      * Creates an SmsTextMessage with the given dcs.
@@ -83,6 +91,40 @@ public class SmsTextMessage extends SmsConcatMessage
     {
         this(msg, SmsAlphabet.GSM, SmsMsgClass.CLASS_UNKNOWN);
     }
+
+    /**
+     * Creates an SmsTextMessage that selects the alphabet and national
+     * language shift tables that gives the fewest SMS.
+     * <p>
+     * The GSM alphabet is used if the default tables or the tables of one of
+     * the languages can encode the whole text, otherwise UCS2. The selection
+     * is done again when the text is changed with setText(String).
+     *
+     * @param msg The message
+     * @param languages The languages that may be used, the default tables
+     *            are always used if they are as good
+     */
+    public SmsTextMessage(String msg, SmsNationalLanguage[] languages)
+    {
+        this(msg, SmsMsgClass.CLASS_UNKNOWN, languages);
+    }
+
+    /**
+     * Creates an SmsTextMessage with the given message class that selects
+     * the alphabet and national language shift tables that gives the fewest
+     * SMS.
+     *
+     * @param msg The message
+     * @param messageClass The messageclass
+     * @param languages The languages that may be used, an empty array to
+     *            only select between GSM and UCS2
+     */
+    public SmsTextMessage(String msg, SmsMsgClass messageClass, SmsNationalLanguage[] languages)
+    {
+        languages_ = languages.clone();
+        dcs_ = SmsDcs.getGeneralDataCodingDcs(SmsAlphabet.GSM, messageClass);
+        setText(msg);
+    }
     
     /**
      * Returns the text message. 
@@ -105,10 +147,14 @@ public class SmsTextMessage extends SmsConcatMessage
         }
         
         text_ = text;
+        selectEncoding();
     }
 
     /**
-     * Sets the text.
+     * Sets the text and dcs.
+     * <p>
+     * Disables the automatic selection of alphabet and shift tables, the
+     * default tables are used.
      * 
      * @param text
      */
@@ -127,6 +173,71 @@ public class SmsTextMessage extends SmsConcatMessage
         
         text_ = text;
         dcs_ = dcs;
+        lockingShift_ = SmsNationalLanguage.DEFAULT;
+        singleShift_ = SmsNationalLanguage.DEFAULT;
+        languages_ = null;
+    }
+
+    /**
+     * Sets the national language shift tables used for GSM encoded text.
+     * <p>
+     * Disables the automatic selection.
+     * 
+     * @param lockingShift Language of the locking shift table, must have one
+     * @param singleShift Language of the single shift table
+     */
+    public void setNationalLanguage(SmsNationalLanguage lockingShift, SmsNationalLanguage singleShift)
+    {
+        if (!lockingShift.hasLockingShiftTable())
+        {
+            throw new IllegalArgumentException(lockingShift + " doesn't have a locking shift table.");
+        }
+
+        lockingShift_ = lockingShift;
+        singleShift_ = singleShift;
+        languages_ = null;
+    }
+
+    /**
+     * Returns the language of the locking shift table.
+     */
+    public SmsNationalLanguage getLockingShift()
+    {
+        return lockingShift_;
+    }
+
+    /**
+     * Returns the language of the single shift table.
+     */
+    public SmsNationalLanguage getSingleShift()
+    {
+        return singleShift_;
+    }
+
+    /**
+     * Selects the alphabet and shift tables for the text, if automatic
+     * selection is used.
+     */
+    private void selectEncoding()
+    {
+        if (languages_ == null)
+        {
+            return;
+        }
+
+        SmsTextAnalysis analysis = SmsTextAnalysis.analyze(text_, languages_, getConcatMode());
+        dcs_ = SmsDcs.getGeneralDataCodingDcs(analysis.getAlphabet(), dcs_.getMessageClass());
+
+        if (analysis.getAlphabet() == SmsAlphabet.GSM)
+        {
+            lockingShift_ = analysis.getLockingShift();
+            singleShift_ = analysis.getSingleShift();
+        }
+        else
+        {
+            lockingShift_ = SmsNationalLanguage.DEFAULT;
+            singleShift_ = SmsNationalLanguage.DEFAULT;
+        }
     }
     
     /**
@@ -148,7 +259,8 @@ public class SmsTextMessage extends SmsConcatMessage
         switch (dcs_.getAlphabet())
         {
         case GSM:
-            ud = new SmsUserData(SmsPduUtil.getSeptets(text_), text_.length(), dcs_);
+            ud = new SmsUserData(SmsPduUtil.getSeptets(text_, lockingShift_, singleShift_), 
+                    SmsPduUtil.getSeptetCount(text_, lockingShift_, singleShift_), dcs_);
             break;
 
         case LATIN1:
@@ -168,10 +280,67 @@ public class SmsTextMessage extends SmsConcatMessage
     }
 
     /**
-     * Returns null.
+     * Converts this message into SmsPdu:s
+     * <p>
+     * GSM encoded text is packed directly from the text into each SmsPdu.
+     * 
+     * @param destination The destination, or null
+     * @param refAllocator The allocator of the reference number
+     * @return Returns the message as SmsPdu:s
+     */
+    SmsPdu[] createPdus(SmsAddress destination, SmsConcatRefAllocator refAllocator)
+    {
+        if (dcs_.getAlphabet() != SmsAlphabet.GSM)
+        {
+            return super.createPdus(destination, refAllocator);
+        }
+
+        return createSeptetPdus(getUdhElements(), text_, lockingShift_, singleShift_, dcs_, destination,
+                refAllocator);
+    }
+
+    /**
+     * Sets the concat mode, and selects the alphabet and shift tables again
+     * if automatic selection is used.
+     * 
+     * @param concatMode The concat mode
+     */
+    public void setConcatMode(SmsConcatMode concatMode)
+    {
+        super.setConcatMode(concatMode);
+        selectEncoding();
+    }
+
+    /**
+     * Returns the national language shift UDH elements of GSM encoded text,
+     * null if the default tables are used.
      */
     public SmsUdhElement[] getUdhElements()
     {
-        return null;
+        if (dcs_.getAlphabet() != SmsAlphabet.GSM)
+        {
+            return null;
+        }
+
+        boolean locking = (lockingShift_ != SmsNationalLanguage.DEFAULT);
+        boolean single = (singleShift_ != SmsNationalLanguage.DEFAULT);
+
+        if (locking && single)
+        {
+            return new SmsUdhElement[]{SmsUdhUtil.getLockingShiftUdh(lockingShift_), 
+                    SmsUdhUtil.getSingleShiftUdh(singleShift_)};
+        }
+        else if (locking)
+        {
+            return new SmsUdhElement[]{SmsUdhUtil.getLockingShiftUdh(lockingShift_)};
+        }
+        else if (single)
+        {
+            return new SmsUdhElement[]{SmsUdhUtil.getSingleShiftUdh(singleShift_)};
+        }
+        else
+        {
+            return null;
+        }
     }
 }
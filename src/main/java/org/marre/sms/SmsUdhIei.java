@@ -26,6 +26,11 @@ public final class SmsUdhIei {
     /** Hyperlink format element. */
     public static final SmsUdhIei HYPERLINK_FORMAT = new SmsUdhIei((byte)0x21, "HYPERLINK_FORMAT");
 
+    /** National Language Single Shift. */
+    public static final SmsUdhIei NATIONAL_LANGUAGE_SINGLE_SHIFT = new SmsUdhIei((byte)0x24, "NATIONAL_LANGUAGE_SINGLE_SHIFT");
+    /** National Language Locking Shift. */
+    public static final SmsUdhIei NATIONAL_LANGUAGE_LOCKING_SHIFT = new SmsUdhIei((byte)0x25, "NATIONAL_LANGUAGE_LOCKING_SHIFT");
+
     private final byte value;
     private final String name;
 
@@ -51,6 +56,8 @@ public final class SmsUdhIei {
             case 0x09: return WCMP;
             case 0x20: return RFC822_EMAIL_HEADER;
             case 0x21: return HYPERLINK_FORMAT;
+            case 0x24: return NATIONAL_LANGUAGE_SINGLE_SHIFT;
+            case 0x25: return NATIONAL_LANGUAGE_LOCKING_SHIFT;
             default: return new SmsUdhIei(value, String.valueOf(value));
         }
     }
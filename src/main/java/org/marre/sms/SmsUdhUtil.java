@@ -299,4 +299,40 @@ public final class SmsUdhUtil
 
         return new SmsUdhElement(SmsUdhIei.CONCATENATED_16BIT, udh);
     }
+
+    /**
+     * Creates a "National Language Single Shift" UDH element using
+     * NATIONAL_LANGUAGE_SINGLE_SHIFT.
+     * <p>
+     * The element must be in every SMS of a concatenated message.
+     *
+     * @param language The language of the single shift table
+     * @return A SmsUdhElement
+     */
+    public static SmsUdhElement getSingleShiftUdh(SmsNationalLanguage language)
+    {
+        byte[] udh = new byte[1];
+
+        udh[0] = (byte) (language.getId() & 0xff);
+
+        return new SmsUdhElement(SmsUdhIei.NATIONAL_LANGUAGE_SINGLE_SHIFT, udh);
+    }
+
+    /**
+     * Creates a "National Language Locking Shift" UDH element using
+     * NATIONAL_LANGUAGE_LOCKING_SHIFT.
+     * <p>
+     * The element must be in every SMS of a concatenated message.
+     *
+     * @param language The language of the locking shift table
+     * @return A SmsUdhElement
+     */
+    public static SmsUdhElement getLockingShiftUdh(SmsNationalLanguage language)
+    {
+        byte[] udh = new byte[1];
+
+        udh[0] = (byte) (language.getId() & 0xff);
+
+        return new SmsUdhElement(SmsUdhIei.NATIONAL_LANGUAGE_LOCKING_SHIFT, udh);
+    }
 }
@@ -35,6 +35,7 @@
 package org.marre.sms.transport;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Properties;
 
 import org.marre.sms.SmsAddress;
@@ -100,6 +101,24 @@ public interface SmsTransport
      */
     String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException;
 
+    /**
+     * Sends the same SmsMessage to many destinations.
+     * 
+     * The message is only encoded once and the resulting pdus are sent to every destination. Transports that
+     * can submit to several recipients at once do so.
+     * 
+     * The returned array contains the message id of each destination, in the order of the collection. A
+     * destination that was rejected by the SMS server gets a null id, the rest of the batch is still sent.
+     * 
+     * @param msg The Message to send
+     * @param dests Destination addresses
+     * @param sender Sender address
+     * @return local identifiers for the message, one per destination.
+     * @throws SmsException Indicates a sms related problem.
+     * @throws IOException Inidicates a failure to communicate with the SMS server.
+     */
+    String[] sendBatch(SmsMessage msg, Collection<SmsAddress> dests, SmsAddress sender) throws SmsException, IOException;
+
     /**
      * Disconnects from the SMS server.
      * 
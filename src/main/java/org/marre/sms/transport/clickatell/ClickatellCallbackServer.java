@@ -0,0 +1,361 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.marre.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Receives Clickatell message status callbacks over HTTP.
+ * <p>
+ * Clickatell calls the callback URL of the account, with GET or POST, for
+ * messages sent with smsj.clickatell.callback set. The callback is parsed
+ * into a ClickatellStatus and given to the listener registered for its
+ * apiMsgId, the id that ClickatellTransport returned for the message. The
+ * listener is removed when the status is final. Statuses without a
+ * registered listener go to the default listener, a callback can arrive
+ * before the sender has registered the id.
+ * <p>
+ * Final statuses that no listener got, when there is no default listener,
+ * are kept for ten minutes, at most 10000 of them. A listener that is added
+ * for such a message gets the status at once and isn't registered, so it
+ * doesn't stay forever. A status is never given to two listeners.
+ * <p>
+ * Uses the HTTP server of the JDK, no servlet container is needed.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellCallbackServer
+{
+    private static final Logger log_ = LoggerFactory.getLogger(ClickatellCallbackServer.class);
+
+    private static final long RECENT_FINAL_TTL = 10 * 60 * 1000L;
+    private static final int MAX_RECENT_FINAL = 10000;
+
+    private final InetSocketAddress address_;
+    private final String path_;
+    private final Map<String, ClickatellStatusListener> listeners_ =
+        new ConcurrentHashMap<String, ClickatellStatusListener>();
+    private volatile ClickatellStatusListener defaultListener_;
+
+    /** Final statuses without a listener, oldest first. Guarded by listeners_. */
+    private final LinkedHashMap<String, ClickatellStatus> recentFinal_ =
+        new LinkedHashMap<String, ClickatellStatus>();
+    private final Map<String, Long> recentFinalTimes_ = new HashMap<String, Long>();
+    private HttpServer server_;
+
+    /**
+     * Creates a callback server.
+     * 
+     * @param address The address to listen on, port 0 for any free port
+     * @param path The path of the callback URL, ex "/clickatell"
+     */
+    public ClickatellCallbackServer(InetSocketAddress address, String path)
+    {
+        address_ = address;
+        path_ = path;
+    }
+
+    /**
+     * Starts listening for callbacks.
+     * 
+     * @throws IOException If the address couldn't be bound
+     */
+    public synchronized void start() throws IOException
+    {
+        if (server_ != null)
+        {
+            return;
+        }
+
+        server_ = HttpServer.create(address_, 0);
+        server_.createContext(path_, new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleCallback(exchange);
+            }
+        });
+        server_.start();
+        log_.info("Listening for Clickatell callbacks on {}", server_.getAddress());
+    }
+
+    /**
+     * Stops listening, callbacks in progress are given a second to finish.
+     */
+    public synchronized void stop()
+    {
+        if (server_ != null)
+        {
+            server_.stop(1);
+            server_ = null;
+        }
+    }
+
+    /**
+     * Returns the address that the server is bound to.
+     * 
+     * @return The address, null if not started
+     */
+    public synchronized InetSocketAddress getAddress()
+    {
+        return (server_ != null) ? server_.getAddress() : null;
+    }
+
+    /**
+     * Registers a listener for the statuses of one message.
+     * <p>
+     * If the final status of the message has already arrived, and there was
+     * no default listener to give it to, it is given to the listener at once
+     * and the listener isn't registered.
+     * 
+     * @param apiMsgId The id returned when the message was sent
+     * @param listener The listener
+     */
+    public void addListener(String apiMsgId, ClickatellStatusListener listener)
+    {
+        ClickatellStatus recent;
+
+        synchronized (listeners_)
+        {
+            recent = recentFinal_.remove(apiMsgId);
+            recentFinalTimes_.remove(apiMsgId);
+            if (recent == null)
+            {
+                listeners_.put(apiMsgId, listener);
+                return;
+            }
+        }
+
+        listener.messageStatus(recent);
+    }
+
+    /**
+     * Removes the listener of a message.
+     * 
+     * @param apiMsgId The id returned when the message was sent
+     */
+    public void removeListener(String apiMsgId)
+    {
+        listeners_.remove(apiMsgId);
+    }
+
+    /**
+     * Sets the listener for statuses of messages without a listener of their
+     * own.
+     * <p>
+     * Final statuses that the default listener gets aren't kept for
+     * listeners that are added later.
+     * 
+     * @param listener The listener, null to drop them
+     */
+    public void setDefaultListener(ClickatellStatusListener listener)
+    {
+        defaultListener_ = listener;
+    }
+
+    private void handleCallback(HttpExchange exchange) throws IOException
+    {
+        int httpStatus = 200;
+
+        try
+        {
+            String params = exchange.getRequestURI().getRawQuery();
+            if ("POST".equalsIgnoreCase(exchange.getRequestMethod()))
+            {
+                InputStream is = exchange.getRequestBody();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                IOUtil.copy(is, body);
+                params = body.toString("ISO-8859-1");
+            }
+
+            ClickatellStatus status = parseStatus(params);
+            if (status == null)
+            {
+                log_.warn("Clickatell callback without apiMsgId: {}", params);
+                httpStatus = 400;
+            }
+            else
+            {
+                publish(status);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            log_.error("ClickatellStatusListener failed", ex);
+            httpStatus = 500;
+        }
+
+        exchange.sendResponseHeaders(httpStatus, -1);
+        exchange.close();
+    }
+
+    private void publish(ClickatellStatus status)
+    {
+        String apiMsgId = status.getApiMsgId();
+        ClickatellStatusListener listener;
+
+        synchronized (listeners_)
+        {
+            listener = listeners_.get(apiMsgId);
+            if (listener == null)
+            {
+                listener = defaultListener_;
+            }
+            if ((listener == null) && status.isFinal())
+            {
+                rememberFinal(status);
+            }
+        }
+
+        if (listener == null)
+        {
+            log_.debug("No listener for {}", status);
+            return;
+        }
+
+        listener.messageStatus(status);
+        if (status.isFinal())
+        {
+            listeners_.remove(apiMsgId);
+        }
+    }
+
+    /**
+     * Keeps a final status for a listener that is added late. Expired and,
+     * when full, the oldest statuses are dropped.
+     */
+    private void rememberFinal(ClickatellStatus status)
+    {
+        long now = System.currentTimeMillis();
+        Iterator<String> oldest = recentFinal_.keySet().iterator();
+
+        while (oldest.hasNext())
+        {
+            String apiMsgId = oldest.next();
+            if ((recentFinal_.size() < MAX_RECENT_FINAL)
+                && (now - recentFinalTimes_.get(apiMsgId) < RECENT_FINAL_TTL))
+            {
+                break;
+            }
+            oldest.remove();
+            recentFinalTimes_.remove(apiMsgId);
+        }
+
+        recentFinal_.remove(status.getApiMsgId());
+        recentFinal_.put(status.getApiMsgId(), status);
+        recentFinalTimes_.put(status.getApiMsgId(), now);
+    }
+
+    /**
+     * Parses the form encoded parameters of a callback.
+     * 
+     * @param params ex "apiMsgId=...&amp;to=...&amp;status=004"
+     * @return The status, null if apiMsgId is missing
+     */
+    static ClickatellStatus parseStatus(String params)
+    {
+        Map<String, String> values = new HashMap<String, String>();
+
+        if (params != null)
+        {
+            for (String param : params.split("&"))
+            {
+                int eq = param.indexOf('=');
+                if (eq > 0)
+                {
+                    values.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+                }
+            }
+        }
+
+        String apiMsgId = values.get("apiMsgId");
+        if ((apiMsgId == null) || (apiMsgId.length() == 0))
+        {
+            return null;
+        }
+
+        return new ClickatellStatus(apiMsgId, values.get("cliMsgId"), values.get("to"), values.get("from"),
+                parseLong(values.get("timestamp")), (int) parseLong(values.get("status")), values.get("charge"));
+    }
+
+    private static String decode(String value)
+    {
+        try
+        {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new RuntimeException(ex);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Malformed escape, use as is
+            return value;
+        }
+    }
+
+    private static long parseLong(String value)
+    {
+        try
+        {
+            return (value != null) ? Long.parseLong(value.trim()) : 0;
+        }
+        catch (NumberFormatException ex)
+        {
+            return 0;
+        }
+    }
+}
@@ -34,31 +34,22 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.clickatell;
 
-class ClickatellException extends Exception
+import org.marre.sms.transport.http.HttpGatewayException;
+
+class ClickatellException extends HttpGatewayException
 {
     private static final long serialVersionUID = -4845453569133638027L;
 
-    public static final int ERROR_UNKNOWN = -1;
-
     public static final int ERROR_AUTH_FAILED = 1;
     public static final int ERROR_SESSION_ID_EXPIRED = 3;
 
-    private final int errId_;
-
     ClickatellException(String msg, int errId, Throwable cause)
     {
-        super(msg, cause);
-        errId_ = errId;
+        super(msg, errId, cause);
     }
 
     ClickatellException(String msg, int errId)
     {
-        super(msg);
-        errId_ = errId;
-    }
-    
-    int getErrId()
-    {
-        return errId_;
+        super(msg, errId);
     }
 }
@@ -0,0 +1,168 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+/**
+ * A message status callback from Clickatell.
+ * <p>
+ * The status refers to the message with the apiMsgId that
+ * ClickatellTransport returned when the message was sent.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellStatus
+{
+    /** Message unknown. */
+    public static final int MESSAGE_UNKNOWN = 1;
+    /** Message queued. */
+    public static final int MESSAGE_QUEUED = 2;
+    /** Delivered to gateway. */
+    public static final int DELIVERED_TO_GATEWAY = 3;
+    /** Received by recipient. */
+    public static final int RECEIVED_BY_RECIPIENT = 4;
+    /** Error with message. */
+    public static final int ERROR_WITH_MESSAGE = 5;
+    /** User cancelled message delivery. */
+    public static final int USER_CANCELLED = 6;
+    /** Error delivering message. */
+    public static final int ERROR_DELIVERING = 7;
+    /** Message received by gateway. */
+    public static final int RECEIVED_BY_GATEWAY = 8;
+    /** Routing error. */
+    public static final int ROUTING_ERROR = 9;
+    /** Message expired. */
+    public static final int MESSAGE_EXPIRED = 10;
+    /** Message queued for later delivery. */
+    public static final int QUEUED_FOR_LATER = 11;
+    /** Out of credit. */
+    public static final int OUT_OF_CREDIT = 12;
+    /** Maximum MT limit exceeded. */
+    public static final int MAX_MT_EXCEEDED = 14;
+
+    private final String apiMsgId_;
+    private final String cliMsgId_;
+    private final String to_;
+    private final String from_;
+    private final long timestamp_;
+    private final int status_;
+    private final String charge_;
+
+    /**
+     * Creates a status.
+     * 
+     * @param apiMsgId The message id returned by sendmsg
+     * @param cliMsgId The client message id, null if not set
+     * @param to The receiver
+     * @param from The sender
+     * @param timestamp Time of the status change, seconds since 1970
+     * @param status The status code, ex RECEIVED_BY_RECIPIENT
+     * @param charge The charge of the message
+     */
+    public ClickatellStatus(String apiMsgId, String cliMsgId, String to, String from, long timestamp,
+            int status, String charge)
+    {
+        apiMsgId_ = apiMsgId;
+        cliMsgId_ = cliMsgId;
+        to_ = to;
+        from_ = from;
+        timestamp_ = timestamp;
+        status_ = status;
+        charge_ = charge;
+    }
+
+    public String getApiMsgId()
+    {
+        return apiMsgId_;
+    }
+
+    public String getCliMsgId()
+    {
+        return cliMsgId_;
+    }
+
+    public String getTo()
+    {
+        return to_;
+    }
+
+    public String getFrom()
+    {
+        return from_;
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp_;
+    }
+
+    public int getStatus()
+    {
+        return status_;
+    }
+
+    public String getCharge()
+    {
+        return charge_;
+    }
+
+    /**
+     * Returns true if no more statuses will follow for this message.
+     * 
+     * @return true if the status is final
+     */
+    public boolean isFinal()
+    {
+        switch (status_)
+        {
+        case RECEIVED_BY_RECIPIENT:
+        case ERROR_WITH_MESSAGE:
+        case USER_CANCELLED:
+        case ERROR_DELIVERING:
+        case ROUTING_ERROR:
+        case MESSAGE_EXPIRED:
+        case OUT_OF_CREDIT:
+        case MAX_MT_EXCEEDED:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public String toString()
+    {
+        return "ClickatellStatus[apiMsgId=" + apiMsgId_ + ", to=" + to_ + ", status=" + status_ + "]";
+    }
+}
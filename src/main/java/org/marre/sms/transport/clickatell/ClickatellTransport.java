@@ -38,22 +38,15 @@ import org.marre.sms.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.text.MessageFormat;
-import java.text.ParseException;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Properties;
 
-import org.marre.sms.transport.SmsTransport;
+import org.marre.sms.transport.http.HttpGatewayException;
+import org.marre.sms.transport.http.HttpGatewayRequest;
+import org.marre.sms.transport.http.HttpGatewayTransport;
 import org.marre.util.StringUtil;
 
 /**
@@ -61,6 +54,15 @@ import org.marre.util.StringUtil;
  * <p>
  * It is developed to use the "Clickatell HTTP API v. 2.2.4".
  * <p>
+ * The HTTP handling, session and batching is done by HttpGatewayTransport,
+ * this class builds the Clickatell requests and parses the responses.
+ * Use sendAsync() to send without blocking, the requests of a multi-part
+ * message are then posted concurrently.
+ * <p>
+ * send() returns the apiMsgId of the message. With smsj.clickatell.callback
+ * set, Clickatell reports the status of the message to the callback URL of
+ * the account, ClickatellCallbackServer receives them keyed by apiMsgId.
+ * <p>
  * 
  * Known limitations:<br>
  * - Cannot send 8-Bit messages without an UDH.<br>
@@ -71,15 +73,21 @@ import org.marre.util.StringUtil;
  * @author Markus Eriksson
  * @version $Id$
  */
-public class ClickatellTransport implements SmsTransport
+public class ClickatellTransport extends HttpGatewayTransport
 {
     private static final Logger log_ = LoggerFactory.getLogger(ClickatellTransport.class);
 
+    /** Separates the result from the recipient in a multi recipient response. */
+    private static final String RECIPIENT_SEPARATOR = " To:";
+
     private String username_;
     private String password_;
     private String apiId_;
-    private String sessionId_;
     private String protocol_;
+    private int callback_;
+    private URL authUrl_;
+    private URL sendUrl_;
+    private URL pingUrl_;
 
     /** Required feature "Text". Set by default. */
     public static final int FEAT_TEXT = 0x0001;
@@ -103,120 +111,7 @@ public class ClickatellTransport implements SmsTransport
     public static final int FEAT_CONCAT = 0x4000;
     /** The default required features as explained in HTTP API v224. */
     public static final int FEAT_DEFAULT = 0x400F;
-    
-    /**
-     * Sends a request to clickatell.
-     * 
-     * @param url the url to clickatell
-     * @param requestString parameters to send
-     * @return An array of responses (sessionid or msgid)
-     * @throws ClickatellException
-     * @throws IOException
-     */
-    private String[] sendRequest(String url, String requestString) throws ClickatellException, IOException
-    {
-        String response = null;
-        MessageFormat responseFormat = new MessageFormat("{0}: {1}");
-
-        List idList = new LinkedList();
-
-        //
-        // Send request to clickatell
-        //
-        try
-        {
-            log_.debug("sendRequest: posting : " + requestString + " to " + url);
-            
-            URL requestURL = new URL(url);
-            URLConnection urlConn = requestURL.openConnection();
-            urlConn.setDoInput(true);
-            urlConn.setDoOutput(true);
-            urlConn.setUseCaches(false);
-            urlConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-
-            // Send request
-            PrintWriter pw = new PrintWriter(urlConn.getOutputStream());
-            pw.print(requestString);                     
-            pw.flush();
-            pw.close();
-            
-            // Connect
-            InputStream is = urlConn.getInputStream(); 
-            BufferedReader responseReader = new BufferedReader(new InputStreamReader(is));
-
-            // Read response
-            while ((response = responseReader.readLine()) != null)
-            {
-                // Parse response
-                Object[] objs = responseFormat.parse(response);
-                if ("ERR".equalsIgnoreCase((String) objs[0]))
-                {
-                    MessageFormat errorFormat = new MessageFormat("{0}: {1}, {2}");
-                    Object[] errObjs = errorFormat.parse(response);
-                    
-                    // Error message...
-                    String errorNo = (String) errObjs[1];
-                    String description = (String) errObjs[2];
-                    throw new ClickatellException("Clickatell error. Error " + errorNo + ", " + description, 
-                                                  Integer.parseInt(errorNo));
-                }
-                
-                log_.debug("sendRequest: Got ID : " + (objs[1]));
-                idList.add(objs[1]);
-            }
-            responseReader.close();
-        }
-        catch (ParseException ex)
-        {
-            throw new ClickatellException("Unexpected response from Clickatell. : " + response,
-                    ClickatellException.ERROR_UNKNOWN);
-        }
-
-        return (String[]) idList.toArray(new String[idList.size()]);
-    }
 
-    private String[] sendRequestWithRetry(String url, String requestString)
-        throws SmsException, IOException
-    {
-        String[] msgIds;
-        
-        // Send request to clickatell
-        try
-        {
-            msgIds = sendRequest(url, requestString);
-        }
-        catch (ClickatellException ex)
-        {
-            switch (ex.getErrId())
-            {
-            // 858141 : Clickatell is not sending "Session id expired"
-            // they are using "Authentication failed" instead
-            case ClickatellException.ERROR_AUTH_FAILED:
-            case ClickatellException.ERROR_SESSION_ID_EXPIRED:
-                // Try to get a new session id
-                connect();
-    
-                // Retry the request...
-                // OK, this is a bit ugly...
-                try
-                {
-                    msgIds = sendRequest(url, requestString);
-                }
-                catch (ClickatellException ex2)
-                {
-                    throw new SmsException(ex2.getMessage());
-                }
-                break;
-    
-            case ClickatellException.ERROR_UNKNOWN:
-            default:
-                throw new SmsException(ex.getMessage());
-            }
-        }
-        
-        return msgIds;
-    }
-    
     /**
      * Initializes the transport.
      * <p>
@@ -227,6 +122,13 @@ public class ClickatellTransport implements SmsTransport
      *       smsj.clickatell.password - clickatell password
      *       smsj.clickatell.apiid    - clickatell apiid
      *       smsj.clickatell.protocol - http or https
+     *       smsj.clickatell.url      - base url of the API, default
+     *                                  &lt;protocol&gt;://api.clickatell.com/http
+     *       smsj.clickatell.maxrequests - max number of requests in progress, default 5
+     *       smsj.clickatell.timeout  - connect and read timeout in ms, default 30000
+     *       smsj.clickatell.maxrecipients - max number of receivers per sendmsg, default 100
+     *       smsj.clickatell.keepalive - ping after this many idle ms, default 600000
+     *       smsj.clickatell.callback - status callbacks to request, 0 (none) - 3, default 0
      * </pre>
      * 
      * @param properties
@@ -234,12 +136,13 @@ public class ClickatellTransport implements SmsTransport
      * @throws SmsException
      *             If not given the needed params
      */
-    public void init(Properties properties) throws SmsException
+    protected void initGateway(Properties properties) throws SmsException
     {
         username_ = properties.getProperty("smsj.clickatell.username");
         password_ = properties.getProperty("smsj.clickatell.password");
         apiId_ = properties.getProperty("smsj.clickatell.apiid");
         protocol_ = properties.getProperty("smsj.clickatell.protocol", "http");
+        callback_ = Integer.parseInt(properties.getProperty("smsj.clickatell.callback", "0"));
         
         if ((username_ == null) || (password_ == null) || (apiId_ == null)) 
         { 
@@ -250,49 +153,211 @@ public class ClickatellTransport implements SmsTransport
         {
             throw new SmsException("Unsupported protocol : " + protocol_); 
         }
+
+        if ((callback_ < 0) || (callback_ > 3))
+        {
+            throw new SmsException("Unsupported callback : " + callback_);
+        }
+
+        try
+        {
+            String baseUrl = properties.getProperty("smsj.clickatell.url", protocol_ + "://api.clickatell.com/http");
+            authUrl_ = new URL(baseUrl + "/auth");
+            sendUrl_ = new URL(baseUrl + "/sendmsg");
+            pingUrl_ = new URL(baseUrl + "/ping");
+        }
+        catch (MalformedURLException ex)
+        {
+            throw new SmsException(ex);
+        }
+    }
+
+    protected String getPropertyPrefix()
+    {
+        return "smsj.clickatell";
+    }
+
+    protected int getDefaultMaxRecipients()
+    {
+        return 100;
     }
 
     /**
-     * Sends an auth command to clickatell to get an session id that can be used
-     * later.
-     * @throws SmsException
-     *             If we fail to authenticate to clickatell or if we fail to
-     *             connect.
-     * @throws IOException 
+     * Clickatell sessions expire after 15 minutes without requests.
      */
-    public void connect() throws SmsException, IOException
+    protected long getDefaultKeepAlive()
+    {
+        return 10 * 60 * 1000;
+    }
+
+    /**
+     * Builds an auth command to get a session id that can be used later.
+     */
+    protected HttpGatewayRequest buildAuthRequest()
     {
-        String[] response = null;
-        String url = protocol_ + "://api.clickatell.com/http/auth";
         String requestString;
         
         requestString  = "api_id=" + apiId_;
         requestString += "&user=" + username_;
         requestString += "&password=" + password_;
-        
-        try
+
+        return new HttpGatewayRequest(authUrl_, requestString);
+    }
+
+    protected String parseAuthResponse(String[] lines) throws HttpGatewayException
+    {
+        checkResponse(lines);
+        return parseResponseLine(lines[0]);
+    }
+
+    protected HttpGatewayRequest buildPingRequest(String sessionId)
+    {
+        return new HttpGatewayRequest(pingUrl_, "session_id=" + sessionId);
+    }
+
+    protected void parsePingResponse(String[] lines) throws HttpGatewayException
+    {
+        checkResponse(lines);
+        for (String line : lines)
         {
-            response = sendRequest(url, requestString);
+            parseResponseLine(line);
         }
-        catch (ClickatellException ex)
+    }
+
+    /**
+     * Adds the session id and receivers to a request from buildMessageRequests.
+     */
+    protected HttpGatewayRequest buildSendRequest(String sessionId, String[] receivers, String messageRequest)
+    {
+        String requestString = "session_id=" + sessionId + "&to=" + StringUtil.join(receivers, ",") + messageRequest;
+        return new HttpGatewayRequest(sendUrl_, requestString);
+    }
+
+    /**
+     * Parses "ID: xxx" for a single receiver, or one "ID: xxx To: yyy" line
+     * per receiver.
+     */
+    protected String[] parseSendResponse(String[] lines, String[] receivers) throws HttpGatewayException
+    {
+        String[] msgIds = new String[receivers.length];
+
+        checkResponse(lines);
+        for (String line : lines)
         {
-            throw new SmsException(ex);
+            String[] idTo = parseRecipientLine(line);
+
+            for (int i = 0; i < receivers.length; i++)
+            {
+                if ((idTo[1] == null) ? (receivers.length == 1) : idTo[1].equals(receivers[i]))
+                {
+                    msgIds[i] = idTo[0];
+                }
+            }
         }
 
-        sessionId_ = response[0];
+        return msgIds;
     }
 
     /**
+     * 858141 : Clickatell is not sending "Session id expired", they are using
+     * "Authentication failed" instead.
+     */
+    protected boolean isSessionExpired(HttpGatewayException ex)
+    {
+        return (ex.getErrId() == ClickatellException.ERROR_AUTH_FAILED)
+                || (ex.getErrId() == ClickatellException.ERROR_SESSION_ID_EXPIRED);
+    }
+
+    private static void checkResponse(String[] lines) throws ClickatellException
+    {
+        if (lines.length == 0)
+        {
+            throw new ClickatellException("Empty response from Clickatell", ClickatellException.ERROR_UNKNOWN);
+        }
+    }
+
+    /**
+     * Parses one "XXX: value" line of a response.
+     * 
+     * @param line The response line
+     * @return The value
+     * @throws ClickatellException If the line is an "ERR: nnn, description" or malformed
+     */
+    static String parseResponseLine(String line) throws ClickatellException
+    {
+        int sep = line.indexOf(':');
+        if (sep < 0)
+        {
+            throw new ClickatellException("Unexpected response from Clickatell. : " + line,
+                    ClickatellException.ERROR_UNKNOWN);
+        }
+
+        String value = line.substring(sep + 1).trim();
+
+        if ((sep == 3) && line.regionMatches(true, 0, "ERR", 0, 3))
+        {
+            // Error message...
+            int comma = value.indexOf(',');
+            String errorNo = (comma < 0) ? value : value.substring(0, comma).trim();
+            String description = (comma < 0) ? "" : value.substring(comma + 1).trim();
+            int errId;
+
+            try
+            {
+                errId = Integer.parseInt(errorNo);
+            }
+            catch (NumberFormatException ex)
+            {
+                errId = ClickatellException.ERROR_UNKNOWN;
+            }
+
+            throw new ClickatellException("Clickatell error. Error " + errorNo + ", " + description, errId);
+        }
+
+        return value;
+    }
+
+    /**
+     * Parses one line of a multi recipient sendmsg response, "ID: xxx To: yyy"
+     * or "ERR: nnn, description To: yyy".
      * 
+     * @param line The response line
+     * @return The message id (null if rejected) and the recipient (null if the
+     *         line has no "To:")
+     * @throws ClickatellException If the line is malformed
      */
-    private String buildSendRequest(SmsUserData ud, byte[] udhData, SmsAddress dest, SmsAddress sender)
+    static String[] parseRecipientLine(String line) throws ClickatellException
+    {
+        int sep = line.lastIndexOf(RECIPIENT_SEPARATOR);
+        if (sep < 0)
+        {
+            return new String[] { parseResponseLine(line), null };
+        }
+
+        String to = line.substring(sep + RECIPIENT_SEPARATOR.length()).trim();
+        try
+        {
+            return new String[] { parseResponseLine(line.substring(0, sep)), to };
+        }
+        catch (ClickatellException ex)
+        {
+            if (ex.getErrId() == ClickatellException.ERROR_UNKNOWN)
+            {
+                throw ex;
+            }
+            log_.warn("Clickatell rejected {}: {}", to, ex.getMessage());
+            return new String[] { null, to };
+        }
+    }
+
+    /**
+     * Builds the receiver independent part of a sendmsg request.
+     */
+    private String buildMessageRequest(SmsUserData ud, byte[] udhData, SmsAddress sender)
         throws SmsException
     {
-        String requestString;
+        String requestString = "";
         int reqFeat = 0;
-        
-        requestString  = "session_id=" + sessionId_;
-        requestString += "&to=" + dest.getAddress();
 
         if (SmsUdhUtil.isConcat(ud, udhData))
         {
@@ -312,6 +377,13 @@ public class ClickatellTransport implements SmsTransport
             requestString += "&msg_type=SMS_FLASH";
             reqFeat |= FEAT_FLASH;
         }
+
+        // Status callbacks, see ClickatellCallbackServer
+        if (callback_ > 0)
+        {
+            requestString += "&callback=" + callback_ + "&deliv_ack=1";
+            reqFeat |= FEAT_DELIVACK;
+        }
         
         //
         // Generate request URL
@@ -392,125 +464,33 @@ public class ClickatellTransport implements SmsTransport
     }
     
     /**
-     * More effective sending of SMS.
-     * 
-     * @param msg
-     * @param receiver
-     * @param sender
-     * @throws SmsException
-     */
-    private String[] sendConcatMessage(SmsConcatMessage msg, SmsAddress receiver, SmsAddress sender)
-        throws SmsException, IOException
-    {
-        String url = protocol_ + "://api.clickatell.com/http/sendmsg";
-        SmsUserData userData = msg.getUserData();
-        SmsUdhElement[] udhElements = msg.getUdhElements();
-        byte[] udhData = SmsUdhUtil.toByteArray(udhElements);
-
-        String requestString = buildSendRequest(userData, udhData, receiver, sender);
-        return sendRequestWithRetry(url, requestString);
-    }
-
-    /**
-     * Sends an sendmsg command to clickatell.
-     * 
-     * @param pdu
-     * @param receiver
-     * @param sender
-     * @throws SmsException
-     *             If clickatell sends an error message, unexpected response or
-     *             if we fail to connect.
-     */
-    private String send(SmsPdu pdu, SmsAddress receiver, SmsAddress sender) throws SmsException, IOException
-    {
-        String url = protocol_ + "://api.clickatell.com/http/sendmsg";
-        SmsUserData userData = pdu.getUserData();
-        byte[] udhData = pdu.getUserDataHeaders();
-        
-        String requestString = buildSendRequest(userData, udhData, receiver, sender);
-
-        return sendRequestWithRetry(url, requestString)[0];
-    }
-
-    /**
-     * Sends an SMS Message.
+     * Encodes a message into one sendmsg request per SMS, without session id
+     * and receivers.
+     * <p>
+     * Concatenated messages are sent as one request, Clickatell splits them.
      * 
      * @param msg
-     * @param receiver
      * @param sender
+     * @return The receiver independent requests
      * @throws SmsException
-     * @return Message ids
      */
-    public String send(SmsMessage msg, SmsAddress receiver, SmsAddress sender) throws SmsException, IOException
+    protected String[] buildMessageRequests(SmsMessage msg, SmsAddress sender) throws SmsException
     {
-        String[] msgIds;
-        
-        if (receiver.isAlphanumeric())
-        { 
-            throw new SmsException("Cannot sent SMS to an ALPHANUMERIC address"); 
-        }
-
-        if (sessionId_ == null) 
-        { 
-            throw new SmsException("Must connect before sending"); 
-        }
-        
-        
-        if (msg instanceof SmsConcatMessage)
-        {
-            msgIds = sendConcatMessage((SmsConcatMessage) msg, receiver, sender);
-        }
-        else
+        SmsPdu unsplitPdu = SmsMessageUtil.getUnsplitPdu(msg);
+        if (unsplitPdu != null)
         {
-            SmsPdu[] msgPdu = msg.getPdus();
-            msgIds = new String[msgPdu.length];
-
-            for (int i = 0; i < msgPdu.length; i++)
-            {
-                msgIds[i] = send(msgPdu[i], receiver, sender);
-            }
+            return new String[] {
+                    buildMessageRequest(unsplitPdu.getUserData(), unsplitPdu.getUserDataHeaders(), sender) };
         }
-        
-        // TODO: Return a real message id
-        return null;
-    }
 
-    /**
-     * Disconnect from clickatell.
-     * 
-     * Not needed for the clickatell API
-     * 
-     * @throws SmsException Never
-     * @throws IOException Never
-     */
-    public void disconnect()
-    {
-        // The clickatell HTTP API is connection less
-    }
+        SmsPdu[] msgPdu = msg.getPdus();
+        String[] requests = new String[msgPdu.length];
 
-    /**
-     * Pings the clickatell service
-     * 
-     * Not needed for the clickatell API
-     * 
-     * @throws SmsException Never
-     * @throws IOException Never
-     */
-    public void ping() throws SmsException, IOException
-    {
-        String[] response = null;
-        String url = protocol_ + "://api.clickatell.com/http/ping";
-        String requestString;
-        
-        requestString = "session_id=" + sessionId_;
-        
-        try
-        {
-            response = sendRequest(url, requestString);
-        }
-        catch (ClickatellException ex)
+        for (int i = 0; i < msgPdu.length; i++)
         {
-            throw new SmsException(ex);
+            requests[i] = buildMessageRequest(msgPdu[i].getUserData(), msgPdu[i].getUserDataHeaders(), sender);
         }
+
+        return requests;
     }
 }
@@ -36,6 +36,7 @@
 package org.marre.sms.transport.gsm;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Properties;
 
 import org.marre.sms.*;
@@ -44,6 +45,7 @@ import org.marre.sms.transport.gsm.commands.MessageFormatSetReq;
 import org.marre.sms.transport.gsm.commands.PduSendMessageReq;
 import org.marre.sms.transport.gsm.commands.PduSendMessageRsp;
 import org.marre.sms.transport.gsm.commands.PingReq;
+import org.marre.util.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,7 +86,7 @@ public class GsmTransport implements SmsTransport
     private static final int RESPONSE_TEXT = 8;
     private static final int RESPONSE_CONTINUE = 16;
     
-    private SerialComm serialComm_ = null;
+    private GsmComm serialComm_ = null;
     
     /**
      * Creates a GsmTransport.
@@ -95,6 +97,17 @@ public class GsmTransport implements SmsTransport
         // Empty
     }
 
+    /**
+     * Creates a GsmTransport that talks to the phone with the given comm,
+     * init() isn't needed.
+     * 
+     * @param comm The connection to the phone
+     */
+    GsmTransport(GsmComm comm)
+    {
+        serialComm_ = comm;
+    }
+
     /**
      * Initializes this transport.
      * 
@@ -105,15 +118,16 @@ public class GsmTransport implements SmsTransport
         String appName = props.getProperty("sms.gsm.appname", DEFAULT_SERIAL_PORT_APP_NAME); 
         String portName = props.getProperty("sms.gsm.serialport", "COM1");
 
-        serialComm_ = new SerialComm(appName, portName);
+        SerialComm serialComm = new SerialComm(appName, portName);
 
-        serialComm_.setBitRate(props.getProperty("sms.gsm.bitrate", "19200"));
-        serialComm_.setDataBits(props.getProperty("sms.gsm.bit", "8"));
-        serialComm_.setStopBits(props.getProperty("sms.gsm.stopbits", "8"));
-        serialComm_.setParity(props.getProperty("sms.gsm.parity", "NONE"));
-        serialComm_.setFlowControl(props.getProperty("sms.gsm.flowcontrol", "NONE"));
-        serialComm_.setTimeout(props.getProperty("sms.gsm.timeout", "0"));
-        serialComm_.setEcho(props.getProperty("sms.gsm.echo", "1").equals("1"));
+        serialComm.setBitRate(props.getProperty("sms.gsm.bitrate", "19200"));
+        serialComm.setDataBits(props.getProperty("sms.gsm.bit", "8"));
+        serialComm.setStopBits(props.getProperty("sms.gsm.stopbits", "8"));
+        serialComm.setParity(props.getProperty("sms.gsm.parity", "NONE"));
+        serialComm.setFlowControl(props.getProperty("sms.gsm.flowcontrol", "NONE"));
+        serialComm.setTimeout(props.getProperty("sms.gsm.timeout", "0"));
+        serialComm.setEcho(props.getProperty("sms.gsm.echo", "1").equals("1"));
+        serialComm_ = serialComm;
     }
     
     /**
@@ -159,33 +173,84 @@ public class GsmTransport implements SmsTransport
      * @param msg The message to send
      * @param dest The reciever
      * @param sender The sending address, ignored
-     * @return Returns a local message id
+     * @return The message reference from +CMGS. For a message that is sent
+     *         as several pdus the references of all parts, separated by ",".
      * @throws SmsException Thrown if we fail to send the SMS
      * @throws IOException 
      */
     public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        return send(SmsMessageUtil.getPdus(msg, dest), dest, sender);
+    }
+
+    /**
+     * Sends the message to each destination.
+     * <p>
+     * The pdus are created once, but the phone needs a full TPDU with the
+     * destination address for every SMS. If the serial connection fails the
+     * batch stops, and the references of the messages that were sent are
+     * still returned.
+     * 
+     * @param msg The message to send
+     * @param dests The recievers
+     * @param sender The sending address, ignored
+     * @return The +CMGS message references, one per destination, null where
+     *         the send failed or wasn't tried
+     * @throws SmsException Thrown if the phone fails
+     * @throws IOException 
+     */
+    public String[] sendBatch(SmsMessage msg, Collection<SmsAddress> dests, SmsAddress sender)
+        throws SmsException, IOException
+    {
+        SmsPdu[] msgPdu = msg.getPdus();
+        String[] msgIds = new String[dests.size()];
+        int i = 0;
+
+        for (SmsAddress dest : dests)
+        {
+            try
+            {
+                msgIds[i] = send(msgPdu, dest, sender);
+            }
+            catch (SmsException ex)
+            {
+                log_.warn("Failed to send to {}", dest.getAddress(), ex);
+            }
+            catch (IOException ex)
+            {
+                log_.warn("Batch stopped, the connection failed: {}", ex.getMessage());
+                break;
+            }
+            i++;
+        }
+
+        return msgIds;
+    }
+
+    private String send(SmsPdu[] msgPdu, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
     {
         if (dest.getTypeOfNumber() == SmsTon.ALPHANUMERIC)
         {
             throw new SmsException("Cannot send SMS to an ALPHANUMERIC address");
         }
 
+        String[] refs = new String[msgPdu.length];
+
         try
         {
-            SmsPdu[] msgPdu = msg.getPdus();
-            for (SmsPdu aMsgPdu : msgPdu) {
-                byte[] data = GsmEncoder.encodePdu(aMsgPdu, dest, sender);
+            for (int i = 0; i < msgPdu.length; i++) {
+                byte[] data = GsmEncoder.encodePdu(msgPdu[i], dest, sender);
                 PduSendMessageReq sendMessageReq = new PduSendMessageReq(data);
                 PduSendMessageRsp sendMessageRsp = sendMessageReq.send(serialComm_);
+                refs[i] = sendMessageRsp.getMessageReference();
             }
         }
         catch (GsmException e)
         {
             throw new SmsException("Send failed: " + e.getMessage() + " Last response:" + e.getResponse(), e);
         }
-        
-        // TODO: Return a real message id
-        return null;
+
+        return StringUtil.join(refs, ",");
     }
 
     /**
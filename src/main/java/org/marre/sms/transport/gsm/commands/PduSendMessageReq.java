@@ -136,8 +136,10 @@ public class PduSendMessageReq
                 throw new GsmException("AT+CMGF failed.", ok);
             }
             
-            // TODO: Parse message reference
-            return new PduSendMessageRsp(cmgs);
+            // +CMGS: <mr>[,<ackpdu>]
+            String mr = cmgs.substring(cmgs.indexOf(':') + 1).trim();
+            int comma = mr.indexOf(',');
+            return new PduSendMessageRsp((comma < 0) ? mr : mr.substring(0, comma));
         } 
         else if (cmgs.startsWith("+CMS ERROR:"))
         {
@@ -48,7 +48,7 @@ public class PduSendMessageRsp
         messageReference_ = messageReference;
     }
     
-    String getMessageReference()
+    public String getMessageReference()
     {
         return messageReference_;
     }
@@ -0,0 +1,213 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Posts form encoded requests to an HTTP SMS gateway and returns the
+ * response lines.
+ * <p>
+ * Connections are kept alive and reused between requests. This relies on
+ * the keep-alive cache of HttpURLConnection, which only takes back a
+ * connection when the response has been read to the end and the stream has
+ * been closed. That is why every response, also error responses, is
+ * drained. The JDK keeps up to <b>http.maxConnections</b> (default 5) idle
+ * connections per host, set it to at least maxInFlight.
+ * <p>
+ * The number of requests that may be in progress at the same time is
+ * limited, callers block until a request slot is free.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class HttpGatewayClient
+{
+    private static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    private final Semaphore inFlight_;
+    private final int maxInFlight_;
+    private final int connectTimeout_;
+    private final int readTimeout_;
+
+    /**
+     * Creates a client.
+     * 
+     * @param maxInFlight Max number of requests in progress at the same time
+     * @param connectTimeout Connect timeout in milliseconds, 0 for none
+     * @param readTimeout Read timeout in milliseconds, 0 for none
+     */
+    public HttpGatewayClient(int maxInFlight, int connectTimeout, int readTimeout)
+    {
+        if (maxInFlight < 1)
+        {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        maxInFlight_ = maxInFlight;
+        inFlight_ = new Semaphore(maxInFlight, true);
+        connectTimeout_ = connectTimeout;
+        readTimeout_ = readTimeout;
+    }
+
+    /**
+     * Returns the max number of requests in progress at the same time.
+     * 
+     * @return max in-flight requests
+     */
+    public int getMaxInFlight()
+    {
+        return maxInFlight_;
+    }
+
+    /**
+     * Posts a request.
+     * 
+     * @param url The url to post to
+     * @param body Form encoded parameters
+     * @return The non-empty lines of the response
+     * @throws IOException If the request failed or the gateway responded with
+     *             an HTTP error
+     */
+    public String[] post(URL url, String body) throws IOException
+    {
+        try
+        {
+            inFlight_.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free HTTP connection");
+        }
+
+        try
+        {
+            return doPost(url, body);
+        }
+        finally
+        {
+            inFlight_.release();
+        }
+    }
+
+    private String[] doPost(URL url, String body) throws IOException
+    {
+        byte[] data = body.getBytes(CHARSET);
+
+        HttpURLConnection urlConn = (HttpURLConnection) url.openConnection();
+        urlConn.setRequestMethod("POST");
+        urlConn.setDoInput(true);
+        urlConn.setDoOutput(true);
+        urlConn.setUseCaches(false);
+        urlConn.setAllowUserInteraction(false);
+        urlConn.setConnectTimeout(connectTimeout_);
+        urlConn.setReadTimeout(readTimeout_);
+        urlConn.setFixedLengthStreamingMode(data.length);
+        urlConn.setRequestProperty("Content-Type", CONTENT_TYPE);
+
+        OutputStream out = urlConn.getOutputStream();
+        try
+        {
+            out.write(data);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        int responseCode;
+        try
+        {
+            responseCode = urlConn.getResponseCode();
+        }
+        catch (IOException ex)
+        {
+            urlConn.disconnect();
+            throw ex;
+        }
+
+        if (responseCode >= 400)
+        {
+            // Drain the error so that the connection can be reused
+            readLines(urlConn.getErrorStream());
+            throw new IOException("HTTP error " + responseCode + " from " + url.getHost());
+        }
+
+        return readLines(urlConn.getInputStream());
+    }
+
+    private static String[] readLines(InputStream is) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+
+        if (is == null)
+        {
+            return new String[0];
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, CHARSET));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.length() > 0)
+                {
+                    lines.add(line);
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+}
@@ -0,0 +1,131 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of sending one SmsMessage through an HTTP gateway.
+ * <p>
+ * A message may need several send requests, they are sent concurrently.
+ * The result contains the message id of each request, in request order. If
+ * any request fails, get() throws an ExecutionException with the
+ * SmsException or IOException as cause.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class HttpGatewayFuture implements Future<String[]>
+{
+    private final List<Future<String>> requestFutures_;
+
+    /**
+     * Creates a message future.
+     * 
+     * @param requestFutures One future per send request
+     */
+    HttpGatewayFuture(List<Future<String>> requestFutures)
+    {
+        requestFutures_ = requestFutures;
+    }
+
+    /**
+     * Cancels the requests that haven't been sent yet.
+     */
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        boolean cancelled = false;
+        for (Future<String> requestFuture : requestFutures_)
+        {
+            cancelled |= requestFuture.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    public boolean isCancelled()
+    {
+        for (Future<String> requestFuture : requestFutures_)
+        {
+            if (requestFuture.isCancelled())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isDone()
+    {
+        for (Future<String> requestFuture : requestFutures_)
+        {
+            if (!requestFuture.isDone())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String[] get() throws InterruptedException, ExecutionException
+    {
+        String[] msgIds = new String[requestFutures_.size()];
+
+        for (int i = 0; i < msgIds.length; i++)
+        {
+            msgIds[i] = requestFutures_.get(i).get();
+        }
+
+        return msgIds;
+    }
+
+    public String[] get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        String[] msgIds = new String[requestFutures_.size()];
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        for (int i = 0; i < msgIds.length; i++)
+        {
+            long left = deadline - System.nanoTime();
+            msgIds[i] = requestFutures_.get(i).get(Math.max(left, 0), TimeUnit.NANOSECONDS);
+        }
+
+        return msgIds;
+    }
+}
@@ -0,0 +1,667 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.transport.SmsTransport;
+import org.marre.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for SmsTransports that send through an HTTP SMS gateway.
+ * <p>
+ * Most gateways work the same way: an auth request returns a session id,
+ * messages are posted as form encoded requests and the gateway answers with
+ * one line per message. This class handles the connection pool, the session
+ * and resending after the session has expired, and sending batches. A
+ * gateway only has to build its requests and parse its responses.
+ * <p>
+ * Messages can also be sent with sendAsync(). The send requests are then
+ * queued and posted by a pool of maxrequests threads, so any number of
+ * messages can be outstanding while only maxrequests requests are in
+ * progress.
+ * <p>
+ * The following properties are read, with the prefix from
+ * getPropertyPrefix():
+ * 
+ * <pre>
+ *       &lt;prefix&gt;.maxrequests   - max number of requests in progress, default 5
+ *       &lt;prefix&gt;.timeout       - connect and read timeout in ms, default 30000
+ *       &lt;prefix&gt;.maxrecipients - max number of receivers per send request,
+ *                                default getDefaultMaxRecipients()
+ *       &lt;prefix&gt;.keepalive     - ping after this many idle ms to keep the session,
+ *                                default getDefaultKeepAlive(), 0 for never
+ * </pre>
+ * <p>
+ * The session is managed single-flight: when requests on several threads
+ * find that the session has expired, one of them authenticates and the
+ * others wait for it and then resend with the new session id. With
+ * keepalive set, an idle session is pinged before the gateway expires it.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public abstract class HttpGatewayTransport implements SmsTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(HttpGatewayTransport.class);
+
+    private HttpGatewayClient httpClient_;
+    private ThreadPoolExecutor executor_;
+    private int maxRecipients_;
+    private long keepAliveInterval_;
+
+    private final Object sessionLock_ = new Object();
+    private volatile String sessionId_;
+    private volatile long lastActivity_ = System.currentTimeMillis();
+    private ScheduledExecutorService keepAlive_;
+
+    /**
+     * Returns the prefix of the properties of this gateway, ex "smsj.clickatell".
+     * 
+     * @return property prefix
+     */
+    protected abstract String getPropertyPrefix();
+
+    /**
+     * Reads the gateway specific properties.
+     * 
+     * @param props The properties given to init()
+     * @throws SmsException If the configuration is incomplete
+     */
+    protected abstract void initGateway(Properties props) throws SmsException;
+
+    /**
+     * Returns the max number of receivers that the gateway accepts in one
+     * send request.
+     * 
+     * @return max receivers, 1 if the gateway only takes one
+     */
+    protected int getDefaultMaxRecipients()
+    {
+        return 1;
+    }
+
+    /**
+     * Returns the default number of idle milliseconds after which the
+     * session is pinged.
+     * 
+     * @return keep-alive interval, 0 if the gateway doesn't need it
+     */
+    protected long getDefaultKeepAlive()
+    {
+        return 0;
+    }
+
+    /**
+     * Builds the request that authenticates and returns a session id.
+     * 
+     * @return The auth request, or null if the gateway doesn't use sessions
+     */
+    protected abstract HttpGatewayRequest buildAuthRequest();
+
+    /**
+     * Parses the response to the auth request.
+     * 
+     * @param lines The response lines
+     * @return The session id
+     * @throws HttpGatewayException If the gateway rejected the auth
+     */
+    protected abstract String parseAuthResponse(String[] lines) throws HttpGatewayException;
+
+    /**
+     * Builds a request that keeps the session alive.
+     * 
+     * @param sessionId The current session id
+     * @return The ping request, or null if the gateway has none
+     */
+    protected abstract HttpGatewayRequest buildPingRequest(String sessionId);
+
+    /**
+     * Checks the response to the ping request.
+     * 
+     * @param lines The response lines
+     * @throws HttpGatewayException If the gateway responded with an error
+     */
+    protected abstract void parsePingResponse(String[] lines) throws HttpGatewayException;
+
+    /**
+     * Encodes the receiver independent part of the send requests for a
+     * message. This is done once per message, also for a batch.
+     * 
+     * @param msg The message
+     * @param sender Sender address
+     * @return One encoded message per send request
+     * @throws SmsException If the gateway can't send the message
+     */
+    protected abstract String[] buildMessageRequests(SmsMessage msg, SmsAddress sender) throws SmsException;
+
+    /**
+     * Builds a send request.
+     * 
+     * @param sessionId The current session id, null if the gateway doesn't
+     *            use sessions
+     * @param receivers The receivers, at most getMaxRecipients()
+     * @param messageRequest One of the encoded messages from buildMessageRequests()
+     * @return The request
+     */
+    protected abstract HttpGatewayRequest buildSendRequest(String sessionId, String[] receivers,
+            String messageRequest);
+
+    /**
+     * Parses the response to a send request.
+     * 
+     * @param lines The response lines
+     * @param receivers The receivers of the request
+     * @return The message id of each receiver, null if the gateway rejected
+     *         that receiver
+     * @throws HttpGatewayException If the gateway rejected the whole request
+     */
+    protected abstract String[] parseSendResponse(String[] lines, String[] receivers) throws HttpGatewayException;
+
+    /**
+     * Tells if the error means that a new session is needed.
+     * 
+     * @param ex The error
+     * @return true to authenticate again and resend the request
+     */
+    protected abstract boolean isSessionExpired(HttpGatewayException ex);
+
+    /**
+     * Initializes the transport.
+     * 
+     * @param props Properties, see each gateway and the class description
+     * @throws SmsException If the configuration is incomplete
+     */
+    public void init(Properties props) throws SmsException
+    {
+        initGateway(props);
+
+        String prefix = getPropertyPrefix();
+        int maxRequests = Integer.parseInt(props.getProperty(prefix + ".maxrequests", "5"));
+        int timeout = Integer.parseInt(props.getProperty(prefix + ".timeout", "30000"));
+        maxRecipients_ = Integer.parseInt(props.getProperty(prefix + ".maxrecipients",
+                Integer.toString(getDefaultMaxRecipients())));
+
+        if (maxRecipients_ < 1)
+        {
+            throw new SmsException(prefix + ".maxrecipients must be at least 1");
+        }
+
+        keepAliveInterval_ = Long.parseLong(props.getProperty(prefix + ".keepalive",
+                Long.toString(getDefaultKeepAlive())));
+
+        httpClient_ = new HttpGatewayClient(maxRequests, timeout, timeout);
+
+        // Idle threads time out, so there is nothing to shut down
+        executor_ = new ThreadPoolExecutor(maxRequests, maxRequests, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    private final AtomicInteger threadNo_ = new AtomicInteger();
+
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "smsj-http-gateway-" + threadNo_.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor_.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Authenticates and gets a new session id, if the gateway uses sessions.
+     * 
+     * @throws SmsException If the gateway rejected the auth
+     * @throws IOException If the gateway couldn't be reached
+     */
+    public void connect() throws SmsException, IOException
+    {
+        HttpGatewayRequest request = buildAuthRequest();
+
+        if (request != null)
+        {
+            synchronized (sessionLock_)
+            {
+                try
+                {
+                    sessionId_ = parseAuthResponse(post(request));
+                }
+                catch (HttpGatewayException ex)
+                {
+                    throw new SmsException(ex);
+                }
+            }
+            startKeepAlive();
+        }
+    }
+
+    /**
+     * Gets a new session, unless another thread already has replaced the
+     * expired one.
+     * 
+     * @param expiredSessionId The session id that the gateway rejected
+     * @throws SmsException If the gateway rejected the auth
+     * @throws IOException If the gateway couldn't be reached
+     */
+    private void refreshSession(String expiredSessionId) throws SmsException, IOException
+    {
+        synchronized (sessionLock_)
+        {
+            String sessionId = sessionId_;
+            if ((sessionId != null) && !sessionId.equals(expiredSessionId))
+            {
+                return;
+            }
+
+            log_.debug("Session {} expired, authenticating", expiredSessionId);
+            connect();
+        }
+    }
+
+    /**
+     * Pings the gateway to keep the session alive.
+     * 
+     * @throws SmsException If the gateway responded with an error
+     * @throws IOException If the gateway couldn't be reached
+     */
+    public void ping() throws SmsException, IOException
+    {
+        String sessionId = sessionId_;
+        HttpGatewayRequest request = buildPingRequest(sessionId);
+
+        if (request != null)
+        {
+            try
+            {
+                parsePingResponse(post(request));
+            }
+            catch (HttpGatewayException ex)
+            {
+                if (!isSessionExpired(ex))
+                {
+                    throw new SmsException(ex);
+                }
+                refreshSession(sessionId);
+            }
+        }
+    }
+
+    /**
+     * Stops the keep-alive pings. HTTP gateways are connection less,
+     * the connections are closed by the keep-alive cache when idle.
+     */
+    public void disconnect() throws SmsException, IOException
+    {
+        stopKeepAlive();
+    }
+
+    private synchronized void startKeepAlive()
+    {
+        if ((keepAliveInterval_ <= 0) || (keepAlive_ != null))
+        {
+            return;
+        }
+
+        long period = Math.max(keepAliveInterval_ / 4, 100);
+
+        keepAlive_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "smsj-http-gateway-keepalive");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        keepAlive_.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                keepAlive();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopKeepAlive()
+    {
+        if (keepAlive_ != null)
+        {
+            keepAlive_.shutdownNow();
+            keepAlive_ = null;
+        }
+    }
+
+    /**
+     * Called periodically. Pings the gateway when the session has been idle.
+     */
+    private void keepAlive()
+    {
+        try
+        {
+            if (System.currentTimeMillis() - lastActivity_ >= keepAliveInterval_)
+            {
+                ping();
+            }
+        }
+        catch (Exception ex)
+        {
+            log_.warn("HTTP gateway keep-alive failed: {}", ex.toString());
+        }
+    }
+
+    /**
+     * Sends an SMS Message.
+     * 
+     * @param msg The message to send
+     * @param receiver Destination address
+     * @param sender Sender address
+     * @return The message ids of all send requests, comma separated
+     * @throws SmsException If the gateway rejected the message
+     * @throws IOException If the gateway couldn't be reached
+     */
+    public String send(SmsMessage msg, SmsAddress receiver, SmsAddress sender) throws SmsException, IOException
+    {
+        checkReceiver(receiver);
+
+        String[] messageRequests = buildMessageRequests(msg, sender);
+        String[] msgIds = new String[messageRequests.length];
+
+        for (int i = 0; i < messageRequests.length; i++)
+        {
+            msgIds[i] = send(receiver.getAddress(), messageRequests[i]);
+        }
+
+        return StringUtil.join(msgIds, ",");
+    }
+
+    /**
+     * Sends an SMS Message without blocking the caller.
+     * <p>
+     * All send requests of the message are queued at once and may be posted
+     * concurrently. The returned future holds the message id of each
+     * request.
+     * 
+     * @param msg The message to send
+     * @param receiver Destination address
+     * @param sender Sender address
+     * @return The pending message ids
+     * @throws SmsException If the gateway can't send the message
+     */
+    public HttpGatewayFuture sendAsync(SmsMessage msg, SmsAddress receiver, SmsAddress sender) throws SmsException
+    {
+        checkReceiver(receiver);
+
+        final String address = receiver.getAddress();
+        String[] messageRequests = buildMessageRequests(msg, sender);
+        List<Future<String>> futures = new ArrayList<Future<String>>(messageRequests.length);
+
+        for (final String messageRequest : messageRequests)
+        {
+            futures.add(executor_.submit(new Callable<String>()
+            {
+                public String call() throws SmsException, IOException
+                {
+                    return send(address, messageRequest);
+                }
+            }));
+        }
+
+        return new HttpGatewayFuture(futures);
+    }
+
+    /**
+     * Sends one send request to one receiver.
+     */
+    private String send(String receiver, String messageRequest) throws SmsException, IOException
+    {
+        String msgId = send(new String[] { receiver }, messageRequest)[0];
+
+        if (msgId == null)
+        {
+            throw new SmsException("The gateway rejected the message to " + receiver);
+        }
+        return msgId;
+    }
+
+    /**
+     * Sends an SMS Message to many receivers.
+     * <p>
+     * The message is encoded once. Each send request goes to up to
+     * maxrecipients receivers at a time. If a request fails, its receivers
+     * get null ids and the batch goes on with the next group.
+     * 
+     * @see SmsTransport#sendBatch(SmsMessage, Collection, SmsAddress)
+     */
+    public String[] sendBatch(SmsMessage msg, Collection<SmsAddress> receivers, SmsAddress sender)
+        throws SmsException, IOException
+    {
+        String[] messageRequests = buildMessageRequests(msg, sender);
+        SmsAddress[] dests = receivers.toArray(new SmsAddress[receivers.size()]);
+        String[] msgIds = new String[dests.length];
+        int[] group = new int[maxRecipients_];
+        int i = 0;
+
+        while (i < dests.length)
+        {
+            int nGroup = 0;
+
+            for (; (i < dests.length) && (nGroup < maxRecipients_); i++)
+            {
+                try
+                {
+                    checkReceiver(dests[i]);
+                    group[nGroup++] = i;
+                }
+                catch (SmsException ex)
+                {
+                    log_.warn("Batch receiver {} rejected: {}", i, ex.getMessage());
+                }
+            }
+
+            if (nGroup > 0)
+            {
+                try
+                {
+                    sendGroup(messageRequests, dests, group, nGroup, msgIds);
+                }
+                catch (SmsException ex)
+                {
+                    log_.warn("Failed to send to {} receivers: {}", nGroup, ex.getMessage());
+                }
+                catch (IOException ex)
+                {
+                    log_.warn("Failed to send to {} receivers: {}", nGroup, ex.getMessage());
+                }
+            }
+        }
+
+        return msgIds;
+    }
+
+    /**
+     * Sends all requests of a message to a group of receivers of a batch.
+     */
+    private void sendGroup(String[] messageRequests, SmsAddress[] dests, int[] group, int nGroup, String[] msgIds)
+        throws SmsException, IOException
+    {
+        String[] receivers = new String[nGroup];
+        String[][] requestIds = new String[messageRequests.length][];
+
+        for (int i = 0; i < nGroup; i++)
+        {
+            receivers[i] = dests[group[i]].getAddress();
+        }
+
+        for (int req = 0; req < messageRequests.length; req++)
+        {
+            requestIds[req] = send(receivers, messageRequests[req]);
+        }
+
+        for (int i = 0; i < nGroup; i++)
+        {
+            String[] ids = new String[messageRequests.length];
+            boolean complete = true;
+
+            for (int req = 0; req < messageRequests.length; req++)
+            {
+                ids[req] = requestIds[req][i];
+                complete &= (ids[req] != null);
+            }
+
+            if (complete)
+            {
+                msgIds[group[i]] = StringUtil.join(ids, ",");
+            }
+            else
+            {
+                log_.warn("No message id from the gateway for {}", receivers[i]);
+            }
+        }
+    }
+
+    /**
+     * Sends one send request, with a new session if the old has expired.
+     * 
+     * @param receivers The receivers
+     * @param messageRequest The encoded message
+     * @return The message ids, one per receiver
+     * @throws SmsException If the gateway rejected the request
+     * @throws IOException If the gateway couldn't be reached
+     */
+    protected String[] send(String[] receivers, String messageRequest) throws SmsException, IOException
+    {
+        String sessionId = sessionId_;
+
+        if ((sessionId == null) && (buildAuthRequest() != null))
+        {
+            throw new SmsException("Must connect before sending");
+        }
+
+        try
+        {
+            return parseSendResponse(post(buildSendRequest(sessionId, receivers, messageRequest)), receivers);
+        }
+        catch (HttpGatewayException ex)
+        {
+            if (!isSessionExpired(ex))
+            {
+                throw new SmsException(ex.getMessage(), ex);
+            }
+        }
+
+        // Get a new session id, or wait for the thread that is getting it, and resend
+        refreshSession(sessionId);
+
+        try
+        {
+            return parseSendResponse(post(buildSendRequest(sessionId_, receivers, messageRequest)), receivers);
+        }
+        catch (HttpGatewayException ex)
+        {
+            throw new SmsException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Checks that the gateway can send to the receiver.
+     * 
+     * @param receiver The receiver
+     * @throws SmsException If it can't
+     */
+    protected void checkReceiver(SmsAddress receiver) throws SmsException
+    {
+        if (receiver.isAlphanumeric())
+        {
+            throw new SmsException("Cannot sent SMS to an ALPHANUMERIC address");
+        }
+    }
+
+    /**
+     * Posts a request to the gateway.
+     * 
+     * @param request The request
+     * @return The non-empty response lines
+     * @throws IOException If the gateway couldn't be reached
+     */
+    protected String[] post(HttpGatewayRequest request) throws IOException
+    {
+        log_.debug("Posting {} to {}", request.getBody(), request.getUrl());
+        String[] lines = httpClient_.post(request.getUrl(), request.getBody());
+        lastActivity_ = System.currentTimeMillis();
+        if (log_.isDebugEnabled())
+        {
+            log_.debug("Response {}", StringUtil.join(lines, " | "));
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the current session id.
+     * 
+     * @return session id, or null if not connected
+     */
+    protected String getSessionId()
+    {
+        return sessionId_;
+    }
+
+    /**
+     * Returns the max number of receivers per send request.
+     * 
+     * @return max receivers
+     */
+    protected int getMaxRecipients()
+    {
+        return maxRecipients_;
+    }
+}
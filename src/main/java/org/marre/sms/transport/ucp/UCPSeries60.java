@@ -11,18 +11,18 @@ public class UCPSeries60 extends UcpMsg
 {
     public static final byte OP_OPEN_SESSION = 60;
 
-    protected static final int FIELD_OADC = 0;
-    protected static final int FIELD_OTON = 1;
-    protected static final int FIELD_ONPI = 2;
-    protected static final int FIELD_STYP = 3;
-    protected static final int FIELD_PWD = 4;
-    protected static final int FIELD_NPWD = 5;
-    protected static final int FIELD_VERS = 6;
-    protected static final int FIELD_LADC = 7;
-    protected static final int FIELD_LTON = 8;
-    protected static final int FIELD_LNPI = 9;
-    protected static final int FIELD_OPID = 10;
-    protected static final int FIELD_RES1 = 11;
+    public static final int FIELD_OADC = 0;
+    public static final int FIELD_OTON = 1;
+    public static final int FIELD_ONPI = 2;
+    public static final int FIELD_STYP = 3;
+    public static final int FIELD_PWD = 4;
+    public static final int FIELD_NPWD = 5;
+    public static final int FIELD_VERS = 6;
+    public static final int FIELD_LADC = 7;
+    public static final int FIELD_LTON = 8;
+    public static final int FIELD_LNPI = 9;
+    public static final int FIELD_OPID = 10;
+    public static final int FIELD_RES1 = 11;
 
     /**
      * Constructor for UCPSeries60.
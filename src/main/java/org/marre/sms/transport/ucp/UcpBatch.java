@@ -0,0 +1,139 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+
+import org.marre.sms.SmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the message ids of a batch sent with sendBatch().
+ * <p>
+ * The binds, futures and ids are kept in arrays of the batch size. Results
+ * are collected in send order, futures that are already done while the
+ * batch is still being sent, so that their responses can be released early.
+ * <p>
+ * A destination that is rejected, or whose connection fails, gets a null
+ * id. The rest of the batch is still collected.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+class UcpBatch
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UcpBatch.class);
+
+    private final UcpTransport[] binds_;
+    private final UcpMessageFuture[] futures_;
+    private final String[] ids_;
+    private int sent_;
+    private int collected_;
+
+    UcpBatch(int size)
+    {
+        binds_ = new UcpTransport[size];
+        futures_ = new UcpMessageFuture[size];
+        ids_ = new String[size];
+    }
+
+    /**
+     * Adds the next destination of the batch.
+     * 
+     * @param bind The bind that the message was sent on
+     * @param future The results of the message
+     */
+    void add(UcpTransport bind, UcpMessageFuture future)
+    {
+        binds_[sent_] = bind;
+        futures_[sent_] = future;
+        sent_++;
+
+        while ((collected_ < sent_) && ((futures_[collected_] == null) || futures_[collected_].isDone()))
+        {
+            collect();
+        }
+    }
+
+    /**
+     * Adds the next destination of the batch, that couldn't be sent.
+     * 
+     * @param ex The reason
+     */
+    void reject(Exception ex)
+    {
+        log_.warn("Batch destination {} rejected: {}", sent_, ex.getMessage());
+        sent_++;
+    }
+
+    /**
+     * Waits for the remaining results.
+     * 
+     * @return The message ids, null for destinations that failed or weren't
+     *         sent
+     */
+    String[] finish()
+    {
+        while (collected_ < sent_)
+        {
+            collect();
+        }
+        return ids_;
+    }
+
+    private void collect()
+    {
+        if (futures_[collected_] != null)
+        {
+            try
+            {
+                ids_[collected_] = binds_[collected_].awaitMessageId(futures_[collected_]);
+            }
+            catch (SmsException ex)
+            {
+                log_.warn("Batch destination {} rejected: {}", collected_, ex.getMessage());
+            }
+            catch (IOException ex)
+            {
+                log_.warn("Batch destination {} failed: {}", collected_, ex.getMessage());
+            }
+
+            binds_[collected_] = null;
+            futures_[collected_] = null;
+        }
+        collected_++;
+    }
+}
@@ -0,0 +1,131 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One TCP connection to (or from) a UCP SMSC.
+ * <p>
+ * Writes are serialized so that operations and results from different
+ * threads never interleave on the wire.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+class UcpConnection
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UcpConnection.class);
+
+    private final SocketChannel channel_;
+    private final UcpFrameCodec encoder_ = new UcpFrameCodec();
+    private volatile long lastActivity_ = System.currentTimeMillis();
+
+    UcpConnection(SocketChannel channel) throws IOException
+    {
+        channel_ = channel;
+        channel_.socket().setTcpNoDelay(true);
+        channel_.socket().setKeepAlive(true);
+    }
+
+    SocketChannel getChannel()
+    {
+        return channel_;
+    }
+
+    /**
+     * Records that data was received on this connection.
+     */
+    void touch()
+    {
+        lastActivity_ = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the time since data was last sent or received.
+     * 
+     * @return idle time in milliseconds
+     */
+    long getIdleTime()
+    {
+        return System.currentTimeMillis() - lastActivity_;
+    }
+
+    boolean isOpen()
+    {
+        return channel_.isOpen() && channel_.isConnected();
+    }
+
+    /**
+     * Writes one frame.
+     * 
+     * @param msg The operation or result to write
+     * @throws IOException If the write failed
+     */
+    void write(UcpMsg msg) throws IOException
+    {
+        synchronized (encoder_)
+        {
+            ByteBuffer data = encoder_.encode(msg);
+
+            if (log_.isDebugEnabled())
+            {
+                log_.debug("SMSC send: {}", new String(data.array(), 0, data.limit(), StandardCharsets.US_ASCII));
+            }
+
+            while (data.hasRemaining())
+            {
+                channel_.write(data);
+            }
+        }
+        touch();
+    }
+
+    void close() throws IOException
+    {
+        channel_.close();
+    }
+
+    public String toString()
+    {
+        return String.valueOf(channel_.socket().getRemoteSocketAddress());
+    }
+}
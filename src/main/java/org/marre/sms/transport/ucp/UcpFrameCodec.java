@@ -0,0 +1,277 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes UCP frames (STX ... ETX).
+ * <p>
+ * Operations are encoded directly into a reusable ByteBuffer. The checksum is
+ * calculated while the bytes are written, the command is never built as a
+ * String.
+ * <p>
+ * Incoming frames are parsed straight from the read buffer of the
+ * connection. The only allocation per frame is the resulting String.
+ * <p>
+ * A codec instance is not thread safe, use one instance per connection and
+ * direction.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpFrameCodec
+{
+    public static final byte STX = UcpMsg.STX;
+    public static final byte ETX = UcpMsg.ETX;
+
+    /** Max size of a frame that we accept from the SMSC. LEN is 5 digits. */
+    public static final int MAX_FRAME_SIZE = 99999 + 2;
+
+    /** TRN/LEN/O|R/OT/ */
+    private static final int HEADER_LENGTH = 2 + 1 + 5 + 1 + 1 + 1 + 2 + 1;
+
+    /** Two hex digits */
+    private static final int CHECKSUM_LENGTH = 2;
+
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private ByteBuffer encodeBuffer_;
+
+    /**
+     * Creates a codec.
+     */
+    public UcpFrameCodec()
+    {
+        encodeBuffer_ = ByteBuffer.allocate(512);
+    }
+
+    /**
+     * Returns the value of the LEN field for the given operation. This is the
+     * number of characters between STX and ETX.
+     * 
+     * @param msg The operation
+     * @return The length
+     */
+    public static int getLength(UcpMsg msg)
+    {
+        int length = HEADER_LENGTH + CHECKSUM_LENGTH;
+
+        for (String field : msg.ucpFields_)
+        {
+            if (field != null)
+            {
+                length += field.length();
+            }
+            length += 1;
+        }
+
+        return length;
+    }
+
+    /**
+     * Encodes the operation into the internal buffer of this codec.
+     * <p>
+     * The returned buffer is ready to be written and is only valid until the
+     * next call to encode.
+     * 
+     * @param msg The operation
+     * @return A buffer containing STX, the command and ETX
+     */
+    public ByteBuffer encode(UcpMsg msg)
+    {
+        int length = getLength(msg);
+
+        if (encodeBuffer_.capacity() < length + 2)
+        {
+            encodeBuffer_ = ByteBuffer.allocate(Integer.highestOneBit(length + 2) << 1);
+        }
+
+        encodeBuffer_.clear();
+        encode(msg, length, encodeBuffer_);
+        encodeBuffer_.flip();
+
+        return encodeBuffer_;
+    }
+
+    /**
+     * Encodes the operation into the given buffer.
+     * 
+     * @param msg The operation
+     * @param out Buffer to write to, must have room for the whole frame
+     */
+    public static void encode(UcpMsg msg, ByteBuffer out)
+    {
+        encode(msg, getLength(msg), out);
+    }
+
+    private static void encode(UcpMsg msg, int length, ByteBuffer out)
+    {
+        int checksum = 0;
+
+        out.put(STX);
+
+        // HEADER (TRN/LEN/O|R/OT)
+        checksum += putNumber(out, msg.trn_, 2);
+        checksum += put(out, '/');
+        checksum += putNumber(out, length, 5);
+        checksum += put(out, '/');
+        checksum += put(out, msg.or_);
+        checksum += put(out, '/');
+        checksum += putNumber(out, msg.ot_, 2);
+        checksum += put(out, '/');
+
+        // DATA
+        for (String field : msg.ucpFields_)
+        {
+            if (field != null)
+            {
+                for (int i = 0; i < field.length(); i++)
+                {
+                    checksum += put(out, field.charAt(i));
+                }
+            }
+            checksum += put(out, '/');
+        }
+
+        // CHECKSUM
+        checksum &= 0xff;
+        out.put(HEX_DIGITS[checksum >> 4]);
+        out.put(HEX_DIGITS[checksum & 0x0f]);
+
+        out.put(ETX);
+    }
+
+    private static int put(ByteBuffer out, char ch)
+    {
+        out.put((byte) ch);
+        return ch & 0xff;
+    }
+
+    private static int putNumber(ByteBuffer out, int value, int nChars)
+    {
+        int sum = 0;
+        int divisor = 1;
+        for (int i = 1; i < nChars; i++)
+        {
+            divisor *= 10;
+        }
+
+        for (int i = 0; i < nChars; i++)
+        {
+            sum += put(out, (char) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+        return sum;
+    }
+
+    /**
+     * Decodes the next complete frame from the buffer.
+     * <p>
+     * The buffer should be in "read" mode (flipped). If a complete frame is
+     * available its position is moved past the ETX, otherwise the position is
+     * left untouched so that more data can be appended after a compact().
+     * 
+     * @param in Buffer with data received from the SMSC
+     * @return The frame without STX and ETX, or null if no complete frame is available
+     * @throws IOException If the data isn't a UCP frame
+     */
+    public String decode(ByteBuffer in) throws IOException
+    {
+        int start = in.position();
+        int limit = in.limit();
+
+        if (start == limit)
+        {
+            return null;
+        }
+
+        if (in.get(start) != STX)
+        {
+            throw new IOException("The SMSC sends a bad reply");
+        }
+
+        for (int i = start + 1; i < limit; i++)
+        {
+            if (in.get(i) == ETX)
+            {
+                String frame = toString(in, start + 1, i - start - 1);
+                in.position(i + 1);
+                return frame;
+            }
+        }
+
+        if (limit - start > MAX_FRAME_SIZE)
+        {
+            throw new IOException("The SMSC sends a too long frame");
+        }
+
+        return null;
+    }
+
+    private static String toString(ByteBuffer in, int offset, int length)
+    {
+        if (in.hasArray())
+        {
+            return new String(in.array(), in.arrayOffset() + offset, length, StandardCharsets.US_ASCII);
+        }
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            chars[i] = (char) (in.get(offset + i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses the TRN of a decoded frame.
+     * 
+     * @param frame A frame as returned by decode
+     * @return The TRN
+     * @throws IOException If the frame doesn't start with a TRN
+     */
+    public static int getTrn(String frame) throws IOException
+    {
+        if ((frame.length() < 2) || !Character.isDigit(frame.charAt(0)) || !Character.isDigit(frame.charAt(1)))
+        {
+            throw new IOException("Invalid TRN in frame from the SMSC");
+        }
+        return (frame.charAt(0) - '0') * 10 + (frame.charAt(1) - '0');
+    }
+}
@@ -0,0 +1,133 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of one UCP operation.
+ * <p>
+ * A UcpFuture is created when an operation is put on the wire and is
+ * completed by the receiving thread when the SMSC response with the same
+ * TRN arrives.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpFuture implements Future<UcpResponse>
+{
+    private final CountDownLatch done_ = new CountDownLatch(1);
+
+    private volatile UcpResponse response_;
+    private volatile Throwable failure_;
+
+    /**
+     * Creates a new, not yet completed, UcpFuture.
+     */
+    UcpFuture()
+    {
+        // Empty
+    }
+
+    /**
+     * Completes this operation with the given response.
+     * 
+     * @param response The result from the SMSC
+     */
+    void complete(UcpResponse response)
+    {
+        response_ = response;
+        done_.countDown();
+    }
+
+    /**
+     * Completes this operation with an error.
+     * 
+     * @param failure The reason why no response will arrive
+     */
+    void fail(Throwable failure)
+    {
+        failure_ = failure;
+        done_.countDown();
+    }
+
+    /**
+     * UCP operations cannot be cancelled once they are sent.
+     * 
+     * @return false
+     */
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    public boolean isDone()
+    {
+        return done_.getCount() == 0;
+    }
+
+    public UcpResponse get() throws InterruptedException, ExecutionException
+    {
+        done_.await();
+        return getResult();
+    }
+
+    public UcpResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!done_.await(timeout, unit))
+        {
+            throw new TimeoutException("No response from the SMSC");
+        }
+        return getResult();
+    }
+
+    private UcpResponse getResult() throws ExecutionException
+    {
+        if (failure_ != null)
+        {
+            throw new ExecutionException(failure_);
+        }
+        return response_;
+    }
+}
@@ -0,0 +1,120 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of sending one SmsMessage over UCP.
+ * <p>
+ * A message may consist of several pdus, each sent as its own operation.
+ * This future is done when the SMSC has responded to all of them. The result
+ * contains one result per pdu, in pdu order. A NACK for one pdu doesn't fail
+ * the future, check each result with UcpResponse.isAck().
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpMessageFuture implements Future<UcpResponse[]>
+{
+    private final UcpFuture[] pduFutures_;
+
+    /**
+     * Creates a message future.
+     * 
+     * @param pduFutures One future per sent pdu
+     */
+    UcpMessageFuture(UcpFuture[] pduFutures)
+    {
+        pduFutures_ = pduFutures;
+    }
+
+    /**
+     * UCP operations cannot be cancelled once they are sent.
+     * 
+     * @return false
+     */
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    public boolean isDone()
+    {
+        for (UcpFuture pduFuture : pduFutures_)
+        {
+            if (!pduFuture.isDone())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public UcpResponse[] get() throws InterruptedException, ExecutionException
+    {
+        UcpResponse[] responses = new UcpResponse[pduFutures_.length];
+
+        for (int i = 0; i < pduFutures_.length; i++)
+        {
+            responses[i] = pduFutures_[i].get();
+        }
+
+        return responses;
+    }
+
+    public UcpResponse[] get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        UcpResponse[] responses = new UcpResponse[pduFutures_.length];
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        for (int i = 0; i < pduFutures_.length; i++)
+        {
+            long left = deadline - System.nanoTime();
+            responses[i] = pduFutures_[i].get(Math.max(left, 0), TimeUnit.NANOSECONDS);
+        }
+
+        return responses;
+    }
+}
@@ -34,9 +34,9 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.ucp;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,17 +80,32 @@ public abstract class UcpMsg
         or_ = or;
     }
 
+    public char getOR()
+    {
+        return or_;
+    }
+
     protected void setOT(byte ot)
     {
         ot_ = ot;
     }
 
+    public byte getOT()
+    {
+        return ot_;
+    }
+
     public void setTRN(int trn)
     {
         trn_ = trn;
     }
 
-    public byte calcChecksum(String data)
+    public int getTRN()
+    {
+        return trn_;
+    }
+
+    public byte calcChecksum(CharSequence data)
     {
         int checksum = 0;
         for (int i = 0; i < data.length(); i++)
@@ -100,26 +115,62 @@ public abstract class UcpMsg
         return (byte) (checksum & 0xff);
     }
 
-    public String buildCommand()
+    /**
+     * Reads TRN, O|R, OT and the data fields from a frame.
+     * <p>
+     * Trailing fields that are missing in the frame are left as null.
+     * 
+     * @param frame A frame without STX and ETX, as returned by UcpFrameCodec
+     * @throws IOException If the frame is malformed or has a bad checksum
+     */
+    public void parse(String frame) throws IOException
     {
-        StringBuffer command = new StringBuffer(200);
-        int length = 0;
+        int checksumStart = frame.lastIndexOf('/') + 1;
+        if ((checksumStart < 14) || (frame.length() - checksumStart != 2))
+        {
+            throw new IOException("Malformed UCP frame: " + frame);
+        }
 
-        // CALC LENGTH
+        int checksum = 0;
+        for (int i = 0; i < checksumStart; i++)
+        {
+            checksum += frame.charAt(i);
+        }
 
-        // length = trn + len + o|r + ot
-        length = 3 + 5 + 2 + 3;
-        // length += data
-        for (int i = 0; i < ucpFields_.length; i++)
+        try
         {
-            if (ucpFields_[i] != null)
+            if ((checksum & 0xff) != Integer.parseInt(frame.substring(checksumStart), 16))
             {
-                length += ucpFields_[i].length();
+                throw new IOException("Bad checksum in UCP frame: " + frame);
             }
-            length += 1;
+            ot_ = (byte) Integer.parseInt(frame.substring(11, 13));
         }
-        // length += checksum
-        length += 3;
+        catch (NumberFormatException ex)
+        {
+            throw new IOException("Malformed UCP frame: " + frame, ex);
+        }
+
+        trn_ = UcpFrameCodec.getTrn(frame);
+        or_ = frame.charAt(9);
+
+        int field = 0;
+        int start = 14;
+        while (start < checksumStart)
+        {
+            int end = frame.indexOf('/', start);
+            if (field >= ucpFields_.length)
+            {
+                throw new IOException("Too many fields in UCP frame: " + frame);
+            }
+            ucpFields_[field++] = (end > start) ? frame.substring(start, end) : null;
+            start = end + 1;
+        }
+    }
+
+    public String buildCommand()
+    {
+        int length = UcpFrameCodec.getLength(this);
+        StringBuilder command = new StringBuilder(length);
 
         // HEADER (TRN/LEN/O|R/OT)
 
@@ -147,34 +198,25 @@ public abstract class UcpMsg
         }
 
         // CHECKSUM
-        command.append(StringUtil.byteToHexString(calcChecksum(command.toString())));
+        command.append(StringUtil.byteToHexString(calcChecksum(command)));
 
         return command.toString();
     }
 
     public void writeTo(OutputStream os) throws IOException
     {
-        // STX
-        os.write(STX);
-
-        // Command
-        os.write(buildCommand().getBytes());
-
-        // ETX
-        os.write(ETX);
+        os.write(getCommand());
     }
 
+    /**
+     * Returns the whole frame, including STX and ETX.
+     * 
+     * @return the encoded operation
+     */
     public byte[] getCommand()
     {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(200);
-        try
-        {
-            writeTo(baos);
-        }
-        catch (IOException ex)
-        {
-            log_.debug("getCommand() - Failed to write to an ByteArrayOutputStream!");
-        }
-        return baos.toByteArray();
+        byte[] command = new byte[UcpFrameCodec.getLength(this) + 2];
+        UcpFrameCodec.encode(this, ByteBuffer.wrap(command));
+        return command;
     }
 }
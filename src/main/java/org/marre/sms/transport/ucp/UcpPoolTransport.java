@@ -0,0 +1,438 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.transport.SmsTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SmsTransport that spreads the messages over several UCP binds.
+ * <p>
+ * Each bind is a UcpTransport with its own connection and OT 60 login. A
+ * message is sent on the connected bind with the fewest operations waiting
+ * for a response. Binds that fail are taken out of rotation and reconnected
+ * in the background.
+ * <p>
+ * This transport supports the following parameters, all other smsj.ucp
+ * properties are passed on to every bind:
+ * <br>
+ * <pre>
+ * <b>smsj.ucp.pool.hosts</b> - Comma separated list of SMSCs. Ex: "smsc1:5000,smsc2:5000"
+ * <b>smsj.ucp.pool.binds</b> - Total number of binds, spread evenly over the hosts. Default one per host.
+ * <b>smsj.ucp.pool.reconnect</b> - Milliseconds between reconnect attempts. Default 5000.
+ * </pre>
+ * <p>
+ * <b>smsj.ucp.receiver.port</b> is only used by the first bind.
+ * <b>smsj.ucp.throttle.rate</b> is the limit of each bind, not of the pool.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpPoolTransport implements SmsTransport
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UcpPoolTransport.class);
+
+    private UcpTransport[] binds_;
+    private long reconnectInterval_;
+    private ScheduledExecutorService reconnector_;
+    private final AtomicInteger nextBind_ = new AtomicInteger();
+
+    public UcpPoolTransport()
+    {
+        // Empty
+    }
+
+    /**
+     * Initializes the pool and all binds.
+     * 
+     * @param props See the class description
+     * @throws SmsException If the configuration is incomplete
+     */
+    public void init(Properties props) throws SmsException
+    {
+        String hostList = props.getProperty("smsj.ucp.pool.hosts");
+        if ((hostList == null) || (hostList.trim().length() == 0))
+        {
+            throw new SmsException("UCP Pool: smsj.ucp.pool.hosts is missing");
+        }
+
+        String[] hosts = hostList.split(",");
+        int nBinds = Integer.parseInt(props.getProperty("smsj.ucp.pool.binds", Integer.toString(hosts.length)));
+        reconnectInterval_ = Long.parseLong(props.getProperty("smsj.ucp.pool.reconnect", "5000"));
+
+        if (nBinds < 1)
+        {
+            throw new SmsException("UCP Pool: smsj.ucp.pool.binds must be at least 1");
+        }
+
+        binds_ = new UcpTransport[nBinds];
+        for (int i = 0; i < nBinds; i++)
+        {
+            String host = hosts[i % hosts.length].trim();
+            int colon = host.lastIndexOf(':');
+            if (colon < 0)
+            {
+                throw new SmsException("UCP Pool: expected host:port, got " + host);
+            }
+
+            Properties bindProps = new Properties();
+            bindProps.putAll(props);
+            bindProps.setProperty("smsj.ucp.ip.host", host.substring(0, colon));
+            bindProps.setProperty("smsj.ucp.ip.port", host.substring(colon + 1));
+            if (i > 0)
+            {
+                bindProps.remove("smsj.ucp.receiver.port");
+            }
+
+            binds_[i] = new UcpTransport();
+            binds_[i].init(bindProps);
+        }
+    }
+
+    /**
+     * Connects all binds.
+     * <p>
+     * Succeeds if at least one bind could connect, the others are retried in
+     * the background.
+     * 
+     * @throws SmsException If no bind could connect
+     * @throws IOException If no bind could connect
+     */
+    public void connect() throws SmsException, IOException
+    {
+        Exception lastFailure = null;
+        int nConnected = 0;
+
+        for (UcpTransport bind : binds_)
+        {
+            try
+            {
+                bind.connect();
+                nConnected++;
+            }
+            catch (SmsException ex)
+            {
+                log_.warn("UCP bind failed to connect: {}", ex.getMessage());
+                lastFailure = ex;
+            }
+            catch (IOException ex)
+            {
+                log_.warn("UCP bind failed to connect: {}", ex.getMessage());
+                lastFailure = ex;
+            }
+        }
+
+        if (nConnected == 0)
+        {
+            if (lastFailure instanceof IOException)
+            {
+                throw (IOException) lastFailure;
+            }
+            throw (SmsException) lastFailure;
+        }
+
+        reconnector_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "smsj-ucp-pool-reconnect");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reconnector_.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                reconnect();
+            }
+        }, reconnectInterval_, reconnectInterval_, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pings all connected binds.
+     * 
+     * @throws SmsException Indicates a sms related problem.
+     * @throws IOException Inidicates a failure to communicate with the SMS server.
+     */
+    public void ping() throws SmsException, IOException
+    {
+        for (UcpTransport bind : binds_)
+        {
+            if (bind.isConnected())
+            {
+                try
+                {
+                    bind.ping();
+                }
+                catch (IOException ex)
+                {
+                    markFailed(bind, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the message on the least loaded bind.
+     */
+    public String send(SmsMessage msg, SmsAddress dest, SmsAddress sender) throws SmsException, IOException
+    {
+        UcpTransport bind = selectBind();
+
+        try
+        {
+            return bind.send(msg, dest, sender);
+        }
+        catch (IOException ex)
+        {
+            markFailed(bind, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends the message to many destinations, each on the least loaded bind.
+     * <p>
+     * The message is encoded once for all binds. A destination whose bind
+     * fails while it is being sent is sent again on another bind. Only when
+     * no bind is left does the batch fail. Destinations that were already
+     * sent on a bind that fails get null ids, as they may have been
+     * delivered.
+     * 
+     * @see UcpTransport#sendBatch(SmsMessage, Collection, SmsAddress)
+     */
+    public String[] sendBatch(SmsMessage msg, Collection<SmsAddress> dests, SmsAddress sender)
+        throws SmsException, IOException
+    {
+        UcpSeries50[] submits = binds_[0].createSubmits(msg, sender);
+        UcpBatch batch = new UcpBatch(dests.size());
+
+        for (SmsAddress dest : dests)
+        {
+            boolean sent = false;
+
+            while (!sent)
+            {
+                // Throws when no bind is left
+                UcpTransport bind = selectBind();
+
+                try
+                {
+                    batch.add(bind, bind.sendAsync(submits, dest));
+                    sent = true;
+                }
+                catch (SmsException ex)
+                {
+                    // A bind that was lost after it was selected isn't a rejection
+                    if (bind.isConnected())
+                    {
+                        batch.reject(ex);
+                        sent = true;
+                    }
+                }
+                catch (IOException ex)
+                {
+                    markFailed(bind, ex);
+                }
+            }
+        }
+
+        return batch.finish();
+    }
+
+    /**
+     * Sends the message on the least loaded bind without waiting for the
+     * responses.
+     * 
+     * @see UcpTransport#sendAsync(SmsMessage, SmsAddress, SmsAddress)
+     */
+    public UcpMessageFuture sendAsync(SmsMessage msg, SmsAddress dest, SmsAddress sender)
+        throws SmsException, IOException
+    {
+        UcpTransport bind = selectBind();
+
+        try
+        {
+            return bind.sendAsync(msg, dest, sender);
+        }
+        catch (IOException ex)
+        {
+            markFailed(bind, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Sets the listener for operations sent by the SMSC on any of the binds.
+     * 
+     * @param listener The listener, or null
+     */
+    public void setDeliveryListener(UcpDeliveryListener listener)
+    {
+        for (UcpTransport bind : binds_)
+        {
+            bind.setDeliveryListener(listener);
+        }
+    }
+
+    /**
+     * Returns the number of binds that are currently connected.
+     * 
+     * @return connected binds
+     */
+    public int getConnectedBinds()
+    {
+        int nConnected = 0;
+        for (UcpTransport bind : binds_)
+        {
+            if (bind.isConnected())
+            {
+                nConnected++;
+            }
+        }
+        return nConnected;
+    }
+
+    /**
+     * Stops the reconnects and disconnects all binds.
+     */
+    public void disconnect() throws SmsException, IOException
+    {
+        if (reconnector_ != null)
+        {
+            reconnector_.shutdownNow();
+            reconnector_ = null;
+        }
+
+        for (UcpTransport bind : binds_)
+        {
+            disconnectQuietly(bind);
+        }
+    }
+
+    /**
+     * Finds the connected bind with the fewest outstanding operations. Ties
+     * are broken round robin.
+     */
+    private UcpTransport selectBind() throws SmsException
+    {
+        UcpTransport best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        int start = (nextBind_.getAndIncrement() & Integer.MAX_VALUE) % binds_.length;
+
+        for (int i = 0; i < binds_.length; i++)
+        {
+            UcpTransport bind = binds_[(start + i) % binds_.length];
+
+            if (bind.isConnected())
+            {
+                int outstanding = bind.getOutstanding();
+                if (outstanding < bestOutstanding)
+                {
+                    best = bind;
+                    bestOutstanding = outstanding;
+                }
+            }
+        }
+
+        if (best == null)
+        {
+            throw new SmsException("No UCP bind is connected");
+        }
+        return best;
+    }
+
+    /**
+     * Closes the submit connection of the bind. Its receiver port, if any,
+     * stays open so that deliveries for the whole pool keep coming.
+     */
+    private void markFailed(UcpTransport bind, IOException ex)
+    {
+        log_.warn("UCP bind failed, taken out of rotation: {}", ex.getMessage());
+        try
+        {
+            bind.closeConnection();
+        }
+        catch (IOException ex2)
+        {
+            log_.debug("Failed to close UCP bind", ex2);
+        }
+    }
+
+    private void reconnect()
+    {
+        for (UcpTransport bind : binds_)
+        {
+            if (!bind.isConnected())
+            {
+                try
+                {
+                    bind.reconnect();
+                    log_.info("UCP bind reconnected");
+                }
+                catch (Exception ex)
+                {
+                    log_.debug("UCP bind reconnect failed: {}", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void disconnectQuietly(UcpTransport bind)
+    {
+        try
+        {
+            bind.disconnect();
+        }
+        catch (IOException ex)
+        {
+            log_.debug("Failed to disconnect UCP bind", ex);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+
+/**
+ * A UCP result (O|R = 'R').
+ * <p>
+ * A negative result has three fields: NACK, EC and SM. The layout of a
+ * positive result depends on the operation. In the 50 series it is ACK, MVP
+ * and SM, but OT 31 and the 60 series answer with only ACK and SM.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpResponse extends UcpMsg
+{
+    public static final String ACK = "A";
+    public static final String NACK = "N";
+
+    /** Checksum error. */
+    public static final String EC_CHECKSUM_ERROR = "01";
+    /** Syntax error. */
+    public static final String EC_SYNTAX_ERROR = "02";
+    /** Operation not supported by system. */
+    public static final String EC_OPERATION_NOT_SUPPORTED = "03";
+    /** Operation not allowed. */
+    public static final String EC_OPERATION_NOT_ALLOWED = "04";
+    /** Call barring active. */
+    public static final String EC_CALL_BARRING_ACTIVE = "05";
+    /** AdC invalid. */
+    public static final String EC_ADC_INVALID = "06";
+    /** Authentication failure. */
+    public static final String EC_AUTHENTICATION_FAILURE = "07";
+    /** Message too long. */
+    public static final String EC_MESSAGE_TOO_LONG = "24";
+
+    public static final int FIELD_ACK = 0;
+    public static final int FIELD_EC = 1;
+    public static final int FIELD_MVP = 1;
+    public static final int FIELD_SM = 2;
+    /** SM in the positive result of OT 31 and the 60 series. */
+    public static final int FIELD_ACK_SM = 1;
+
+    /**
+     * Creates an empty response, used when parsing.
+     */
+    public UcpResponse()
+    {
+        this(3);
+    }
+
+    private UcpResponse(int nFields)
+    {
+        super(nFields);
+        setOR('R');
+    }
+
+    /**
+     * Creates a response to the given operation.
+     * 
+     * @param operation The operation to respond to
+     */
+    public UcpResponse(UcpMsg operation)
+    {
+        this(operation, 3);
+    }
+
+    private UcpResponse(UcpMsg operation, int nFields)
+    {
+        this(nFields);
+        setTRN(operation.getTRN());
+        setOT(operation.getOT());
+    }
+
+    /**
+     * Parses a result received from the SMSC.
+     * 
+     * @param frame A frame without STX and ETX, as returned by UcpFrameCodec
+     * @return The parsed result
+     * @throws IOException If the frame is malformed or isn't a result
+     */
+    public static UcpResponse parseResponse(String frame) throws IOException
+    {
+        UcpResponse response = new UcpResponse();
+        response.parse(frame);
+
+        if (response.getOR() != 'R')
+        {
+            throw new IOException("Not a UCP result: " + frame);
+        }
+        return response;
+    }
+
+    /**
+     * Returns true for a positive result.
+     * 
+     * @return true if ACK
+     */
+    public boolean isAck()
+    {
+        return ACK.equals(ucpFields_[FIELD_ACK]);
+    }
+
+    /**
+     * Returns the error code of a negative result.
+     * 
+     * @return The error code, or null if ACK
+     */
+    public String getErrorCode()
+    {
+        return isAck() ? null : ucpFields_[FIELD_EC];
+    }
+
+    /**
+     * Returns the system message.
+     * <p>
+     * In the positive result of an OT 51 this is the message id assigned by
+     * the SMSC, "AdC:SCTS".
+     * 
+     * @return SM, can be null
+     */
+    public String getSystemMessage()
+    {
+        return ucpFields_[(isAck() && !hasMvp(ot_)) ? FIELD_ACK_SM : FIELD_SM];
+    }
+
+    /**
+     * Returns true if the positive result of the operation has the MVP
+     * field, false for the two field ACK/SM form of OT 31 and the 60 series.
+     * 
+     * @param ot The operation type
+     * @return true if ACK is followed by MVP
+     */
+    private static boolean hasMvp(byte ot)
+    {
+        return (ot != UcpAlert.OP_ALERT) && (ot / 10 != 6);
+    }
+
+    public String toString()
+    {
+        return buildCommand();
+    }
+
+    /**
+     * Creates a positive response to the given operation.
+     * 
+     * @param operation The operation to respond to
+     * @param sm System message, can be null
+     * @return An ACK
+     */
+    public static UcpResponse ack(UcpMsg operation, String sm)
+    {
+        if (!hasMvp(operation.getOT()))
+        {
+            UcpResponse response = new UcpResponse(operation, 2);
+            response.setField(FIELD_ACK, ACK);
+            response.setField(FIELD_ACK_SM, sm);
+            return response;
+        }
+
+        UcpResponse response = new UcpResponse(operation);
+        response.setField(FIELD_ACK, ACK);
+        response.setField(FIELD_SM, sm);
+        return response;
+    }
+
+    /**
+     * Creates a negative response to the given operation.
+     * 
+     * @param operation The operation to respond to
+     * @param errorCode One of the EC_ constants
+     * @param sm System message, can be null
+     * @return A NACK
+     */
+    public static UcpResponse nack(UcpMsg operation, String errorCode, String sm)
+    {
+        UcpResponse response = new UcpResponse(operation);
+        response.setField(FIELD_ACK, NACK);
+        response.setField(FIELD_EC, errorCode);
+        response.setField(FIELD_SM, sm);
+        return response;
+    }
+}
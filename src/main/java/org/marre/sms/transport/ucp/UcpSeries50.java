@@ -55,39 +55,39 @@ public class UcpSeries50 extends UcpMsg
     public static final byte XSER_TYPE_UDH = 1;
     public static final byte XSER_TYPE_DCS = 2;
 
-    protected static final int FIELD_ADC = 0;
-    protected static final int FIELD_OADC = 1;
-    protected static final int FIELD_AC = 2;
-    protected static final int FIELD_NRQ = 3;
-    protected static final int FIELD_NADC = 4;
-    protected static final int FIELD_NT = 5;
-    protected static final int FIELD_NPID = 6;
-    protected static final int FIELD_LRQ = 7;
-    protected static final int FIELD_LRAD = 8;
-    protected static final int FIELD_LPID = 9;
-    protected static final int FIELD_DD = 10;
-    protected static final int FIELD_DDT = 11;
-    protected static final int FIELD_VP = 12;
-    protected static final int FIELD_RPID = 13;
-    protected static final int FIELD_SCTS = 14;
-    protected static final int FIELD_DST = 15;
-    protected static final int FIELD_RSN = 16;
-    protected static final int FIELD_DSCTS = 17;
-    protected static final int FIELD_MT = 18;
-    protected static final int FIELD_NB = 19;
-    protected static final int FIELD_MSG = 20; // NMsg, AMsg or TMsg (MT)
-    protected static final int FIELD_MMS = 21;
-    protected static final int FIELD_PR = 22;
-    protected static final int FIELD_DCS = 23;
-    protected static final int FIELD_MCLS = 24;
-    protected static final int FIELD_RPI = 25;
-    protected static final int FIELD_CPG = 26;
-    protected static final int FIELD_RPLY = 27;
-    protected static final int FIELD_OTOA = 28;
-    protected static final int FIELD_HPLMN = 29;
-    protected static final int FIELD_XSER = 30;
-    protected static final int FIELD_RES4 = 31;
-    protected static final int FIELD_RES5 = 32;
+    public static final int FIELD_ADC = 0;
+    public static final int FIELD_OADC = 1;
+    public static final int FIELD_AC = 2;
+    public static final int FIELD_NRQ = 3;
+    public static final int FIELD_NADC = 4;
+    public static final int FIELD_NT = 5;
+    public static final int FIELD_NPID = 6;
+    public static final int FIELD_LRQ = 7;
+    public static final int FIELD_LRAD = 8;
+    public static final int FIELD_LPID = 9;
+    public static final int FIELD_DD = 10;
+    public static final int FIELD_DDT = 11;
+    public static final int FIELD_VP = 12;
+    public static final int FIELD_RPID = 13;
+    public static final int FIELD_SCTS = 14;
+    public static final int FIELD_DST = 15;
+    public static final int FIELD_RSN = 16;
+    public static final int FIELD_DSCTS = 17;
+    public static final int FIELD_MT = 18;
+    public static final int FIELD_NB = 19;
+    public static final int FIELD_MSG = 20; // NMsg, AMsg or TMsg (MT)
+    public static final int FIELD_MMS = 21;
+    public static final int FIELD_PR = 22;
+    public static final int FIELD_DCS = 23;
+    public static final int FIELD_MCLS = 24;
+    public static final int FIELD_RPI = 25;
+    public static final int FIELD_CPG = 26;
+    public static final int FIELD_RPLY = 27;
+    public static final int FIELD_OTOA = 28;
+    public static final int FIELD_HPLMN = 29;
+    public static final int FIELD_XSER = 30;
+    public static final int FIELD_RES4 = 31;
+    public static final int FIELD_RES5 = 32;
 
     public UcpSeries50(byte operation)
     {
@@ -96,6 +96,40 @@ public class UcpSeries50 extends UcpMsg
         setOT(operation);
     }
 
+    /**
+     * Creates a copy of the given operation, without the TRN.
+     * 
+     * @param template The operation to copy
+     */
+    public UcpSeries50(UcpSeries50 template)
+    {
+        this(template.getOT());
+        System.arraycopy(template.ucpFields_, 0, ucpFields_, 0, ucpFields_.length);
+    }
+
+    /**
+     * Returns the message id of the short message that this operation
+     * refers to.
+     * <p>
+     * The SMSC identifies a message by recipient and service centre time
+     * stamp, "AdC:SCTS". This is the same format as the SM field in the
+     * positive result of an OT 51, so a delivery notification (OT 53) can be
+     * matched with the message id that was returned when it was sent.
+     * 
+     * @return The message id, or null if AdC or SCTS is missing
+     */
+    public String getMessageId()
+    {
+        String adc = ucpFields_[FIELD_ADC];
+        String scts = ucpFields_[FIELD_SCTS];
+
+        if ((adc == null) || (scts == null))
+        {
+            return null;
+        }
+        return adc + ":" + scts;
+    }
+
     public void clearXSer()
     {
         ucpFields_[FIELD_XSER] = null;
@@ -0,0 +1,176 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that limits the submit rate on one UCP connection.
+ * <p>
+ * Tokens are added at the current rate, up to the burst size. Each submit
+ * takes one token, a caller that finds the bucket empty is put to sleep until
+ * its token is due. Callers are served in the order that they arrive.
+ * <p>
+ * The SMSC NACKs submits with error 04 when the contracted rate is exceeded.
+ * When that happens the rate is halved, at most once per second, and the
+ * bucket is emptied. Every accepted submit then raises the rate a little,
+ * until it is back at the configured max.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpThrottle
+{
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** Number of accepted submits needed to go from min to max rate. */
+    private static final int RECOVERY_STEPS = 50;
+
+    private final double maxRate_;
+    private final double minRate_;
+    private final double burst_;
+
+    private double rate_;
+    private double tokens_;
+    private long lastRefill_;
+    private long lastDecrease_;
+
+    /**
+     * Creates a throttle.
+     * 
+     * @param rate Max number of submits per second
+     * @param burst Max number of submits that may be sent without pause
+     */
+    public UcpThrottle(double rate, int burst)
+    {
+        if ((rate <= 0) || (burst < 1))
+        {
+            throw new IllegalArgumentException("UCP throttle rate and burst must be positive");
+        }
+
+        maxRate_ = rate;
+        minRate_ = rate / 10;
+        burst_ = burst;
+        rate_ = rate;
+        tokens_ = burst;
+        lastRefill_ = System.nanoTime();
+        lastDecrease_ = lastRefill_ - NANOS_PER_SECOND;
+    }
+
+    /**
+     * Takes one token, blocks until it is available.
+     * 
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    public void acquire() throws InterruptedIOException
+    {
+        long delay = reserve();
+
+        if (delay > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the UCP throttle");
+            }
+        }
+    }
+
+    /**
+     * Takes one token, the bucket may go into debt.
+     * 
+     * @return Nanoseconds until the token is due, 0 if available now
+     */
+    public synchronized long reserve()
+    {
+        refill(System.nanoTime());
+        tokens_ -= 1;
+        return (tokens_ >= 0) ? 0 : (long) (-tokens_ * NANOS_PER_SECOND / rate_);
+    }
+
+    /**
+     * Called when the SMSC NACKs a submit because the rate was exceeded.
+     */
+    public synchronized void throttled()
+    {
+        long now = System.nanoTime();
+        refill(now);
+
+        if (tokens_ > 0)
+        {
+            tokens_ = 0;
+        }
+
+        // All submits in the window see the same NACK, only back off once
+        if (now - lastDecrease_ >= NANOS_PER_SECOND)
+        {
+            rate_ = Math.max(minRate_, rate_ / 2);
+            lastDecrease_ = now;
+        }
+    }
+
+    /**
+     * Called when the SMSC ACKs a submit.
+     */
+    public synchronized void accepted()
+    {
+        if (rate_ < maxRate_)
+        {
+            refill(System.nanoTime());
+            rate_ = Math.min(maxRate_, rate_ + (maxRate_ - minRate_) / RECOVERY_STEPS);
+        }
+    }
+
+    /**
+     * Returns the current rate.
+     * 
+     * @return submits per second
+     */
+    public synchronized double getRate()
+    {
+        return rate_;
+    }
+
+    private void refill(long now)
+    {
+        tokens_ = Math.min(burst_, tokens_ + (now - lastRefill_) * rate_ / NANOS_PER_SECOND);
+        lastRefill_ = now;
+    }
+}
@@ -34,35 +34,94 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.ucp;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.marre.sms.*;
 import org.marre.sms.transport.SmsTransport;
 import org.marre.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An SmsTransport that sends the SMS through an UCP SMSC
- * 
- * 
+ * <p>
+ * Operations are pipelined. Up to <b>smsj.ucp.window</b> operations can be
+ * waiting for a response from the SMSC at the same time. Responses are read
+ * by a separate thread and matched with the operation by TRN.
+ * <p>
+ * Operations sent by the SMSC, OT 52 (deliver short message) and OT 53
+ * (delivery notification), are acknowledged and passed to the
+ * UcpDeliveryListener. They are accepted on the submit connection and, if
+ * <b>smsj.ucp.receiver.port</b> is set, on connections that the SMSC opens
+ * to that port. The receiver port and its connections stay open when the
+ * submit connection is lost and reconnected, until disconnect().
+ * <p>
+ * If <b>smsj.ucp.keepalive</b> is set an OT 31 alert is sent when the
+ * connection has been idle for that long, so that firewalls and the SMSC
+ * don't drop it. A connection where the SMSC doesn't respond within
+ * <b>smsj.ucp.timeout</b> is considered dead and closed. The OT 31 result is
+ * always waited for with a timeout, one keep-alive interval if
+ * <b>smsj.ucp.timeout</b> isn't set, so that a half-open connection can't
+ * block the keep-alive thread. With
+ * <b>smsj.ucp.reconnect</b> a lost connection is reestablished in the
+ * background, before the next message needs it.
+ * <p>
+ * With <b>smsj.ucp.throttle.rate</b> submits are paced by a UcpThrottle so
+ * that the contracted rate of the bind isn't exceeded. Callers block in
+ * send() and sendAsync() until their submit may go out.
  * 
  * @author Markus Eriksson
  * @version $Id$
  */
 public class UcpTransport implements SmsTransport
 {
+    private static final Logger log_ = LoggerFactory.getLogger(UcpTransport.class);
+
+    /** Max wait for an OT 31 result when neither timeout nor keep-alive is set. */
+    private static final long DEFAULT_PING_TIMEOUT = 30000;
+
     private String ucpServerName_;
     private int ucpServerPort_;
     private String ucp60Uid_;
     private String ucp60Pwd_;
     private boolean doUcp60Login_;
+    private int windowSize_;
+    private int receiverPort_;
+    private long keepAliveInterval_;
+    private long responseTimeout_;
+    private boolean autoReconnect_;
+    private UcpThrottle throttle_;
 
-    private Socket ucpSocket_;
-    private DataOutputStream ucpOs_;
-    private DataInputStream ucpIs_;
+    private UcpConnection connection_;
+    private UcpWindow window_;
+    private Thread receiver_;
+    private volatile boolean connected_;
+
+    private ServerSocketChannel receiverServer_;
+    private final List<UcpConnection> inboundConnections_ = new CopyOnWriteArrayList<UcpConnection>();
+    private volatile UcpDeliveryListener deliveryListener_;
+
+    private final Object connectLock_ = new Object();
+    private ScheduledExecutorService keepAlive_;
 
     public UcpTransport()
     {
@@ -76,7 +135,22 @@ public class UcpTransport implements SmsTransport
      *            UCP server <br>
      *            <b>smsj.ucp.ip.port </b>: the ip port of the UCP server <br>
      *            <b>smsj.ucp.ucp60.uid </b>: the UCP60 user id <br>
-     *            <b>smsj.ucp.ucp60.password </b>: the UCP60 password</br>
+     *            <b>smsj.ucp.ucp60.password </b>: the UCP60 password <br>
+     *            <b>smsj.ucp.window </b>: max number of operations waiting
+     *            for a response, 1-100. Default 1. <br>
+     *            <b>smsj.ucp.receiver.port </b>: local port where the SMSC
+     *            can connect to deliver OT 52 and OT 53. Optional. <br>
+     *            <b>smsj.ucp.keepalive </b>: send OT 31 after this many
+     *            idle milliseconds. Default 0, no keep-alive. <br>
+     *            <b>smsj.ucp.timeout </b>: max milliseconds to wait for a
+     *            response before the connection is closed. Default 0, wait
+     *            forever, except for pings. <br>
+     *            <b>smsj.ucp.reconnect </b>: "true" to reconnect in the
+     *            background when the connection is lost. Default false.<br>
+     *            <b>smsj.ucp.throttle.rate </b>: max number of submits per
+     *            second. Default 0, no limit. <br>
+     *            <b>smsj.ucp.throttle.burst </b>: max number of submits
+     *            sent without pause. Default 1. <br>
      * 
      * @throws SmsException
      */
@@ -90,6 +164,18 @@ public class UcpTransport implements SmsTransport
         ucpServerPort_ = Integer.parseInt(props.getProperty("smsj.ucp.ip.port"));
         ucp60Uid_ = props.getProperty("smsj.ucp.ucp60.uid");
         ucp60Pwd_ = props.getProperty("smsj.ucp.ucp60.password");
+        windowSize_ = Integer.parseInt(props.getProperty("smsj.ucp.window", "1"));
+        receiverPort_ = Integer.parseInt(props.getProperty("smsj.ucp.receiver.port", "-1"));
+        keepAliveInterval_ = Long.parseLong(props.getProperty("smsj.ucp.keepalive", "0"));
+        responseTimeout_ = Long.parseLong(props.getProperty("smsj.ucp.timeout", "0"));
+        autoReconnect_ = Boolean.parseBoolean(props.getProperty("smsj.ucp.reconnect", "false"));
+
+        double throttleRate = Double.parseDouble(props.getProperty("smsj.ucp.throttle.rate", "0"));
+        if (throttleRate > 0)
+        {
+            int throttleBurst = Integer.parseInt(props.getProperty("smsj.ucp.throttle.burst", "1"));
+            throttle_ = new UcpThrottle(throttleRate, throttleBurst);
+        }
 
         if (ucp60Uid_ == null || ucp60Pwd_ == null)
         {
@@ -103,44 +189,274 @@ public class UcpTransport implements SmsTransport
         {
             doUcp60Login_ = true;
         }
+
+        if ((windowSize_ < 1) || (windowSize_ > UcpWindow.MAX_TRN))
+        {
+            throw new SmsException("UCP Transport: smsj.ucp.window must be between 1 and " + UcpWindow.MAX_TRN);
+        }
     }
 
     public void connect() throws SmsException, IOException
+    {
+        synchronized (connectLock_)
+        {
+            try
+            {
+                open();
+            }
+            catch (SmsException ex)
+            {
+                close();
+                closeReceiverServer();
+                throw ex;
+            }
+            catch (IOException ex)
+            {
+                close();
+                closeReceiverServer();
+                throw ex;
+            }
+        }
+        startKeepAlive();
+    }
+
+    /**
+     * Reconnects if the connection has been lost.
+     * 
+     * @throws SmsException If the login failed
+     * @throws IOException If the SMSC cannot be reached
+     */
+    public void reconnect() throws SmsException, IOException
+    {
+        synchronized (connectLock_)
+        {
+            if (!isConnected())
+            {
+                close();
+                open();
+            }
+        }
+        startKeepAlive();
+    }
+
+    private void open() throws SmsException, IOException
     {
         // Connect to the UCP server
-        ucpSocket_ = new Socket(ucpServerName_, ucpServerPort_);
-        ucpOs_ = new DataOutputStream(ucpSocket_.getOutputStream());
-        ucpIs_ = new DataInputStream(ucpSocket_.getInputStream());
+        UcpConnection connection = new UcpConnection(
+                SocketChannel.open(new InetSocketAddress(ucpServerName_, ucpServerPort_)));
+
+        // Start reading responses
+        UcpWindow window = new UcpWindow(windowSize_);
+        Thread receiver = startThread(new Receiver(connection, window), "smsj-ucp-" + connection);
+
+        synchronized (this)
+        {
+            connection_ = connection;
+            window_ = window;
+            receiver_ = receiver;
+        }
+
+        // Dedicated port for operations from the SMSC, kept over reconnects
+        if ((receiverPort_ >= 0) && (receiverServer_ == null))
+        {
+            receiverServer_ = ServerSocketChannel.open();
+            receiverServer_.socket().bind(new InetSocketAddress(receiverPort_));
+            startThread(new Acceptor(receiverServer_), "smsj-ucp-receiver-" + receiverPort_);
+        }
         
         //Logging into the Remote Host via UCP 60;
-        //TODO: Add proper failure handling
         if (doUcp60Login_)
         {
-            byte[] loginCmd = buildLogin(ucp60Uid_, ucp60Pwd_);
-            String response = sendUcp(loginCmd);
-            System.err.println("SMSC response: " + response);
+            UcpResponse response = sendUcp(createLogin(ucp60Uid_, ucp60Pwd_));
+            log_.debug("UCP60 login response: {}", response);
+
+            if (!response.isAck())
+            {
+                close();
+                throw new SmsException("UCP60 login failed, error " + response.getErrorCode() + ": "
+                        + response.getSystemMessage());
+            }
         }
+
+        connected_ = true;
+    }
+
+    /**
+     * Returns true if the transport is connected, logged in and the
+     * connection is still alive.
+     * 
+     * @return true if operations can be sent
+     */
+    public boolean isConnected()
+    {
+        UcpConnection connection = connection_;
+        return connected_ && (connection != null) && connection.isOpen();
+    }
+
+    /**
+     * Returns the number of operations that are waiting for a response.
+     * 
+     * @return number of outstanding operations
+     */
+    public int getOutstanding()
+    {
+        UcpWindow window = window_;
+        return (window == null) ? 0 : window.getOutstanding();
     }
 
+    /**
+     * Sends an SmsMessage and waits for the SMSC to accept it.
+     * <p>
+     * Returns the message id assigned by the SMSC, "AdC:SCTS". For a message
+     * that is sent as several pdus the ids of all parts are returned in pdu
+     * order, separated by ",".
+     * 
+     * @param msg The message to send
+     * @param destination Destination address
+     * @param sender Sender address
+     * @return The message id(s)
+     * @throws SmsException If the SMSC rejected any of the pdus
+     * @throws IOException If the connection to the SMSC failed
+     */
     public String send(SmsMessage msg, SmsAddress destination, SmsAddress sender) throws SmsException, IOException
     {
-        SmsPdu[] msgPdu = null;
+        return getMessageIds(await(sendAsync(msg, destination, sender)));
+    }
+
+    /**
+     * Builds the message id returned by send() from the results of all pdus.
+     * 
+     * @param responses The results, one per pdu
+     * @return The message ids, separated by ","
+     * @throws SmsException If any of the results is a NACK
+     */
+    public static String getMessageIds(UcpResponse[] responses) throws SmsException
+    {
+        StringBuilder ids = new StringBuilder();
+
+        for (int i = 0; i < responses.length; i++)
+        {
+            UcpResponse response = responses[i];
+            log_.debug("SMSC response: {}", response);
 
+            if (!response.isAck())
+            {
+                throw new SmsException("SMSC rejected part " + (i + 1) + " of " + responses.length + ", error "
+                        + response.getErrorCode() + ": " + response.getSystemMessage());
+            }
+
+            if (i > 0)
+            {
+                ids.append(',');
+            }
+            ids.append(response.getSystemMessage());
+        }
+
+        return ids.toString();
+    }
+
+    /**
+     * Sends an SmsMessage without waiting for the SMSC to respond.
+     * <p>
+     * Blocks only while the window is full. The returned future is done when
+     * the SMSC has responded to all pdus of the message.
+     * 
+     * @param msg The message to send
+     * @param destination Destination address
+     * @param sender Sender address
+     * @return The results from the SMSC, one per pdu
+     * @throws SmsException If the message cannot be sent over UCP
+     * @throws IOException If the connection to the SMSC failed
+     */
+    public UcpMessageFuture sendAsync(SmsMessage msg, SmsAddress destination, SmsAddress sender)
+        throws SmsException, IOException
+    {
         if (destination.isAlphanumeric())
         {
             throw new SmsException("Cannot sent SMS to ALPHANUMERIC address");
         }
 
-        msgPdu = msg.getPdus();
-        for (int i = 0; i < msgPdu.length; i++)
+        return sendAsync(createSubmits(msg, destination, sender), destination);
+    }
+
+    /**
+     * Sends already encoded submits to a destination without waiting for the
+     * SMSC to respond.
+     * <p>
+     * The submits are not modified, a copy with the AdC of the destination is
+     * sent. This way a message only has to be encoded once when it is sent to
+     * many destinations.
+     * 
+     * @param submits The submits, from createSubmits()
+     * @param destination Destination address
+     * @return The results from the SMSC, one per submit
+     * @throws SmsException If the message cannot be sent to the destination
+     * @throws IOException If the connection to the SMSC failed
+     */
+    public UcpMessageFuture sendAsync(UcpSeries50[] submits, SmsAddress destination)
+        throws SmsException, IOException
+    {
+        if (destination.isAlphanumeric())
         {
-            boolean moreToSend = (i < (msgPdu.length - 1));
-            byte[] submitCmd = buildSubmit(msgPdu[i], moreToSend, destination, sender);
-            String response = sendUcp(submitCmd);
-            System.err.println("SMSC response: " + response);
+            throw new SmsException("Cannot sent SMS to ALPHANUMERIC address");
         }
-        
-        return null;
+
+        UcpFuture[] pduFutures = new UcpFuture[submits.length];
+        for (int i = 0; i < submits.length; i++)
+        {
+            UcpSeries50 submit = new UcpSeries50(submits[i]);
+            submit.setField(UcpSeries50.FIELD_ADC, destination.getAddress());
+            pduFutures[i] = sendUcpAsync(submit);
+        }
+
+        return new UcpMessageFuture(pduFutures);
+    }
+
+    /**
+     * Sends an SmsMessage to many destinations.
+     * <p>
+     * The message is encoded once. The submits to all destinations are
+     * pipelined over the window, results are collected as they arrive.
+     * <p>
+     * If the connection fails no more submits are sent. The ids that were
+     * already collected are returned, the other destinations get null.
+     * 
+     * @see SmsTransport#sendBatch(SmsMessage, Collection, SmsAddress)
+     */
+    public String[] sendBatch(SmsMessage msg, Collection<SmsAddress> dests, SmsAddress sender)
+        throws SmsException, IOException
+    {
+        UcpSeries50[] submits = createSubmits(msg, sender);
+        UcpBatch batch = new UcpBatch(dests.size());
+
+        for (SmsAddress dest : dests)
+        {
+            try
+            {
+                batch.add(this, sendAsync(submits, dest));
+            }
+            catch (SmsException ex)
+            {
+                batch.reject(ex);
+            }
+            catch (IOException ex)
+            {
+                log_.warn("Batch stopped, the connection failed: {}", ex.getMessage());
+                break;
+            }
+        }
+
+        return batch.finish();
+    }
+
+    /**
+     * Waits for the results of a message and returns its message id.
+     * 
+     * @see #getMessageIds(UcpResponse[])
+     */
+    String awaitMessageId(UcpMessageFuture future) throws SmsException, IOException
+    {
+        return getMessageIds(await(future));
     }
 
     /**
@@ -152,10 +468,32 @@ public class UcpTransport implements SmsTransport
      * @param pwd
      */
     public byte[] buildLogin(String userid, String pwd)
+    {
+        UCPSeries60 ucplogin = createLogin(userid, pwd);
+        ucplogin.setTRN(0x01);
+        return ucplogin.getCommand();
+    }
+
+    public byte[] buildSubmit(SmsPdu pdu, boolean moreToSend, SmsAddress destination, SmsAddress sender)
+            throws SmsException
+    {
+        UcpSeries50 ucpSubmit = createSubmit(pdu, moreToSend, destination, sender);
+        ucpSubmit.setTRN(0x01);
+        return ucpSubmit.getCommand();
+    }
+
+    /**
+     * Creates an OT 60 session management operation. The TRN is assigned when
+     * it is sent.
+     * 
+     * @param userid
+     * @param pwd
+     * @return The login operation
+     */
+    protected UCPSeries60 createLogin(String userid, String pwd)
     {
         UCPSeries60 ucplogin = new UCPSeries60(UCPSeries60.OP_OPEN_SESSION);
 
-        ucplogin.setTRN(0x01);
         ucplogin.setField(UCPSeries60.FIELD_OADC, userid);
         ucplogin.setField(UCPSeries60.FIELD_OTON, "6");
         ucplogin.setField(UCPSeries60.FIELD_ONPI, "5");
@@ -163,22 +501,69 @@ public class UcpTransport implements SmsTransport
         ucplogin.setField(UCPSeries60.FIELD_VERS, "0100");
         ucplogin.setField(UCPSeries60.FIELD_PWD, StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(pwd)));
 
-        return ucplogin.getCommand();
+        return ucplogin;
     }
 
-    public byte[] buildSubmit(SmsPdu pdu, boolean moreToSend, SmsAddress destination, SmsAddress sender)
+    /**
+     * Creates the OT 51 submit operations for all pdus of a message, without
+     * AdC.
+     * 
+     * @param msg The message
+     * @param sender Sender address
+     * @return The submits, to be sent with sendAsync(UcpSeries50[], SmsAddress)
+     * @throws SmsException If the message cannot be sent over UCP
+     */
+    public UcpSeries50[] createSubmits(SmsMessage msg, SmsAddress sender) throws SmsException
+    {
+        return createSubmits(msg, null, sender);
+    }
+
+    /**
+     * Creates the OT 51 submit operations for all pdus of a message, without
+     * AdC.
+     * <p>
+     * The concat reference number of a concatenated message is allocated
+     * for the destination.
+     * 
+     * @param msg The message
+     * @param destination The destination the submits are for, or null if
+     *            they are sent to many destinations
+     * @param sender Sender address
+     * @return The submits, to be sent with sendAsync(UcpSeries50[], SmsAddress)
+     * @throws SmsException If the message cannot be sent over UCP
+     */
+    public UcpSeries50[] createSubmits(SmsMessage msg, SmsAddress destination, SmsAddress sender)
+        throws SmsException
+    {
+        SmsPdu[] msgPdu = SmsMessageUtil.getPdus(msg, destination);
+        UcpSeries50[] submits = new UcpSeries50[msgPdu.length];
+
+        for (int i = 0; i < msgPdu.length; i++)
+        {
+            boolean moreToSend = (i < (msgPdu.length - 1));
+            submits[i] = createSubmit(msgPdu[i], moreToSend, null, sender);
+        }
+
+        return submits;
+    }
+
+    /**
+     * Creates an OT 51 submit operation for the given pdu. The TRN is assigned
+     * when it is sent.
+     * 
+     * @param pdu
+     * @param moreToSend
+     * @param destination The destination, or null to leave AdC empty
+     * @param sender
+     * @return The submit operation
+     * @throws SmsException
+     */
+    protected UcpSeries50 createSubmit(SmsPdu pdu, boolean moreToSend, SmsAddress destination, SmsAddress sender)
             throws SmsException
     {
-        String ud;
-        byte[] udhData;
         UcpSeries50 ucpSubmit = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
-
         byte[] udh = pdu.getUserDataHeaders();
-        boolean isSeptets = (pdu.getDcs().getAlphabet() == SmsAlphabet.GSM);
-        int udBits;
-
-        // FIXME: TRN
-        ucpSubmit.setTRN(0x01);
+        SmsUserData ud = pdu.getUserData();
 
         // OTOA = Originator Type Of Address (1139 = OadC is set to NPI
         // telephone and TON international, 5039 The OAdC contains an
@@ -209,89 +594,128 @@ public class UcpTransport implements SmsTransport
         }
 
         // AdC = Address code recipient for the SM
-        ucpSubmit.setField(UcpSeries50.FIELD_ADC, destination.getAddress());
-        if (pdu.getUserDataHeaders() == null) // Handel Messages without UDH
+        if (destination != null)
         {
-            switch (pdu.getDcs().getAlphabet())
+            ucpSubmit.setField(UcpSeries50.FIELD_ADC, destination.getAddress());
+        }
+        switch (pdu.getDcs().getAlphabet())
+        {
+        case GSM:
+            if (udh == null)
             {
-            case GSM:
-                System.out.println("GSM Message without UDH");
                 ucpSubmit.setField(UcpSeries50.FIELD_MT, "3");
-                String msg = SmsPduUtil.readSeptets(pdu.getUserData().getData(), pdu.getUserData().getLength());
+                String msg = SmsPduUtil.readSeptets(ud.getData(), ud.getLength());
                 ucpSubmit.setField(UcpSeries50.FIELD_MSG, StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(msg)));
-                System.out.println(msg.length());
-                break;
-            case LATIN1:
-                throw new SmsException(" 8Bit Messages without UDH are not Supported");
-            case UCS2:
-                System.out.println("UCS2 Message without UDH");
-                ud = StringUtil.bytesToHexString(pdu.getUserData().getData());
-                ucpSubmit.setField(UcpSeries50.FIELD_MSG, ud);
-                //Numer of of bits in Transperent Data Message
-                udBits = pdu.getUserData().getLength() * ((isSeptets) ? 7 : 8);
-                ucpSubmit.setField(UcpSeries50.FIELD_NB, StringUtil.intToString(udBits, 4));
-                // Set message Type fix to 4
-                ucpSubmit.setField(UcpSeries50.FIELD_MT, "4");
-                ucpSubmit.clearXSer();
-                ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_DCS, pdu.getDcs().getValue());
-                break;
-            default:
-                throw new SmsException("Unsupported data coding scheme");
             }
-        }
-        else
-        {
-            switch (pdu.getDcs().getAlphabet())
-            {
-            case GSM:
-                throw new SmsException("Cannot send 7 bit encoded messages with UDH");
-            case LATIN1:
-                ud = StringUtil.bytesToHexString(pdu.getUserData().getData());
-                udhData = pdu.getUserDataHeaders();
-                // Add length of udh
-                String udhStr = StringUtil.bytesToHexString(new byte[]{(byte) (udhData.length)});
-                udhStr += StringUtil.bytesToHexString(udhData);
-
-                ucpSubmit.setField(UcpSeries50.FIELD_MSG, ud);
-                //Numer of of bits in Transperent Data Message
-                udBits = pdu.getUserData().getLength() * ((isSeptets) ? 7 : 8);
-                ucpSubmit.setField(UcpSeries50.FIELD_NB, StringUtil.intToString(udBits, 4));
-                // Set message Type fix to 4
-                ucpSubmit.setField(UcpSeries50.FIELD_MT, "4");
-                // Store the UDH
-                ucpSubmit.clearXSer();
-                ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_DCS, pdu.getDcs().getValue());
-                ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_UDH, udhData);
-                break;
-            case UCS2:
-                throw new SmsException(" UCS2 Messages are currently not Supportet ");
-            default:
-                throw new SmsException("Unsupported data coding scheme");
+            else
+            {
+                // The SMSC puts the UDH in front of TMsg, so the septets must
+                // be shifted to start at the first septet boundary after it
+                int nUdhBits = udh.length * 8;
+                int nFillBits = (nUdhBits % 7 == 0) ? 0 : 7 - (nUdhBits % 7);
+                int nUdBits = ud.getLength() * 7;
+                byte[] tmsg = new byte[(nFillBits + nUdBits + 7) / 8];
+
+                SmsPduUtil.arrayCopy(ud.getData(), 0, tmsg, 0, nFillBits, nUdBits);
+                setTransparentData(ucpSubmit, pdu, udh, tmsg, nFillBits + nUdBits);
             }
+            break;
+        case LATIN1:
+        case UCS2:
+            setTransparentData(ucpSubmit, pdu, udh, ud.getData(), ud.getLength() * 8);
+            break;
+        default:
+            throw new SmsException("Unsupported data coding scheme");
         }
-        // XSer = Extra Services
-        //        ucpSubmit.clearXSer();
-        //        ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_DCS, dcs);
-        //        if (udh != null)
-        //
-        //        // NB = Number of bits in TMsg
-        //        udBits = pdu.getUserDataLength() * ((isSeptets) ? 7 : 8);
-        //        udBits = pdu.getUserDataLength();
-        //        ucpSubmit.setField(UcpSeries50.FIELD_NB,
-        // StringUtil.intToString(udBits, 4));
-        // ucpSubmit.setField(UcpSeries50.FIELD_Msg,
-        // StringUtil.bytesToHexString(pdu.getUserData()));
-        //        / MMS = More messages to send
+
+        // MMS = More messages to send
         if (moreToSend)
         {
             ucpSubmit.setField(UcpSeries50.FIELD_MMS, "1");
         }
 
-        return ucpSubmit.getCommand();
+        return ucpSubmit;
+    }
+
+    /**
+     * Sets MT 4 (transparent data) with the UDH and DCS as XSer.
+     * 
+     * @param ucpSubmit The submit operation
+     * @param pdu The pdu to send
+     * @param udh The UDH of the pdu, or null
+     * @param tmsg The TMsg octets
+     * @param nBits Number of bits in TMsg
+     */
+    private static void setTransparentData(UcpSeries50 ucpSubmit, SmsPdu pdu, byte[] udh, byte[] tmsg, int nBits)
+    {
+        ucpSubmit.setField(UcpSeries50.FIELD_MT, "4");
+        ucpSubmit.setField(UcpSeries50.FIELD_NB, StringUtil.intToString(nBits, 4));
+        ucpSubmit.setField(UcpSeries50.FIELD_MSG, StringUtil.bytesToHexString(tmsg));
+
+        // XSer = Extra Services
+        ucpSubmit.clearXSer();
+        if (udh != null)
+        {
+            // addXSer writes the UDHL itself
+            ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_UDH, Arrays.copyOfRange(udh, 1, udh.length));
+        }
+        ucpSubmit.addXSer(UcpSeries50.XSER_TYPE_DCS, pdu.getDcs().getValue());
+    }
+
+    /**
+     * Sends an OT 31 alert and waits for the result.
+     * <p>
+     * Keeps the connection alive and verifies that the SMSC still responds.
+     * 
+     * <p>
+     * Waits at most smsj.ucp.timeout for the result or, if that isn't set,
+     * one keep-alive interval. Without either the wait is 30 seconds.
+     * 
+     * @throws SmsException If not connected
+     * @throws IOException If the SMSC didn't respond
+     */
+    public void ping() throws SmsException, IOException
+    {
+        long timeout = responseTimeout_;
+        if (timeout <= 0)
+        {
+            timeout = (keepAliveInterval_ > 0) ? keepAliveInterval_ : DEFAULT_PING_TIMEOUT;
+        }
+
+        UcpResponse response = await(sendUcpAsync(new UcpAlert(ucp60Uid_)), timeout);
+        log_.debug("SMSC alert response: {}", response);
+    }
+
+    /**
+     * Returns the submit throttle of this bind.
+     * 
+     * @return The throttle, or null if the rate isn't limited
+     */
+    public UcpThrottle getThrottle()
+    {
+        return throttle_;
+    }
+
+    /**
+     * Sets the listener for operations sent by the SMSC.
+     * <p>
+     * If no listener is set OT 52 and OT 53 are NACKed.
+     * 
+     * @param listener The listener, or null
+     */
+    public void setDeliveryListener(UcpDeliveryListener listener)
+    {
+        deliveryListener_ = listener;
     }
 
-    public void ping()
+    /**
+     * Returns the local port where the SMSC can connect to deliver operations.
+     * 
+     * @return The port, or -1 if not listening
+     */
+    public int getReceiverPort()
     {
+        return (receiverServer_ == null) ? -1 : receiverServer_.socket().getLocalPort();
     }
 
     /**
@@ -303,49 +727,481 @@ public class UcpTransport implements SmsTransport
      */
     public void disconnect() throws IOException
     {
-        ucpOs_.close();
-        ucpIs_.close();
-        ucpSocket_.close();
+        stopKeepAlive();
+
+        synchronized (connectLock_)
+        {
+            close();
+            closeReceiverServer();
+        }
+    }
+
+    /**
+     * Closes the submit connection, as if it had been lost. The receiver port
+     * stays open and the connection can be restored with reconnect().
+     * 
+     * @throws IOException If the connection couldn't be closed
+     */
+    void closeConnection() throws IOException
+    {
+        synchronized (connectLock_)
+        {
+            close();
+        }
+    }
+
+    /**
+     * Closes the submit connection and stops its receiver thread.
+     */
+    private void close() throws IOException
+    {
+        UcpConnection connection;
+        Thread receiver;
+
+        synchronized (this)
+        {
+            connected_ = false;
+            connection = connection_;
+            receiver = receiver_;
+        }
+
+        if (connection != null)
+        {
+            connection.close();
+        }
+
+        if ((receiver != null) && (receiver != Thread.currentThread()))
+        {
+            try
+            {
+                receiver.join();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections from the SMSC and closes the ones that are
+     * open.
+     */
+    private void closeReceiverServer() throws IOException
+    {
+        if (receiverServer_ != null)
+        {
+            receiverServer_.close();
+            receiverServer_ = null;
+        }
+        for (UcpConnection inbound : inboundConnections_)
+        {
+            inbound.close();
+        }
+        inboundConnections_.clear();
     }
 
     /**
      * This method is sending the Data to over the existing Connection and
-     * recives the answer, the Answer is returned as a String.
+     * recives the answer, the Answer is returned as a UcpResponse.
      * 
      * @author Lorenz Barth
-     * @param data
+     * @param msg
      * @throws SmsException
      * @throws IOException 
      */
-    public String sendUcp(byte[] data) throws SmsException, IOException
+    public UcpResponse sendUcp(UcpMsg msg) throws SmsException, IOException
+    {
+        return await(sendUcpAsync(msg));
+    }
+
+    /**
+     * Sends the operation over the existing connection without waiting for the
+     * answer.
+     * <p>
+     * A TRN is assigned to the operation. Blocks while the window is full.
+     * 
+     * @param msg The operation to send
+     * @return A future that is completed when the SMSC responds
+     * @throws SmsException
+     * @throws IOException
+     */
+    public UcpFuture sendUcpAsync(UcpMsg msg) throws SmsException, IOException
     {
-        if (!ucpSocket_.isConnected() || ucpOs_ == null || ucpIs_ == null)
+        UcpConnection connection;
+        UcpWindow window;
+
+        synchronized (this)
+        {
+            connection = connection_;
+            window = window_;
+        }
+
+        if ((connection == null) || !connection.isOpen())
         {
             throw new SmsException("Please Connect first");
         }
 
-        System.out.println("SMSC send: " + new String(data, 0, data.length));
-        StringBuffer strBuf;
+        if ((throttle_ != null) && (msg.getOT() == UcpSeries50.OP_SUBMIT_SHORT_MESSAGE))
+        {
+            throttle_.acquire();
+        }
+
+        UcpFuture future = window.open(msg);
+
+        try
+        {
+            connection.write(msg);
+        }
+        catch (IOException ex)
+        {
+            window.fail(msg.getTRN(), ex);
+            throw ex;
+        }
 
-        ucpOs_.write(data);
-        ucpOs_.flush();
+        return future;
+    }
 
-        byte[] b = new byte[1];
+    /**
+     * Waits for a pending response.
+     * <p>
+     * If the SMSC doesn't respond within the timeout the connection is
+     * considered dead and closed.
+     */
+    private <T> T await(Future<T> future) throws SmsException, IOException
+    {
+        return await(future, responseTimeout_);
+    }
 
-        if ((b[0] = ucpIs_.readByte()) != 2)
+    /**
+     * Waits for a pending response, at most timeout ms if timeout is above 0.
+     */
+    private <T> T await(Future<T> future, long timeout) throws SmsException, IOException
+    {
+        try
         {
-            System.out.println("SendSMS.send: The SMSC sends a bad reply");
-            throw new SmsException("The SMSC sends a bad reply");
+            if (timeout > 0)
+            {
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            return future.get();
+        }
+        catch (TimeoutException ex)
+        {
+            UcpConnection connection = connection_;
+            if (connection != null)
+            {
+                connection.close();
+            }
+            throw new SocketTimeoutException("No response from the SMSC within " + timeout + " ms");
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the SMSC");
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+            {
+                throw (IOException) ex.getCause();
+            }
+            throw new SmsException(ex.getCause());
+        }
+    }
+
+    private synchronized void startKeepAlive()
+    {
+        if (((keepAliveInterval_ <= 0) && !autoReconnect_) || (keepAlive_ != null))
+        {
+            return;
         }
 
-        strBuf = new StringBuffer();
+        long period = (keepAliveInterval_ > 0) ? Math.max(keepAliveInterval_ / 4, 100) : 1000;
 
-        while ((b[0] = ucpIs_.readByte()) != 3)
+        keepAlive_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
         {
-            strBuf.append(new String(b));
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "smsj-ucp-keepalive-" + ucpServerName_ + ":" + ucpServerPort_);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        keepAlive_.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                keepAlive();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopKeepAlive()
+    {
+        if (keepAlive_ != null)
+        {
+            keepAlive_.shutdownNow();
+            keepAlive_ = null;
         }
+    }
 
-        // Return the String
-        return strBuf.toString();
+    /**
+     * Called periodically. Pings idle connections and reconnects lost ones.
+     */
+    private void keepAlive()
+    {
+        try
+        {
+            UcpConnection connection = connection_;
+
+            if (!isConnected())
+            {
+                if (autoReconnect_)
+                {
+                    reconnect();
+                }
+            }
+            else if ((keepAliveInterval_ > 0) && (connection.getIdleTime() >= keepAliveInterval_))
+            {
+                ping();
+            }
+        }
+        catch (Exception ex)
+        {
+            log_.warn("UCP keep-alive failed: {}", ex.toString());
+        }
+    }
+
+    private static Thread startThread(Runnable runnable, String name)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Handles an operation sent by the SMSC and writes the result.
+     */
+    private void handleOperation(UcpConnection connection, String frame) throws IOException
+    {
+        UcpSeries50 operation = new UcpSeries50(UcpSeries50.OP_DELIVER_SHORT_MESSAGE);
+        UcpResponse result;
+
+        try
+        {
+            operation.parse(frame);
+        }
+        catch (IOException ex)
+        {
+            log_.warn("Malformed operation from SMSC: {}", frame);
+            try
+            {
+                UcpResponse header = new UcpResponse();
+                header.setTRN(UcpFrameCodec.getTrn(frame));
+                header.setOT((byte) Integer.parseInt(frame.substring(11, 13)));
+                connection.write(UcpResponse.nack(header, UcpResponse.EC_SYNTAX_ERROR, null));
+            }
+            catch (RuntimeException ex2)
+            {
+                // Can't even tell what operation it was, nothing to respond to
+            }
+            return;
+        }
+
+        UcpDeliveryListener listener = deliveryListener_;
+
+        if ((operation.getOT() != UcpSeries50.OP_DELIVER_SHORT_MESSAGE)
+            && (operation.getOT() != UcpSeries50.OP_DELIVER_NOTIFICATION))
+        {
+            result = UcpResponse.nack(operation, UcpResponse.EC_OPERATION_NOT_SUPPORTED, null);
+        }
+        else if (listener == null)
+        {
+            result = UcpResponse.nack(operation, UcpResponse.EC_OPERATION_NOT_ALLOWED, null);
+        }
+        else
+        {
+            try
+            {
+                if (operation.getOT() == UcpSeries50.OP_DELIVER_SHORT_MESSAGE)
+                {
+                    listener.deliverShortMessage(operation);
+                }
+                else
+                {
+                    listener.deliveryNotification(operation);
+                }
+                result = UcpResponse.ack(operation, operation.getMessageId());
+            }
+            catch (RuntimeException ex)
+            {
+                log_.error("UcpDeliveryListener failed", ex);
+                result = UcpResponse.nack(operation, UcpResponse.EC_OPERATION_NOT_ALLOWED, null);
+            }
+        }
+
+        connection.write(result);
+    }
+
+    /**
+     * Reads frames from one connection. Results are handed to the window,
+     * operations from the SMSC to handleOperation.
+     */
+    private class Receiver implements Runnable
+    {
+        private final UcpConnection connection_;
+        private final UcpWindow window_;
+        private final UcpFrameCodec decoder_ = new UcpFrameCodec();
+        private ByteBuffer readBuffer_ = ByteBuffer.allocate(8192);
+
+        /**
+         * @param connection The connection to read from
+         * @param window Outstanding operations on this connection, null if
+         *            we never send operations on it
+         */
+        Receiver(UcpConnection connection, UcpWindow window)
+        {
+            connection_ = connection;
+            window_ = window;
+        }
+
+        public void run()
+        {
+            SocketChannel channel = connection_.getChannel();
+
+            try
+            {
+                while (true)
+                {
+                    if (channel.read(readBuffer_) < 0)
+                    {
+                        throw new EOFException("Connection closed by the SMSC");
+                    }
+                    connection_.touch();
+
+                    readBuffer_.flip();
+
+                    String frame;
+                    while ((frame = decoder_.decode(readBuffer_)) != null)
+                    {
+                        log_.debug("SMSC receive: {}", frame);
+
+                        if ((frame.length() > 9) && (frame.charAt(9) == 'O'))
+                        {
+                            handleOperation(connection_, frame);
+                        }
+                        else
+                        {
+                            handleResponse(frame);
+                        }
+                    }
+
+                    readBuffer_.compact();
+                    if (!readBuffer_.hasRemaining())
+                    {
+                        // Frame doesn't fit, the codec limits how far this can go
+                        ByteBuffer larger = ByteBuffer.allocate(readBuffer_.capacity() * 2);
+                        readBuffer_.flip();
+                        larger.put(readBuffer_);
+                        readBuffer_ = larger;
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                closeConnection(ex);
+            }
+            catch (RuntimeException ex)
+            {
+                closeConnection(new IOException("Failed to handle frame from the SMSC", ex));
+            }
+        }
+
+        private void handleResponse(String frame) throws IOException
+        {
+            UcpResponse response;
+
+            try
+            {
+                response = UcpResponse.parseResponse(frame);
+            }
+            catch (IOException ex)
+            {
+                // Only this operation is lost, the connection is still usable
+                log_.warn("Malformed response from SMSC: {}", frame);
+                if (window_ != null)
+                {
+                    window_.fail(UcpFrameCodec.getTrn(frame), ex);
+                }
+                return;
+            }
+
+            if ((window_ == null) || !window_.complete(response))
+            {
+                log_.warn("SMSC response with unknown TRN: {}", frame);
+            }
+            else if ((throttle_ != null) && (response.getOT() == UcpSeries50.OP_SUBMIT_SHORT_MESSAGE))
+            {
+                if (response.isAck())
+                {
+                    throttle_.accepted();
+                }
+                else if (UcpResponse.EC_OPERATION_NOT_ALLOWED.equals(response.getErrorCode()))
+                {
+                    throttle_.throttled();
+                }
+            }
+        }
+
+        private void closeConnection(IOException failure)
+        {
+            inboundConnections_.remove(connection_);
+            try
+            {
+                connection_.close();
+            }
+            catch (IOException ex)
+            {
+                // Already lost
+            }
+
+            // Closed first, no new operation can be written after this
+            if (window_ != null)
+            {
+                window_.failAll(failure);
+            }
+        }
+    }
+
+    /**
+     * Accepts connections from the SMSC on the receiver port.
+     */
+    private class Acceptor implements Runnable
+    {
+        private final ServerSocketChannel server_;
+
+        Acceptor(ServerSocketChannel server)
+        {
+            server_ = server;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    UcpConnection inbound = new UcpConnection(server_.accept());
+                    inboundConnections_.add(inbound);
+                    startThread(new Receiver(inbound, null), "smsj-ucp-inbound-" + inbound);
+                }
+            }
+            catch (IOException ex)
+            {
+                // Closed by disconnect()
+            }
+        }
     }
 }
@@ -0,0 +1,212 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps track of the outstanding operations on one UCP connection.
+ * <p>
+ * UCP identifies an operation by its transaction reference number (TRN),
+ * 00 to 99. The window hands out TRNs in rotating order, limits the number
+ * of operations that may wait for a response at the same time and matches
+ * incoming responses with the operation that they belong to.
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpWindow
+{
+    /** Number of available TRNs (00-99). */
+    public static final int MAX_TRN = 100;
+
+    private final int size_;
+    private final Semaphore permits_;
+    private final UcpFuture[] pending_ = new UcpFuture[MAX_TRN];
+    private int nextTrn_;
+    private int outstanding_;
+
+    /**
+     * Creates a window.
+     * 
+     * @param size Max number of outstanding operations, 1 to 100.
+     */
+    public UcpWindow(int size)
+    {
+        if ((size < 1) || (size > MAX_TRN))
+        {
+            throw new IllegalArgumentException("UCP window size must be between 1 and " + MAX_TRN);
+        }
+
+        size_ = size;
+        permits_ = new Semaphore(size, true);
+    }
+
+    /**
+     * Returns the max number of outstanding operations.
+     * 
+     * @return window size
+     */
+    public int getSize()
+    {
+        return size_;
+    }
+
+    /**
+     * Returns the number of operations that are waiting for a response.
+     * 
+     * @return number of outstanding operations
+     */
+    public synchronized int getOutstanding()
+    {
+        return outstanding_;
+    }
+
+    /**
+     * Reserves a TRN for the given operation.
+     * <p>
+     * Blocks until there is room in the window.
+     * 
+     * @param msg The operation, its TRN will be set
+     * @return A future that will be completed when the response arrives
+     * @throws InterruptedIOException If interrupted while waiting for room in the window
+     */
+    public UcpFuture open(UcpMsg msg) throws InterruptedIOException
+    {
+        try
+        {
+            permits_.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the UCP window");
+        }
+
+        UcpFuture future = new UcpFuture();
+
+        synchronized (this)
+        {
+            // There is at least one free slot since size_ <= MAX_TRN
+            while (pending_[nextTrn_] != null)
+            {
+                nextTrn_ = (nextTrn_ + 1) % MAX_TRN;
+            }
+
+            msg.setTRN(nextTrn_);
+            pending_[nextTrn_] = future;
+            nextTrn_ = (nextTrn_ + 1) % MAX_TRN;
+            outstanding_++;
+        }
+
+        return future;
+    }
+
+    /**
+     * Completes the operation with the given TRN.
+     * 
+     * @param response The response
+     * @return false if no operation was waiting for the TRN of the response
+     */
+    public boolean complete(UcpResponse response)
+    {
+        UcpFuture future = remove(response.getTRN());
+        if (future == null)
+        {
+            return false;
+        }
+
+        future.complete(response);
+        return true;
+    }
+
+    /**
+     * Fails the operation with the given TRN.
+     * <p>
+     * Used when the operation never made it to the SMSC.
+     * 
+     * @param trn TRN of the operation
+     * @param failure The reason
+     */
+    public void fail(int trn, Throwable failure)
+    {
+        UcpFuture future = remove(trn);
+        if (future != null)
+        {
+            future.fail(failure);
+        }
+    }
+
+    /**
+     * Fails all outstanding operations.
+     * <p>
+     * Used when the connection is lost, no more responses will arrive.
+     * 
+     * @param failure The reason
+     */
+    public void failAll(IOException failure)
+    {
+        for (int trn = 0; trn < MAX_TRN; trn++)
+        {
+            fail(trn, failure);
+        }
+    }
+
+    private UcpFuture remove(int trn)
+    {
+        UcpFuture future;
+
+        if ((trn < 0) || (trn >= MAX_TRN))
+        {
+            return null;
+        }
+
+        synchronized (this)
+        {
+            future = pending_[trn];
+            if (future == null)
+            {
+                return null;
+            }
+            pending_[trn] = null;
+            outstanding_--;
+        }
+
+        permits_.release();
+        return future;
+    }
+}
@@ -163,6 +163,31 @@ public final class StringUtil
         return strBuf.toString();
     }
 
+    /**
+     * Joins the strings with the given separator.
+     * 
+     * @param parts
+     *            Strings to join, null is written as "null"
+     * @param separator
+     *            Put between the parts
+     * @return The joined string
+     */
+    public static String join(String[] parts, String separator)
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(separator);
+            }
+            sb.append(parts[i]);
+        }
+
+        return sb.toString();
+    }
+
     /**
      * Generates a random string of the given length.
      * 
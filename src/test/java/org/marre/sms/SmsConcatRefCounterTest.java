@@ -0,0 +1,119 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsConcatRefCounterTest extends TestCase
+{
+    public void testUniquePerDestination() throws SmsException
+    {
+        SmsConcatRefCounter counter = new SmsConcatRefCounter();
+        Set<Integer> refs = new HashSet<Integer>();
+
+        for (int i = 0; i < 256; i++)
+        {
+            int ref = counter.nextRef(new SmsAddress("46700000001"), 256);
+            assertTrue(ref >= 0 && ref < 256);
+            assertTrue("Duplicate ref " + ref, refs.add(ref));
+
+            // Other destinations don't use up references
+            counter.nextRef(new SmsAddress("46700000002"), 256);
+        }
+
+        refs.clear();
+        for (int i = 0; i < 1000; i++)
+        {
+            int ref = counter.nextRef(new SmsAddress("46700000003"), 65536);
+            assertTrue("Duplicate ref " + ref, refs.add(ref));
+        }
+    }
+
+    public void testExpiry()
+    {
+        SmsConcatRefCounter counter = new SmsConcatRefCounter(1000, 1);
+        long now = System.nanoTime();
+
+        counter.nextRef("46700000001", 256, now);
+        counter.nextRef("46700000002", 256, now);
+        assertEquals(2, counter.size());
+
+        // Nothing has expired yet
+        counter.nextRef("46700000001", 256, now + TimeUnit.MILLISECONDS.toNanos(800));
+        assertEquals(2, counter.size());
+
+        // The second destination hasn't been used for 1500 ms
+        counter.nextRef("46700000003", 256, now + TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(2, counter.size());
+    }
+
+    public void testConcat16Bit() throws SmsException
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            text.append('a');
+        }
+
+        SmsTextMessage msg = new SmsTextMessage(text.toString());
+        msg.setConcatMode(SmsConcatMode.CONCAT_16BIT);
+        SmsPdu[] pdus = msg.getPdus(new SmsAddress("46700000001"));
+
+        // UDH length octet and 6 octet concat element leave 133 octets
+        assertEquals(2, pdus.length);
+        assertEquals(152, pdus[0].getUserData().getLength());
+        assertEquals(48, pdus[1].getUserData().getLength());
+
+        byte[] udh1 = pdus[0].getUserDataHeaders();
+        byte[] udh2 = pdus[1].getUserDataHeaders();
+        assertEquals(7, udh1.length);
+        assertEquals(0x08, udh1[1]);
+        assertEquals(4, udh1[2]);
+        assertEquals(udh1[3], udh2[3]);
+        assertEquals(udh1[4], udh2[4]);
+        assertEquals(2, udh1[5]);
+        assertEquals(1, udh1[6]);
+        assertEquals(2, udh2[6]);
+    }
+}
@@ -0,0 +1,152 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsEncodedMessageTest extends TestCase
+{
+    private static String text(int length)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            text.append('a');
+        }
+        return text.toString();
+    }
+
+    public void testEncodedOnce() throws SmsException
+    {
+        SmsTextMessage textMsg = new SmsTextMessage(text(300));
+        SmsEncodedMessage msg = new SmsEncodedMessage(textMsg);
+
+        SmsPdu[] pdus1 = msg.getPdus();
+        SmsPdu[] pdus2 = msg.getPdus(new SmsAddress("46700000001"));
+
+        assertEquals(2, pdus1.length);
+        assertSame(pdus1[0].getUserData(), pdus2[0].getUserData());
+        assertSame(pdus1[1].getUserData(), pdus2[1].getUserData());
+        assertSame(msg.getUserData(), msg.getUserData());
+        assertEquals(300, msg.getUserData().getLength());
+        assertNull(msg.getUdhElements());
+
+        // Same reference number in both pdus
+        assertEquals(pdus1[0].getUserDataHeaders()[3], pdus1[1].getUserDataHeaders()[3]);
+        assertEquals(2, pdus1[0].getUserDataHeaders()[4]);
+        assertEquals(2, pdus1[1].getUserDataHeaders()[5]);
+    }
+
+    public void testSinglePduReused() throws SmsException
+    {
+        SmsEncodedMessage msg = new SmsEncodedMessage(
+                new SmsPortAddressedTextMessage(SmsPort.WAP_PUSH, SmsPort.ZERO, "Hello"));
+        SmsPdu[] pdus1 = msg.getPdus();
+        SmsPdu[] pdus2 = msg.getPdus(new SmsAddress("46700000001"));
+
+        assertEquals(1, pdus1.length);
+        assertSame(pdus1[0], pdus2[0]);
+        assertSame(pdus1[0].getUserDataHeaders(), pdus2[0].getUserDataHeaders());
+        assertSame(pdus1[0].getUserData().getData(), pdus2[0].getUserData().getData());
+        assertEquals(SmsUdhIei.APP_PORT_16BIT.getValue(), pdus1[0].getUserDataHeaders()[1]);
+    }
+
+    public void testConcatPdusReused() throws SmsException
+    {
+        SmsPortAddressedTextMessage textMsg = new SmsPortAddressedTextMessage(SmsPort.WAP_PUSH, SmsPort.ZERO, text(300));
+        SmsEncodedMessage msg = new SmsEncodedMessage(textMsg);
+        SmsPdu[] pdus1 = msg.getPdus();
+        SmsPdu[] pdus2 = msg.getPdus();
+        SmsPdu[] expected = textMsg.getPdus();
+
+        assertEquals(expected.length, pdus1.length);
+        for (int i = 0; i < pdus1.length; i++)
+        {
+            assertSame(pdus1[i].getUserData().getData(), pdus2[i].getUserData().getData());
+            assertSame(pdus1[i].getUserDataHeaders(), pdus1[i].getUserDataHeaders());
+
+            // Same UDH as the original message, except for the reference
+            byte[] udh = pdus1[i].getUserDataHeaders();
+            byte[] expectedUdh = expected[i].getUserDataHeaders();
+            udh[3] = expectedUdh[3];
+            assertTrue(Arrays.equals(expectedUdh, udh));
+            assertTrue(Arrays.equals(expected[i].getUserData().getData(), pdus1[i].getUserData().getData()));
+        }
+    }
+
+    public void testNoReferenceWhenEncoded()
+    {
+        final int[] nRefs = new int[1];
+        SmsTextMessage textMsg = new SmsTextMessage(text(300));
+        textMsg.setConcatRefAllocator(new SmsConcatRefAllocator()
+        {
+            public int nextRef(SmsAddress destination, int refCount)
+            {
+                return nRefs[0]++;
+            }
+        });
+
+        SmsEncodedMessage msg = new SmsEncodedMessage(textMsg);
+        assertEquals(0, nRefs[0]);
+
+        byte[] udh = msg.getPdus()[0].getUserDataHeaders();
+        assertEquals(1, nRefs[0]);
+        assertEquals(0, udh[3]);
+    }
+
+    public void testReferencePerSend() throws SmsException
+    {
+        SmsTextMessage textMsg = new SmsTextMessage(text(300));
+        textMsg.setConcatMode(SmsConcatMode.CONCAT_16BIT);
+        SmsEncodedMessage msg = new SmsEncodedMessage(textMsg);
+        SmsAddress destination = new SmsAddress("46700000001");
+
+        byte[] udh1 = msg.getPdus(destination)[0].getUserDataHeaders();
+        byte[] udh2 = msg.getPdus(destination)[0].getUserDataHeaders();
+
+        assertEquals(SmsConcatMode.CONCAT_16BIT, msg.getConcatMode());
+        assertEquals(SmsUdhIei.CONCATENATED_16BIT.getValue(), udh1[1]);
+        int ref1 = ((udh1[3] & 0xff) << 8) | (udh1[4] & 0xff);
+        int ref2 = ((udh2[3] & 0xff) << 8) | (udh2[4] & 0xff);
+        assertEquals((ref1 + 1) & 0xffff, ref2);
+    }
+}
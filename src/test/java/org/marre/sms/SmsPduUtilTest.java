@@ -128,6 +128,66 @@ public class SmsPduUtilTest extends TestCase
         dstData = new byte[srcData.length];
         SmsPduUtil.arrayCopy(srcData, 0, dstData, 0, 8, 8);
         assertEquals("00FF", StringUtil.bytesToHexString(dstData));                
-    }    
-    
+
+        // Rest bits spilling over into the next byte
+        dstData = new byte[2];
+        SmsPduUtil.arrayCopy(srcData, 0, dstData, 0, 2, 7);
+        assertEquals("FC01", StringUtil.bytesToHexString(dstData));
+    }
+
+    public void testToGsmCharset()
+    {
+        assertEquals(0x00, SmsPduUtil.toGsmCharset('@'));
+        assertEquals(0x41, SmsPduUtil.toGsmCharset('A'));
+        assertEquals(0x7f, SmsPduUtil.toGsmCharset((char) 224));
+        assertEquals(0x10, SmsPduUtil.toGsmCharset((char) 0x394));
+        assertEquals('?', SmsPduUtil.toGsmCharset((char) 0x20ac));
+        assertEquals('?', SmsPduUtil.toGsmCharset((char) 0x4e2d));
+
+        // All the alternatives, not only every other one
+        assertEquals(0x41, SmsPduUtil.toGsmCharset((char) 0x391));
+        assertEquals(0x42, SmsPduUtil.toGsmCharset((char) 0x392));
+        assertEquals(0x5a, SmsPduUtil.toGsmCharset((char) 0x396));
+
+        // Never the escape to the extension table
+        assertEquals(0x20, SmsPduUtil.toGsmCharset((char) 0xa0));
+    }
+
+    public void testWriteSeptetsToArray()
+    {
+        byte[] out = new byte[12];
+        out[0] = (byte) 0xff;
+
+        assertEquals(9, SmsPduUtil.writeSeptets("hellohello", out, 1));
+        assertEquals("FF" + "E8329BFD4697D9EC37" + "0000", StringUtil.bytesToHexString(out));
+        assertEquals("E8329BFD4697D9EC37", StringUtil.bytesToHexString(SmsPduUtil.getSeptets("hellohello")));
+        assertEquals("hellohello", SmsPduUtil.readSeptets(SmsPduUtil.getSeptets("hellohello"), 10));
+        assertEquals(0, SmsPduUtil.getSeptets("").length);
+        assertEquals(140, SmsPduUtil.getSeptetsLength(160));
+    }
+
+    public void testExtensionTable()
+    {
+        String text = "10€ [a|b]";
+
+        assertEquals(13, SmsPduUtil.getSeptetCount(text));
+        assertEquals("3130" + "1B65" + "20" + "1B3C" + "61" + "1B40" + "62" + "1B3E",
+                StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(text)));
+        assertEquals(text, SmsPduUtil.readSeptets(SmsPduUtil.getSeptets(text), 13));
+        assertEquals('?', SmsPduUtil.toGsmCharset('€'));
+
+        // Unknown extension chars are read from the default table
+        byte[] unknown = new byte[] { SmsPduUtil.EXT_TABLE_PREFIX, 0x41 };
+        assertEquals("A", SmsPduUtil.readSeptets(SmsPduUtil.packSeptets(unknown, 0, 2), 2));
+    }
+
+    public void testUnpackSeptets()
+    {
+        String text = "Hello [world], 1234567890";
+        byte[] septets = SmsPduUtil.unpackSeptets(SmsPduUtil.getSeptets(text), SmsPduUtil.getSeptetCount(text));
+
+        assertEquals(StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(text)), StringUtil.bytesToHexString(septets));
+        assertEquals(StringUtil.bytesToHexString(SmsPduUtil.getSeptets(text)),
+                StringUtil.bytesToHexString(SmsPduUtil.packSeptets(septets, 0, septets.length)));
+    }
 }
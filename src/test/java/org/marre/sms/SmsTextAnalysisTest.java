@@ -0,0 +1,128 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsTextAnalysisTest extends TestCase
+{
+    public void testEncodings()
+    {
+        SmsTextAnalysis analysis = SmsTextAnalysis.analyze("Hello");
+        assertEquals(SmsTextEncoding.GSM, analysis.getEncoding());
+        assertEquals(5, analysis.getLength());
+        assertEquals(1, analysis.getSegmentCount());
+        assertEquals(0, analysis.getSegmentStart(0));
+        assertEquals(5, analysis.getSegmentEnd(0));
+
+        analysis = SmsTextAnalysis.analyze("a{b}");
+        assertEquals(SmsTextEncoding.GSM_EXTENSION, analysis.getEncoding());
+        assertEquals(6, analysis.getLength());
+
+        analysis = SmsTextAnalysis.analyze("ışık", SmsNationalLanguage.values());
+        assertEquals(SmsTextEncoding.GSM_NATIONAL_LANGUAGE, analysis.getEncoding());
+        assertEquals(SmsNationalLanguage.TURKISH, analysis.getLockingShift());
+        assertEquals(4, analysis.getLength());
+
+        analysis = SmsTextAnalysis.analyze("ışık");
+        assertEquals(SmsTextEncoding.UCS2, analysis.getEncoding());
+        assertEquals(SmsAlphabet.UCS2, analysis.getAlphabet());
+        assertEquals(8, analysis.getLength());
+    }
+
+    public void testSegmentsMatchPdus()
+    {
+        assertSegmentsMatchPdus(repeat("a", 160));
+        assertSegmentsMatchPdus(repeat("a", 161));
+        assertSegmentsMatchPdus(repeat("a", 152) + repeat("€", 100));
+        assertSegmentsMatchPdus(repeat("Ж", 70));
+        assertSegmentsMatchPdus(repeat("Ж", 200));
+        assertSegmentsMatchPdus(repeat("ı", 155));
+        assertSegmentsMatchPdus(repeat("ı{", 200));
+        assertSegmentsMatchPdus(repeat("ó", 400));
+    }
+
+    public void testAutomaticAlphabet()
+    {
+        SmsTextMessage msg = new SmsTextMessage("Hello", new SmsNationalLanguage[0]);
+        assertEquals(SmsAlphabet.GSM, msg.getDcs().getAlphabet());
+
+        msg.setText("Привет");
+        assertEquals(SmsAlphabet.UCS2, msg.getDcs().getAlphabet());
+        assertEquals(12, msg.getUserData().getLength());
+    }
+
+    private static void assertSegmentsMatchPdus(String text)
+    {
+        SmsNationalLanguage[] languages = SmsNationalLanguage.values();
+        SmsTextAnalysis analysis = SmsTextAnalysis.analyze(text, languages);
+        SmsTextMessage msg = new SmsTextMessage(text, languages);
+        SmsPdu[] pdus = msg.getPdus();
+
+        assertEquals(pdus.length, analysis.getSegmentCount());
+        assertEquals(msg.getUserData().getLength(), analysis.getLength());
+        assertEquals(text.length(), analysis.getSegmentEnd(pdus.length - 1));
+
+        for (int i = 0; i < pdus.length; i++)
+        {
+            String segment = text.substring(analysis.getSegmentStart(i), analysis.getSegmentEnd(i));
+            int length;
+            if (analysis.getAlphabet() == SmsAlphabet.GSM)
+            {
+                length = SmsPduUtil.getSeptetCount(segment, analysis.getLockingShift(), analysis.getSingleShift());
+            }
+            else
+            {
+                length = segment.length() * 2;
+            }
+            assertEquals(length, pdus[i].getUserData().getLength());
+        }
+    }
+
+    private static String repeat(String str, int n)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+        {
+            sb.append(str);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,204 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class SmsTextMessageTest extends TestCase
+{
+    public void testExtensionCharsFitInOneSms()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 80; i++)
+        {
+            text.append('€');
+        }
+
+        SmsPdu[] pdus = new SmsTextMessage(text.toString()).getPdus();
+
+        assertEquals(1, pdus.length);
+        assertEquals(160, pdus[0].getUserData().getLength());
+    }
+
+    public void testEscapeIsNotSplit()
+    {
+        // 153 septets fit in each concatenated SMS, the escape of the euro
+        // sign would be the 153rd septet
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 152; i++)
+        {
+            text.append('a');
+        }
+        text.append('€');
+        for (int i = 0; i < 20; i++)
+        {
+            text.append('b');
+        }
+
+        SmsPdu[] pdus = new SmsTextMessage(text.toString()).getPdus();
+
+        assertEquals(2, pdus.length);
+        assertEquals(152, pdus[0].getUserData().getLength());
+        assertEquals(22, pdus[1].getUserData().getLength());
+
+        String part1 = SmsPduUtil.readSeptets(pdus[0].getUserData().getData(), 152);
+        String part2 = SmsPduUtil.readSeptets(pdus[1].getUserData().getData(), 22);
+        assertEquals(text.toString(), part1 + part2);
+    }
+
+    public void testTurkishLockingShift()
+    {
+        String text = "Şimdi ışık ve ğüzel İstanbul";
+        SmsTextMessage msg = new SmsTextMessage(text, SmsNationalLanguage.values());
+
+        assertEquals(SmsNationalLanguage.TURKISH, msg.getLockingShift());
+        assertEquals(SmsNationalLanguage.DEFAULT, msg.getSingleShift());
+
+        SmsPdu[] pdus = msg.getPdus();
+        assertEquals(1, pdus.length);
+        assertEquals(text.length(), pdus[0].getUserData().getLength());
+
+        byte[] udh = pdus[0].getUserDataHeaders();
+        assertEquals(4, udh.length);
+        assertEquals(3, udh[0]);
+        assertEquals(0x25, udh[1]);
+        assertEquals(1, udh[2]);
+        assertEquals(1, udh[3]);
+
+        String decoded = SmsPduUtil.readSeptets(pdus[0].getUserData().getData(), text.length(), 
+                SmsNationalLanguage.TURKISH, SmsNationalLanguage.DEFAULT);
+        assertEquals(text, decoded);
+    }
+
+    public void testSpanishSingleShift()
+    {
+        String text = "¿Qué pasó en León?";
+        SmsTextMessage msg = new SmsTextMessage(text, new SmsNationalLanguage[]{SmsNationalLanguage.SPANISH});
+
+        assertEquals(SmsNationalLanguage.DEFAULT, msg.getLockingShift());
+        assertEquals(SmsNationalLanguage.SPANISH, msg.getSingleShift());
+
+        SmsPdu[] pdus = msg.getPdus();
+        assertEquals(1, pdus.length);
+        assertEquals(text.length() + 2, pdus[0].getUserData().getLength());
+
+        byte[] udh = pdus[0].getUserDataHeaders();
+        assertEquals(0x24, udh[1]);
+        assertEquals(2, udh[3]);
+
+        String decoded = SmsPduUtil.readSeptets(pdus[0].getUserData().getData(), text.length() + 2, 
+                SmsNationalLanguage.DEFAULT, SmsNationalLanguage.SPANISH);
+        assertEquals(text, decoded);
+    }
+
+    public void testDefaultTablesArePreferred()
+    {
+        SmsTextMessage msg = new SmsTextMessage("Hello [world]", SmsNationalLanguage.values());
+
+        assertEquals(SmsNationalLanguage.DEFAULT, msg.getLockingShift());
+        assertEquals(SmsNationalLanguage.DEFAULT, msg.getSingleShift());
+        assertNull(msg.getUdhElements());
+
+        // Reselected when the text changes
+        msg.setText("ı");
+        assertEquals(SmsNationalLanguage.TURKISH, msg.getLockingShift());
+    }
+
+    public void testShiftUdhReducesCapacity()
+    {
+        // The 3 byte shift element and the UDH length leave 136 octets, 155
+        // septets
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 155; i++)
+        {
+            text.append('ı');
+        }
+
+        SmsTextMessage msg = new SmsTextMessage(text.toString(), SmsNationalLanguage.values());
+        assertEquals(1, msg.getPdus().length);
+
+        msg.setText(text.toString() + 'ı');
+        SmsPdu[] pdus = msg.getPdus();
+        assertEquals(2, pdus.length);
+        // Concat and shift element leave 131 octets, 149 septets
+        assertEquals(149, pdus[0].getUserData().getLength());
+        assertEquals(7, pdus[1].getUserData().getLength());
+    }
+
+    public void testSegmentsArePackedFromText()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+        {
+            text.append("ab[c]€");
+        }
+
+        SmsPdu[] pdus = new SmsTextMessage(text.toString()).getPdus();
+        StringBuilder decoded = new StringBuilder();
+        for (SmsPdu pdu : pdus)
+        {
+            SmsUserData ud = pdu.getUserData();
+            assertEquals(SmsPduUtil.getSeptetsLength(ud.getLength()), ud.getData().length);
+            decoded.append(SmsPduUtil.readSeptets(ud.getData(), ud.getLength()));
+        }
+
+        // 900 septets, 153 in each SMS
+        assertEquals(6, pdus.length);
+        assertEquals(text.toString(), decoded.toString());
+    }
+
+    public void testAlmostFullSingleSms()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 158; i++)
+        {
+            text.append('a');
+        }
+        text.append('{');
+
+        SmsPdu[] pdus = new SmsTextMessage(text.toString()).getPdus();
+
+        assertEquals(1, pdus.length);
+        assertNull(pdus[0].getUserDataHeaders());
+        assertEquals(160, pdus[0].getUserData().getLength());
+        assertEquals(140, pdus[0].getUserData().getData().length);
+        assertEquals(text.toString(), SmsPduUtil.readSeptets(pdus[0].getUserData().getData(), 160));
+    }
+}
@@ -0,0 +1,175 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellCallbackServerTest extends TestCase
+{
+    private ClickatellCallbackServer server_;
+    private final List<ClickatellStatus> statuses_ = new ArrayList<ClickatellStatus>();
+    private final List<ClickatellStatus> unmatched_ = new ArrayList<ClickatellStatus>();
+
+    protected void setUp() throws Exception
+    {
+        server_ = new ClickatellCallbackServer(new InetSocketAddress("127.0.0.1", 0), "/clickatell");
+        server_.start();
+        server_.setDefaultListener(new ClickatellStatusListener()
+        {
+            public void messageStatus(ClickatellStatus status)
+            {
+                unmatched_.add(status);
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception
+    {
+        server_.stop();
+    }
+
+    public void testParseStatus() throws Exception
+    {
+        ClickatellStatus status = ClickatellCallbackServer.parseStatus(
+                "api_id=12345&apiMsgId=996f364775e24b8432f45d77da8eca47&cliMsgId=abc123"
+                + "&timestamp=1218007814&to=279995631564&from=27833001171&status=003&charge=0.300000");
+
+        assertEquals("996f364775e24b8432f45d77da8eca47", status.getApiMsgId());
+        assertEquals("abc123", status.getCliMsgId());
+        assertEquals("279995631564", status.getTo());
+        assertEquals("27833001171", status.getFrom());
+        assertEquals(1218007814L, status.getTimestamp());
+        assertEquals(ClickatellStatus.DELIVERED_TO_GATEWAY, status.getStatus());
+        assertFalse(status.isFinal());
+
+        assertNull(ClickatellCallbackServer.parseStatus("to=279995631564&status=004"));
+    }
+
+    public void testCallbacks() throws Exception
+    {
+        server_.addListener("id1", new ClickatellStatusListener()
+        {
+            public void messageStatus(ClickatellStatus status)
+            {
+                statuses_.add(status);
+            }
+        });
+
+        assertEquals(200, get("apiMsgId=id1&status=003"));
+        assertEquals(200, post("apiMsgId=id1&status=004"));
+        // The listener is removed after the final status
+        assertEquals(200, get("apiMsgId=id1&status=004"));
+        assertEquals(200, get("apiMsgId=id2&status=008"));
+        assertEquals(400, get("status=004"));
+
+        assertEquals(2, statuses_.size());
+        assertEquals(ClickatellStatus.DELIVERED_TO_GATEWAY, statuses_.get(0).getStatus());
+        assertEquals(ClickatellStatus.RECEIVED_BY_RECIPIENT, statuses_.get(1).getStatus());
+        assertEquals(2, unmatched_.size());
+        assertEquals("id2", unmatched_.get(1).getApiMsgId());
+    }
+
+    public void testFinalStatusBeforeListener() throws Exception
+    {
+        server_.setDefaultListener(null);
+        assertEquals(200, get("apiMsgId=id3&status=003"));
+        assertEquals(200, get("apiMsgId=id3&status=004"));
+
+        // The late listener gets the final status at once and isn't kept
+        server_.addListener("id3", new ClickatellStatusListener()
+        {
+            public void messageStatus(ClickatellStatus status)
+            {
+                statuses_.add(status);
+            }
+        });
+        assertEquals(1, statuses_.size());
+        assertEquals(ClickatellStatus.RECEIVED_BY_RECIPIENT, statuses_.get(0).getStatus());
+
+        assertEquals(200, get("apiMsgId=id3&status=003"));
+        assertEquals(1, statuses_.size());
+        assertEquals(0, unmatched_.size());
+    }
+
+    public void testFinalStatusToDefaultListenerOnly() throws Exception
+    {
+        assertEquals(200, get("apiMsgId=id4&status=004"));
+        assertEquals(1, unmatched_.size());
+
+        // The default listener got it, the late listener doesn't get it again
+        server_.addListener("id4", new ClickatellStatusListener()
+        {
+            public void messageStatus(ClickatellStatus status)
+            {
+                statuses_.add(status);
+            }
+        });
+        assertEquals(0, statuses_.size());
+        assertEquals(1, unmatched_.size());
+    }
+
+    private int get(String query) throws Exception
+    {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl() + "?" + query).openConnection();
+        return conn.getResponseCode();
+    }
+
+    private int post(String body) throws Exception
+    {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl()).openConnection();
+        conn.setDoOutput(true);
+        OutputStream os = conn.getOutputStream();
+        os.write(body.getBytes("ISO-8859-1"));
+        os.close();
+        return conn.getResponseCode();
+    }
+
+    private String baseUrl()
+    {
+        return "http://127.0.0.1:" + server_.getAddress().getPort() + "/clickatell";
+    }
+}
@@ -0,0 +1,310 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marre.util.IOUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process Clickatell HTTP API for tests and benchmarks.
+ * <p>
+ * Serves auth, ping and sendmsg under http://127.0.0.1:port/http, point
+ * smsj.clickatell.url at getUrl(). Multi recipient sendmsg is answered with
+ * one "ID: xxx To: yyy" line per receiver. The behaviour of the real gateway
+ * can be simulated with:
+ * <ul>
+ * <li>setLatency - delay before each response is sent</li>
+ * <li>setErrorRate - the share of receivers that get "ERR: 114"</li>
+ * <li>expireSessions - the next request of each session gets "ERR: 003"</li>
+ * </ul>
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellSimulator
+{
+    private final HttpServer server_;
+    private final ExecutorService executor_;
+    private final Set<String> sessions_ = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Random random_ = new Random(0);
+
+    private volatile long latency_;
+    private volatile double errorRate_;
+
+    private final AtomicInteger sessionSeq_ = new AtomicInteger();
+    private final AtomicInteger messageSeq_ = new AtomicInteger();
+    private final AtomicInteger nAuth_ = new AtomicInteger();
+    private final AtomicInteger nPing_ = new AtomicInteger();
+    private final AtomicInteger nSendmsg_ = new AtomicInteger();
+    private final AtomicInteger nMessages_ = new AtomicInteger();
+
+    /**
+     * Starts the simulator on a free port on the loopback interface.
+     * 
+     * @throws IOException If no port could be bound
+     */
+    public ClickatellSimulator() throws IOException
+    {
+        server_ = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+        server_.createContext("/http/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleRequest(exchange);
+            }
+        });
+        executor_ = Executors.newCachedThreadPool();
+        server_.setExecutor(executor_);
+        server_.start();
+    }
+
+    /**
+     * Returns the base url, the value for smsj.clickatell.url.
+     * 
+     * @return ex "http://127.0.0.1:4711/http"
+     */
+    public String getUrl()
+    {
+        return "http://127.0.0.1:" + server_.getAddress().getPort() + "/http";
+    }
+
+    /**
+     * Sets the delay before each response is sent.
+     * 
+     * @param latency Delay in ms
+     */
+    public void setLatency(long latency)
+    {
+        latency_ = latency;
+    }
+
+    /**
+     * Sets the share of the receivers that are rejected.
+     * 
+     * @param errorRate 0.0 - 1.0
+     */
+    public void setErrorRate(double errorRate)
+    {
+        errorRate_ = errorRate;
+    }
+
+    /**
+     * Expires all sessions, as if they had been idle for 15 minutes.
+     */
+    public void expireSessions()
+    {
+        sessions_.clear();
+    }
+
+    public int getAuthCount()
+    {
+        return nAuth_.get();
+    }
+
+    public int getPingCount()
+    {
+        return nPing_.get();
+    }
+
+    /**
+     * Returns the number of sendmsg requests with a valid session.
+     * 
+     * @return The number of sendmsg requests
+     */
+    public int getSendmsgCount()
+    {
+        return nSendmsg_.get();
+    }
+
+    /**
+     * Returns the number of accepted messages, one per receiver.
+     * 
+     * @return The number of message ids given out
+     */
+    public int getMessageCount()
+    {
+        return nMessages_.get();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void close()
+    {
+        server_.stop(0);
+        executor_.shutdownNow();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException
+    {
+        InputStream is = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        IOUtil.copy(is, body);
+
+        String params = "POST".equalsIgnoreCase(exchange.getRequestMethod())
+            ? body.toString("ISO-8859-1") : exchange.getRequestURI().getRawQuery();
+        String path = exchange.getRequestURI().getPath();
+        String response = respond(path.substring(path.lastIndexOf('/') + 1), parseParams(params));
+
+        long latency = latency_;
+        if (latency > 0)
+        {
+            try
+            {
+                Thread.sleep(latency);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        byte[] data = response.getBytes("ISO-8859-1");
+        exchange.sendResponseHeaders(200, data.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(data);
+        os.close();
+    }
+
+    private String respond(String command, Map<String, String> params)
+    {
+        if ("auth".equals(command))
+        {
+            nAuth_.incrementAndGet();
+            if ((params.get("api_id") == null) || (params.get("user") == null) || (params.get("password") == null))
+            {
+                return "ERR: 001, Authentication failed\n";
+            }
+            String sessionId = "session" + sessionSeq_.incrementAndGet();
+            sessions_.add(sessionId);
+            return "OK: " + sessionId + "\n";
+        }
+
+        if (!sessions_.contains(String.valueOf(params.get("session_id"))))
+        {
+            return "ERR: 003, Session ID expired\n";
+        }
+
+        if ("ping".equals(command))
+        {
+            nPing_.incrementAndGet();
+            return "OK:\n";
+        }
+
+        if ("sendmsg".equals(command))
+        {
+            nSendmsg_.incrementAndGet();
+            return sendmsg(params.get("to"));
+        }
+
+        return "ERR: 002, Unknown command\n";
+    }
+
+    private String sendmsg(String to)
+    {
+        if ((to == null) || (to.length() == 0))
+        {
+            return "ERR: 101, Invalid or missing parameters\n";
+        }
+
+        String[] receivers = to.split(",");
+        StringBuilder response = new StringBuilder();
+
+        for (String receiver : receivers)
+        {
+            if (rejected())
+            {
+                response.append("ERR: 114, Cannot route message");
+            }
+            else
+            {
+                nMessages_.incrementAndGet();
+                response.append("ID: ").append(Integer.toHexString(messageSeq_.incrementAndGet()));
+            }
+
+            if (receivers.length > 1)
+            {
+                response.append(" To: ").append(receiver);
+            }
+            response.append('\n');
+        }
+
+        return response.toString();
+    }
+
+    private synchronized boolean rejected()
+    {
+        return (errorRate_ > 0) && (random_.nextDouble() < errorRate_);
+    }
+
+    private static Map<String, String> parseParams(String params) throws IOException
+    {
+        Map<String, String> values = new HashMap<String, String>();
+
+        if (params != null)
+        {
+            for (String param : params.split("&"))
+            {
+                int eq = param.indexOf('=');
+                if (eq > 0)
+                {
+                    values.put(param.substring(0, eq), URLDecoder.decode(param.substring(eq + 1), "ISO-8859-1"));
+                }
+            }
+        }
+
+        return values;
+    }
+}
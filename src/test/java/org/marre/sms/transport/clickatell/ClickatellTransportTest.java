@@ -0,0 +1,132 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.clickatell;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsTextMessage;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class ClickatellTransportTest extends TestCase
+{
+    public void testParseId() throws Exception
+    {
+        assertEquals("4a1a1fbd8a0c63b4e3e8f7d6b7c0a1b2",
+                ClickatellTransport.parseResponseLine("ID: 4a1a1fbd8a0c63b4e3e8f7d6b7c0a1b2"));
+        assertEquals("a0b1c2", ClickatellTransport.parseResponseLine("OK: a0b1c2"));
+    }
+
+    public void testParseError() throws Exception
+    {
+        try
+        {
+            ClickatellTransport.parseResponseLine("ERR: 003, Session ID expired");
+            fail("Expected ClickatellException");
+        }
+        catch (ClickatellException ex)
+        {
+            assertEquals(ClickatellException.ERROR_SESSION_ID_EXPIRED, ex.getErrId());
+            assertEquals("Clickatell error. Error 003, Session ID expired", ex.getMessage());
+        }
+    }
+
+    public void testParseGarbage() throws Exception
+    {
+        try
+        {
+            ClickatellTransport.parseResponseLine("<html>");
+            fail("Expected ClickatellException");
+        }
+        catch (ClickatellException ex)
+        {
+            assertEquals(ClickatellException.ERROR_UNKNOWN, ex.getErrId());
+        }
+    }
+
+    public void testParseRecipientLines() throws Exception
+    {
+        String[] idTo = ClickatellTransport.parseRecipientLine("ID: 9fd61bbbd6e4c1bab9dd5d5a84e96bc8 To: 27999112345");
+        assertEquals("9fd61bbbd6e4c1bab9dd5d5a84e96bc8", idTo[0]);
+        assertEquals("27999112345", idTo[1]);
+
+        idTo = ClickatellTransport.parseRecipientLine("ERR: 114, Cannot route message To: 27999112346");
+        assertNull(idTo[0]);
+        assertEquals("27999112346", idTo[1]);
+
+        idTo = ClickatellTransport.parseRecipientLine("ID: 9fd61bbbd6e4c1bab9dd5d5a84e96bc8");
+        assertEquals("9fd61bbbd6e4c1bab9dd5d5a84e96bc8", idTo[0]);
+        assertNull(idTo[1]);
+    }
+
+    public void testSendToSimulator() throws Exception
+    {
+        ClickatellSimulator gateway = new ClickatellSimulator();
+        try
+        {
+            Properties props = new Properties();
+            props.setProperty("smsj.clickatell.username", "user");
+            props.setProperty("smsj.clickatell.password", "secret");
+            props.setProperty("smsj.clickatell.apiid", "1");
+            props.setProperty("smsj.clickatell.url", gateway.getUrl());
+
+            ClickatellTransport transport = new ClickatellTransport();
+            transport.init(props);
+            transport.connect();
+
+            assertEquals("1", transport.send(new SmsTextMessage("hi"), new SmsAddress("461"), null));
+
+            gateway.expireSessions();
+            String[] ids = transport.sendBatch(new SmsTextMessage("hi"),
+                    Arrays.asList(new SmsAddress("462"), new SmsAddress("463")), null);
+            transport.disconnect();
+
+            assertEquals(Arrays.asList("2", "3"), Arrays.asList(ids));
+            assertEquals(2, gateway.getAuthCount());
+            assertEquals(2, gateway.getSendmsgCount());
+        }
+        finally
+        {
+            gateway.close();
+        }
+    }
+}
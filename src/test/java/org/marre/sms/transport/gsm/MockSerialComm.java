@@ -34,6 +34,8 @@
  * ***** END LICENSE BLOCK ***** */
 package org.marre.sms.transport.gsm;
 
+import java.io.IOException;
+
 public class MockSerialComm implements GsmComm
 {
     private final String[] responses_;
@@ -59,12 +61,16 @@ public class MockSerialComm implements GsmComm
         // Empty
     }
 
-    public String readLine()
+    public String readLine() throws IOException
     {
+        if (currentResponse_ == responses_.length)
+        {
+            throw new IOException("No more responses");
+        }
         return responses_[currentResponse_++];
     }
 
-    public String readLine(String find)
+    public String readLine(String find) throws IOException
     {
         return readLine();
     }
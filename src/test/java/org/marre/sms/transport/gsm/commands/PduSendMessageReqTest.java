@@ -52,6 +52,6 @@ public class PduSendMessageReqTest extends TestCase
         
         PduSendMessageReq req = new PduSendMessageReq(StringUtil.hexStringToBytes("41000C919333289868390000A0050003B5020140201008040281623010080402814020190C040281402010680603814020100804A2C1402010080402816A30100804028140201B0C040281402010E80603814020100804C2C140201008040281723010080402814031180C0402814020502C060381402010081493C1402010080402C56630100804028140311A0C040281402050AC06038140"));
         
-        req.send(comm);
+        assertEquals("97", req.send(comm).getMessageReference());
     }
 }
@@ -0,0 +1,322 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMessage;
+import org.marre.sms.SmsTextMessage;
+import org.marre.util.IOUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class HttpGatewayTransportTest extends TestCase
+{
+    private HttpServer server_;
+    private URL url_;
+    private final List<String> requests_ = new ArrayList<String>();
+    private int nAuth_;
+
+    protected void setUp() throws Exception
+    {
+        server_ = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server_.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                InputStream is = exchange.getRequestBody();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                IOUtil.copy(is, body);
+                String response = respond(body.toString("ISO-8859-1"));
+                if (response == null)
+                {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+
+                byte[] data = response.getBytes("ISO-8859-1");
+                exchange.sendResponseHeaders(200, data.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(data);
+                os.close();
+            }
+        });
+        server_.start();
+        url_ = new URL("http://127.0.0.1:" + server_.getAddress().getPort() + "/");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        server_.stop(0);
+    }
+
+    /**
+     * Session "s1" is expired, "s2" works. Receivers starting with 0 are
+     * rejected, requests to "999" are refused as a whole and requests to
+     * "500" fail with an HTTP error.
+     */
+    private synchronized String respond(String body)
+    {
+        requests_.add(body);
+
+        if (body.startsWith("auth"))
+        {
+            nAuth_++;
+            return "OK: s" + nAuth_ + "\n";
+        }
+        if (body.startsWith("session=s1"))
+        {
+            return "ERR: expired\n";
+        }
+        if (body.contains("to=500&"))
+        {
+            return null;
+        }
+        if (body.contains("to=999&"))
+        {
+            return "ERR: barred\n";
+        }
+
+        StringBuilder response = new StringBuilder();
+        String to = body.substring(body.indexOf("to=") + 3, body.indexOf("&msg="));
+        for (String receiver : to.split(","))
+        {
+            response.append(receiver.startsWith("0") ? "ERR" : "OK: id-" + receiver).append(' ').append(receiver);
+            response.append('\n');
+        }
+        return response.toString();
+    }
+
+    public void testSessionRefresh() throws Exception
+    {
+        TestGateway gateway = new TestGateway(1);
+        gateway.connect();
+
+        assertEquals("id-461", gateway.send(new SmsTextMessage("hi"), new SmsAddress("461"), null));
+        assertEquals(2, nAuth_);
+        assertEquals(Arrays.asList("auth", "session=s1&to=461&msg=hi", "auth", "session=s2&to=461&msg=hi"),
+                requests_);
+    }
+
+    public void testRejectedRequestKeepsCause() throws Exception
+    {
+        TestGateway gateway = new TestGateway(1);
+        gateway.connect();
+        gateway.connect();
+
+        try
+        {
+            gateway.send(new SmsTextMessage("hi"), new SmsAddress("999"), null);
+            fail("Expected SmsException");
+        }
+        catch (SmsException ex)
+        {
+            assertTrue(ex.getCause() instanceof HttpGatewayException);
+            assertEquals(5, ((HttpGatewayException) ex.getCause()).getErrId());
+        }
+    }
+
+    public void testBatchGroups() throws Exception
+    {
+        TestGateway gateway = new TestGateway(2);
+        // Skip the expired session
+        gateway.connect();
+        gateway.connect();
+        requests_.clear();
+
+        List<SmsAddress> receivers = Arrays.asList(new SmsAddress("461"), new SmsAddress("ALPHA"),
+                new SmsAddress("462"), new SmsAddress("063"), new SmsAddress("464"));
+        String[] ids = gateway.sendBatch(new SmsTextMessage("hi"), receivers, null);
+
+        assertEquals(Arrays.asList("id-461", null, "id-462", null, "id-464"), Arrays.asList(ids));
+        assertEquals(Arrays.asList("session=s2&to=461,462&msg=hi", "session=s2&to=063,464&msg=hi"), requests_);
+    }
+
+    public void testBatchGoesOnAfterFailedGroup() throws Exception
+    {
+        TestGateway gateway = new TestGateway(1);
+        gateway.connect();
+        gateway.connect();
+
+        List<SmsAddress> receivers = Arrays.asList(new SmsAddress("461"), new SmsAddress("500"),
+                new SmsAddress("462"));
+        String[] ids = gateway.sendBatch(new SmsTextMessage("hi"), receivers, null);
+
+        assertEquals(Arrays.asList("id-461", null, "id-462"), Arrays.asList(ids));
+    }
+
+    public void testSendAsync() throws Exception
+    {
+        TestGateway gateway = new TestGateway(1);
+        gateway.connect();
+        gateway.connect();
+
+        List<HttpGatewayFuture> futures = new ArrayList<HttpGatewayFuture>();
+        for (int i = 0; i < 20; i++)
+        {
+            futures.add(gateway.sendAsync(new SmsTextMessage("hi"), new SmsAddress("46" + i), null));
+        }
+
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals("id-46" + i, futures.get(i).get(5, TimeUnit.SECONDS)[0]);
+        }
+
+        try
+        {
+            gateway.sendAsync(new SmsTextMessage("hi"), new SmsAddress("047"), null).get();
+            fail("Expected ExecutionException");
+        }
+        catch (ExecutionException ex)
+        {
+            assertTrue(ex.getCause() instanceof SmsException);
+        }
+    }
+
+    public void testSingleFlightRefresh() throws Exception
+    {
+        TestGateway gateway = new TestGateway(1);
+        // Session s1 is expired, all sends get ERR and must share one auth
+        gateway.connect();
+
+        List<HttpGatewayFuture> futures = new ArrayList<HttpGatewayFuture>();
+        for (int i = 0; i < 20; i++)
+        {
+            futures.add(gateway.sendAsync(new SmsTextMessage("hi"), new SmsAddress("46" + i), null));
+        }
+
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals("id-46" + i, futures.get(i).get(5, TimeUnit.SECONDS)[0]);
+        }
+        assertEquals(2, nAuth_);
+    }
+
+    private class TestGateway extends HttpGatewayTransport
+    {
+        TestGateway(int maxRecipients) throws SmsException
+        {
+            Properties props = new Properties();
+            props.setProperty("smsj.test.maxrecipients", Integer.toString(maxRecipients));
+            init(props);
+        }
+
+        protected String getPropertyPrefix()
+        {
+            return "smsj.test";
+        }
+
+        protected void initGateway(Properties props)
+        {
+        }
+
+        protected HttpGatewayRequest buildAuthRequest()
+        {
+            return new HttpGatewayRequest(url_, "auth");
+        }
+
+        protected String parseAuthResponse(String[] lines)
+        {
+            return lines[0].substring(4);
+        }
+
+        protected HttpGatewayRequest buildPingRequest(String sessionId)
+        {
+            return null;
+        }
+
+        protected void parsePingResponse(String[] lines)
+        {
+        }
+
+        protected String[] buildMessageRequests(SmsMessage msg, SmsAddress sender)
+        {
+            return new String[] { "&msg=" + ((SmsTextMessage) msg).getText() };
+        }
+
+        protected HttpGatewayRequest buildSendRequest(String sessionId, String[] receivers, String messageRequest)
+        {
+            StringBuilder to = new StringBuilder();
+            for (String receiver : receivers)
+            {
+                to.append((to.length() > 0) ? "," : "").append(receiver);
+            }
+            return new HttpGatewayRequest(url_, "session=" + sessionId + "&to=" + to + messageRequest);
+        }
+
+        protected String[] parseSendResponse(String[] lines, String[] receivers) throws HttpGatewayException
+        {
+            if (lines[0].startsWith("ERR:"))
+            {
+                throw new HttpGatewayException(lines[0], lines[0].equals("ERR: expired") ? 3 : 5);
+            }
+
+            String[] ids = new String[receivers.length];
+            for (int i = 0; i < lines.length; i++)
+            {
+                ids[i] = lines[i].startsWith("OK: ") ? lines[i].substring(4, lines[i].indexOf(' ', 4)) : null;
+            }
+            return ids;
+        }
+
+        protected boolean isSessionExpired(HttpGatewayException ex)
+        {
+            return ex.getErrId() == 3;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpFrameCodecTest extends TestCase
+{
+    public void testEncode()
+    {
+        UcpSeries50 submit = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
+        submit.setTRN(7);
+        submit.setField(UcpSeries50.FIELD_ADC, "0612345678");
+        submit.setField(UcpSeries50.FIELD_OADC, "1234");
+        submit.setField(UcpSeries50.FIELD_MT, "3");
+        submit.setField(UcpSeries50.FIELD_MSG, "414243");
+
+        ByteBuffer frame = new UcpFrameCodec().encode(submit);
+        byte[] data = new byte[frame.remaining()];
+        frame.get(data);
+
+        String command = submit.buildCommand();
+        assertEquals(UcpFrameCodec.STX, data[0]);
+        assertEquals(UcpFrameCodec.ETX, data[data.length - 1]);
+        assertEquals(command, new String(data, 1, data.length - 2, StandardCharsets.US_ASCII));
+        assertEquals(command.length(), Integer.parseInt(command.substring(3, 8)));
+        assertTrue(command.startsWith("07/"));
+    }
+
+    public void testDecodePartialFrames() throws Exception
+    {
+        UcpFrameCodec codec = new UcpFrameCodec();
+        ByteBuffer in = ByteBuffer.allocate(256);
+
+        in.put("\u000201/00019/R/51/A//7A\u0003\u000202/000".getBytes(StandardCharsets.US_ASCII));
+        in.flip();
+        assertEquals("01/00019/R/51/A//7A", codec.decode(in));
+        assertNull(codec.decode(in));
+        in.compact();
+
+        in.put("19/R/51/A//7B\u0003".getBytes(StandardCharsets.US_ASCII));
+        in.flip();
+        String frame = codec.decode(in);
+        assertEquals("02/00019/R/51/A//7B", frame);
+        assertEquals(2, UcpFrameCodec.getTrn(frame));
+        assertFalse(in.hasRemaining());
+    }
+
+    public void testParseDeliveryNotification() throws Exception
+    {
+        UcpSeries50 notification = new UcpSeries50(UcpSeries50.OP_DELIVER_NOTIFICATION);
+        notification.setTRN(42);
+        notification.setField(UcpSeries50.FIELD_ADC, "0612345678");
+        notification.setField(UcpSeries50.FIELD_OADC, "1234");
+        notification.setField(UcpSeries50.FIELD_SCTS, "171026120000");
+        notification.setField(UcpSeries50.FIELD_DST, "0");
+        notification.setField(UcpSeries50.FIELD_RSN, "000");
+
+        UcpSeries50 parsed = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
+        parsed.parse(notification.buildCommand());
+
+        assertEquals(42, parsed.getTRN());
+        assertEquals('O', parsed.getOR());
+        assertEquals(UcpSeries50.OP_DELIVER_NOTIFICATION, parsed.getOT());
+        assertEquals("0", parsed.getField(UcpSeries50.FIELD_DST));
+        assertNull(parsed.getField(UcpSeries50.FIELD_MSG));
+        assertEquals("0612345678:171026120000", parsed.getMessageId());
+
+        UcpResponse ack = UcpResponse.ack(parsed, parsed.getMessageId());
+        assertEquals("42/00043/R/53/A//0612345678:171026120000/", ack.buildCommand().substring(0, 41));
+    }
+
+    public void testParseBadChecksum()
+    {
+        try
+        {
+            new UcpResponse().parse("01/00019/R/51/A//00");
+            fail("Expected IOException");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
+}
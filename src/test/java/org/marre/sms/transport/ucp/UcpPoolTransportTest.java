@@ -0,0 +1,198 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsTextMessage;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpPoolTransportTest extends TestCase
+{
+    private UcpSmscSimulator smsc1_;
+    private UcpSmscSimulator smsc2_;
+    private UcpPoolTransport pool_;
+    private SmsAddress sender_;
+
+    protected void setUp() throws Exception
+    {
+        smsc1_ = new UcpSmscSimulator();
+        smsc2_ = new UcpSmscSimulator();
+        smsc1_.setLogin("user", "secret");
+        smsc2_.setLogin("user", "secret");
+        sender_ = new SmsAddress("4699");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        if (pool_ != null)
+        {
+            pool_.disconnect();
+        }
+        smsc1_.close();
+        smsc2_.close();
+    }
+
+    private void connect(int nBinds, long reconnectInterval) throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("smsj.ucp.pool.hosts", "127.0.0.1:" + smsc1_.getPort() + ",127.0.0.1:" + smsc2_.getPort());
+        props.setProperty("smsj.ucp.pool.binds", Integer.toString(nBinds));
+        props.setProperty("smsj.ucp.pool.reconnect", Long.toString(reconnectInterval));
+        props.setProperty("smsj.ucp.window", "1");
+        props.setProperty("smsj.ucp.ucp60.uid", "user");
+        props.setProperty("smsj.ucp.ucp60.password", "secret");
+
+        pool_ = new UcpPoolTransport();
+        pool_.init(props);
+        pool_.connect();
+    }
+
+    private static List<SmsAddress> destinations(int n) throws Exception
+    {
+        List<SmsAddress> dests = new ArrayList<SmsAddress>();
+        for (int i = 0; i < n; i++)
+        {
+            dests.add(new SmsAddress("467123" + (10000 + i)));
+        }
+        return dests;
+    }
+
+    private static void waitFor(UcpPoolTransport pool, int nBinds) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((pool.getConnectedBinds() != nBinds) && (System.currentTimeMillis() < deadline))
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(nBinds, pool.getConnectedBinds());
+    }
+
+    public void testSpreadsOverLeastLoadedBinds() throws Exception
+    {
+        connect(4, 60000);
+        assertEquals(2, smsc1_.getLoginCount());
+        assertEquals(2, smsc2_.getLoginCount());
+
+        // Every bind has one outstanding submit before any is answered
+        smsc1_.setLatency(200);
+        smsc2_.setLatency(200);
+        List<UcpMessageFuture> futures = new ArrayList<UcpMessageFuture>();
+        for (SmsAddress dest : destinations(4))
+        {
+            futures.add(pool_.sendAsync(new SmsTextMessage("hi"), dest, sender_));
+        }
+
+        for (UcpMessageFuture future : futures)
+        {
+            assertTrue(future.get(5, TimeUnit.SECONDS)[0].isAck());
+        }
+        assertEquals(2, smsc1_.getSubmitCount());
+        assertEquals(2, smsc2_.getSubmitCount());
+    }
+
+    public void testFailedBindTakenOutOfRotation() throws Exception
+    {
+        connect(2, 60000);
+
+        smsc1_.dropConnections();
+        waitFor(pool_, 1);
+
+        for (SmsAddress dest : destinations(5))
+        {
+            assertNotNull(pool_.send(new SmsTextMessage("hi"), dest, sender_));
+        }
+        assertEquals(0, smsc1_.getSubmitCount());
+        assertEquals(5, smsc2_.getSubmitCount());
+    }
+
+    public void testBackgroundReconnect() throws Exception
+    {
+        connect(2, 100);
+
+        smsc1_.dropConnections();
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((smsc1_.getLoginCount() < 2) && (System.currentTimeMillis() < deadline))
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(2, smsc1_.getLoginCount());
+        waitFor(pool_, 2);
+
+        // Both binds are used again
+        smsc1_.setLatency(200);
+        smsc2_.setLatency(200);
+        List<UcpMessageFuture> futures = new ArrayList<UcpMessageFuture>();
+        for (SmsAddress dest : destinations(2))
+        {
+            futures.add(pool_.sendAsync(new SmsTextMessage("hi"), dest, sender_));
+        }
+        for (UcpMessageFuture future : futures)
+        {
+            assertTrue(future.get(5, TimeUnit.SECONDS)[0].isAck());
+        }
+        assertEquals(1, smsc1_.getSubmitCount());
+        assertEquals(1, smsc2_.getSubmitCount());
+    }
+
+    public void testBatchGoesOnWhenBindFails() throws Exception
+    {
+        connect(2, 60000);
+        smsc1_.setDropAt(3);
+
+        String[] ids = pool_.sendBatch(new SmsTextMessage("hi"), destinations(40), sender_);
+
+        // Only submits that were on the dropped connection are lost
+        int nIds = 0;
+        for (String id : ids)
+        {
+            nIds += (id != null) ? 1 : 0;
+        }
+        assertTrue("Only " + nIds + " ids", nIds >= 35);
+        assertEquals(smsc1_.getAcceptedCount() + smsc2_.getAcceptedCount(), nIds);
+        assertEquals(2, smsc1_.getAcceptedCount());
+        assertEquals(1, pool_.getConnectedBinds());
+    }
+}
@@ -0,0 +1,494 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.marre.sms.SmsPduUtil;
+import org.marre.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process UCP SMSC for tests and benchmarks.
+ * <p>
+ * Accepts OT 60 (session management), OT 51 (submit short message) and OT 31
+ * (alert) on a local port, all other operations are NACKed with EC 03. The
+ * behaviour of a real SMSC can be simulated with:
+ * <ul>
+ * <li>setLatency - delay before each response is sent</li>
+ * <li>setNackRate - the share of submits that are NACKed with EC 06</li>
+ * <li>setMaxRate - submits above this rate are NACKed with EC 04</li>
+ * <li>setLogin - OT 60 with another uid or password is NACKed with EC 07</li>
+ * <li>dropConnections - closes the open connections</li>
+ * <li>setDropAt - closes the connection when the nth submit arrives</li>
+ * </ul>
+ * The positive result of an OT 51 has a unique message id, "AdC:SCTS".
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpSmscSimulator
+{
+    private static final Logger log_ = LoggerFactory.getLogger(UcpSmscSimulator.class);
+
+    /** Returned by handle() when the connection should be dropped. */
+    private static final UcpResponse DROP = new UcpResponse();
+
+    private final ServerSocket serverSocket_;
+    private final ScheduledExecutorService responder_;
+    private final List<Socket> sockets_ = new CopyOnWriteArrayList<Socket>();
+    private final Random random_ = new Random(0);
+
+    private volatile long latency_;
+    private volatile double nackRate_;
+    private volatile String uid_;
+    private volatile String pwd_;
+    private volatile int dropAt_;
+
+    private double maxRate_;
+    private double tokens_;
+    private long lastRefill_;
+
+    private final AtomicInteger messageSeq_ = new AtomicInteger();
+    private final AtomicInteger nSubmits_ = new AtomicInteger();
+    private final AtomicInteger nAccepted_ = new AtomicInteger();
+    private final AtomicInteger nThrottled_ = new AtomicInteger();
+    private final AtomicInteger nLogins_ = new AtomicInteger();
+    private final AtomicInteger nAlerts_ = new AtomicInteger();
+
+    /**
+     * Starts the simulator on a free port on the loopback interface.
+     * 
+     * @throws IOException If no port could be bound
+     */
+    public UcpSmscSimulator() throws IOException
+    {
+        this(0);
+    }
+
+    /**
+     * Starts the simulator.
+     * 
+     * @param port The port to listen on, 0 for any free port
+     * @throws IOException If the port couldn't be bound
+     */
+    public UcpSmscSimulator(int port) throws IOException
+    {
+        serverSocket_ = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        responder_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "smsc-simulator-responder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Thread acceptor = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                acceptConnections();
+            }
+        }, "smsc-simulator-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort()
+    {
+        return serverSocket_.getLocalPort();
+    }
+
+    /**
+     * Sets the delay before each response is sent.
+     * 
+     * @param latency Delay in ms
+     */
+    public void setLatency(long latency)
+    {
+        latency_ = latency;
+    }
+
+    /**
+     * Sets the share of the submits that are rejected.
+     * 
+     * @param nackRate 0.0 - 1.0
+     */
+    public void setNackRate(double nackRate)
+    {
+        nackRate_ = nackRate;
+    }
+
+    /**
+     * Sets the number of submits per second that are accepted, with a burst
+     * of one second. Submits above it are NACKed with EC 04.
+     * 
+     * @param maxRate Submits per second, 0 for no limit
+     */
+    public synchronized void setMaxRate(double maxRate)
+    {
+        maxRate_ = maxRate;
+        tokens_ = maxRate;
+        lastRefill_ = System.nanoTime();
+    }
+
+    /**
+     * Requires OT 60 logins with the given uid and password.
+     * 
+     * @param uid The OAdC of the login
+     * @param pwd The password
+     */
+    public void setLogin(String uid, String pwd)
+    {
+        uid_ = uid;
+        pwd_ = pwd;
+    }
+
+    /**
+     * Closes the connection, without responding, when the nth submit since
+     * the simulator was started arrives.
+     * 
+     * @param n The submit to drop at, counting from 1. 0 to never drop.
+     */
+    public void setDropAt(int n)
+    {
+        dropAt_ = n;
+    }
+
+    public int getSubmitCount()
+    {
+        return nSubmits_.get();
+    }
+
+    public int getAcceptedCount()
+    {
+        return nAccepted_.get();
+    }
+
+    public int getThrottledCount()
+    {
+        return nThrottled_.get();
+    }
+
+    public int getLoginCount()
+    {
+        return nLogins_.get();
+    }
+
+    public int getAlertCount()
+    {
+        return nAlerts_.get();
+    }
+
+    /**
+     * Closes all open connections, as if the network had dropped them. New
+     * connections are still accepted.
+     */
+    public void dropConnections()
+    {
+        for (Socket socket : sockets_)
+        {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Stops listening and closes all connections.
+     */
+    public void close()
+    {
+        try
+        {
+            serverSocket_.close();
+        }
+        catch (IOException ex)
+        {
+            // Closing anyway
+        }
+        for (Socket socket : sockets_)
+        {
+            closeQuietly(socket);
+        }
+        responder_.shutdownNow();
+    }
+
+    private void acceptConnections()
+    {
+        while (!serverSocket_.isClosed())
+        {
+            try
+            {
+                final Socket socket = serverSocket_.accept();
+                sockets_.add(socket);
+
+                Thread reader = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        serve(socket);
+                    }
+                }, "smsc-simulator-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            }
+            catch (IOException ex)
+            {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket socket)
+    {
+        UcpFrameCodec codec = new UcpFrameCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(UcpFrameCodec.MAX_FRAME_SIZE + 2);
+
+        try
+        {
+            InputStream is = socket.getInputStream();
+            OutputStream os = socket.getOutputStream();
+
+            while (true)
+            {
+                int n = is.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (n < 0)
+                {
+                    break;
+                }
+                buffer.position(buffer.position() + n);
+                buffer.flip();
+
+                String frame;
+                while ((frame = codec.decode(buffer)) != null)
+                {
+                    UcpResponse response = handle(frame);
+                    if (response == DROP)
+                    {
+                        log_.debug("SMSC simulator drops the connection");
+                        return;
+                    }
+                    respond(os, response);
+                }
+                buffer.compact();
+            }
+        }
+        catch (IOException ex)
+        {
+            log_.debug("SMSC simulator connection closed: {}", ex.toString());
+        }
+        finally
+        {
+            sockets_.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private UcpResponse handle(String frame)
+    {
+        Operation operation = new Operation();
+
+        try
+        {
+            operation.parse(frame);
+        }
+        catch (IOException ex)
+        {
+            log_.warn("SMSC simulator got a bad frame: {}", frame);
+            return null;
+        }
+
+        switch (operation.getOT())
+        {
+        case UcpSeries50.OP_SUBMIT_SHORT_MESSAGE:
+            return submit(operation);
+
+        case UCPSeries60.OP_OPEN_SESSION:
+            return login(operation);
+
+        case UcpAlert.OP_ALERT:
+            nAlerts_.incrementAndGet();
+            return UcpResponse.ack(operation, null);
+
+        default:
+            return UcpResponse.nack(operation, UcpResponse.EC_OPERATION_NOT_SUPPORTED, null);
+        }
+    }
+
+    private UcpResponse submit(Operation operation)
+    {
+        if (nSubmits_.incrementAndGet() == dropAt_)
+        {
+            return DROP;
+        }
+
+        if (!tryAcquire())
+        {
+            nThrottled_.incrementAndGet();
+            return UcpResponse.nack(operation, UcpResponse.EC_OPERATION_NOT_ALLOWED, null);
+        }
+
+        String adc = operation.getField(UcpSeries50.FIELD_ADC);
+        if ((adc == null) || nack())
+        {
+            return UcpResponse.nack(operation, UcpResponse.EC_ADC_INVALID, null);
+        }
+
+        nAccepted_.incrementAndGet();
+        return UcpResponse.ack(operation, adc + ":" + StringUtil.intToString(messageSeq_.incrementAndGet(), 12));
+    }
+
+    private UcpResponse login(Operation operation)
+    {
+        nLogins_.incrementAndGet();
+
+        String uid = uid_;
+        if (uid != null)
+        {
+            String pwd = StringUtil.bytesToHexString(SmsPduUtil.toGsmCharset(pwd_));
+            if (!uid.equals(operation.getField(UCPSeries60.FIELD_OADC))
+                || !pwd.equalsIgnoreCase(operation.getField(UCPSeries60.FIELD_PWD)))
+            {
+                return UcpResponse.nack(operation, UcpResponse.EC_AUTHENTICATION_FAILURE, null);
+            }
+        }
+
+        return UcpResponse.ack(operation, null);
+    }
+
+    private synchronized boolean nack()
+    {
+        return (nackRate_ > 0) && (random_.nextDouble() < nackRate_);
+    }
+
+    private synchronized boolean tryAcquire()
+    {
+        if (maxRate_ <= 0)
+        {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        tokens_ = Math.min(maxRate_, tokens_ + (now - lastRefill_) * maxRate_ / 1e9);
+        lastRefill_ = now;
+
+        if (tokens_ < 1)
+        {
+            return false;
+        }
+        tokens_ -= 1;
+        return true;
+    }
+
+    private void respond(final OutputStream os, UcpResponse response) throws IOException
+    {
+        if (response == null)
+        {
+            return;
+        }
+
+        final byte[] command = response.getCommand();
+        long latency = latency_;
+
+        if (latency <= 0)
+        {
+            write(os, command);
+            return;
+        }
+
+        responder_.schedule(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    write(os, command);
+                }
+                catch (IOException ex)
+                {
+                    log_.debug("SMSC simulator failed to respond: {}", ex.toString());
+                }
+            }
+        }, latency, TimeUnit.MILLISECONDS);
+    }
+
+    private static void write(OutputStream os, byte[] command) throws IOException
+    {
+        synchronized (os)
+        {
+            os.write(command);
+            os.flush();
+        }
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException ex)
+        {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * Any operation, the fields are read by index.
+     */
+    private static class Operation extends UcpMsg
+    {
+        Operation()
+        {
+            super(40);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.marre.sms.SmsAddress;
+import org.marre.sms.SmsAlphabet;
+import org.marre.sms.SmsDcs;
+import org.marre.sms.SmsException;
+import org.marre.sms.SmsMsgClass;
+import org.marre.sms.SmsPdu;
+import org.marre.sms.SmsPduUtil;
+import org.marre.sms.SmsTextMessage;
+import org.marre.sms.SmsUdhElement;
+import org.marre.sms.SmsUdhUtil;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpTransportTest extends TestCase
+{
+    private SmsAddress destination_;
+    private SmsAddress sender_;
+
+    protected void setUp() throws Exception
+    {
+        destination_ = new SmsAddress("46712345678");
+        sender_ = new SmsAddress("4699");
+    }
+
+    public void testSeptetsWithUdh() throws Exception
+    {
+        SmsUdhElement[] udh = new SmsUdhElement[] { SmsUdhUtil.get8BitConcatUdh(7, 2, 1) };
+        SmsDcs dcs = SmsDcs.getGeneralDataCodingDcs(SmsAlphabet.GSM, SmsMsgClass.CLASS_UNKNOWN);
+        SmsPdu pdu = new SmsPdu(udh, SmsPduUtil.getSeptets("hello"), 5, dcs);
+
+        UcpSeries50 submit = new UcpTransport().createSubmit(pdu, true, destination_, sender_);
+
+        assertEquals("4", submit.getField(UcpSeries50.FIELD_MT));
+        // 1 fill bit after the 6 octet UDH + 5 septets
+        assertEquals("0036", submit.getField(UcpSeries50.FIELD_NB));
+        assertEquals("D06536FB0D", submit.getField(UcpSeries50.FIELD_MSG));
+        assertEquals("0106050003070201" + "020100", submit.getField(UcpSeries50.FIELD_XSER));
+        assertEquals("1", submit.getField(UcpSeries50.FIELD_MMS));
+    }
+
+    public void testUcs2WithUdh() throws Exception
+    {
+        SmsUdhElement[] udh = new SmsUdhElement[] { SmsUdhUtil.get8BitConcatUdh(7, 2, 2) };
+        SmsDcs dcs = SmsDcs.getGeneralDataCodingDcs(SmsAlphabet.UCS2, SmsMsgClass.CLASS_UNKNOWN);
+        SmsPdu pdu = new SmsPdu(udh, "Жa".getBytes("UTF-16BE"), 4, dcs);
+
+        UcpSeries50 submit = new UcpTransport().createSubmit(pdu, false, destination_, sender_);
+
+        assertEquals("4", submit.getField(UcpSeries50.FIELD_MT));
+        assertEquals("0032", submit.getField(UcpSeries50.FIELD_NB));
+        assertEquals("04160061", submit.getField(UcpSeries50.FIELD_MSG));
+        assertEquals("0106050003070202" + "020108", submit.getField(UcpSeries50.FIELD_XSER));
+        assertNull(submit.getField(UcpSeries50.FIELD_MMS));
+    }
+
+    public void testSubmitTemplates() throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            text.append('x');
+        }
+
+        UcpSeries50[] submits = new UcpTransport().createSubmits(new SmsTextMessage(text.toString()), sender_);
+        assertEquals(2, submits.length);
+        assertNull(submits[0].getField(UcpSeries50.FIELD_ADC));
+        assertEquals("1", submits[0].getField(UcpSeries50.FIELD_MMS));
+        assertNull(submits[1].getField(UcpSeries50.FIELD_MMS));
+
+        UcpSeries50 copy = new UcpSeries50(submits[1]);
+        copy.setField(UcpSeries50.FIELD_ADC, destination_.getAddress());
+        assertEquals(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE, copy.getOT());
+        assertEquals(submits[1].getField(UcpSeries50.FIELD_MSG), copy.getField(UcpSeries50.FIELD_MSG));
+        assertNull(submits[1].getField(UcpSeries50.FIELD_ADC));
+    }
+
+    public void testSendToSimulator() throws Exception
+    {
+        UcpSmscSimulator smsc = new UcpSmscSimulator();
+        try
+        {
+            smsc.setLogin("user", "secret");
+
+            Properties props = new Properties();
+            props.setProperty("smsj.ucp.ip.host", "127.0.0.1");
+            props.setProperty("smsj.ucp.ip.port", Integer.toString(smsc.getPort()));
+            props.setProperty("smsj.ucp.ucp60.uid", "user");
+            props.setProperty("smsj.ucp.ucp60.password", "secret");
+            props.setProperty("smsj.ucp.window", "4");
+
+            UcpTransport transport = new UcpTransport();
+            transport.init(props);
+            transport.connect();
+
+            assertEquals("46712345678:000000000001", transport.send(new SmsTextMessage("hi"), destination_, sender_));
+
+            smsc.setNackRate(1.0);
+            try
+            {
+                transport.send(new SmsTextMessage("hi"), destination_, sender_);
+                fail("Expected SmsException");
+            }
+            catch (SmsException ex)
+            {
+                // Rejected by the SMSC
+            }
+            transport.disconnect();
+
+            assertEquals(1, smsc.getLoginCount());
+            assertEquals(2, smsc.getSubmitCount());
+            assertEquals(1, smsc.getAcceptedCount());
+        }
+        finally
+        {
+            smsc.close();
+        }
+    }
+
+    public void testReceiverSurvivesReconnect() throws Exception
+    {
+        UcpSmscSimulator smsc = new UcpSmscSimulator();
+        try
+        {
+            Properties props = new Properties();
+            props.setProperty("smsj.ucp.ip.host", "127.0.0.1");
+            props.setProperty("smsj.ucp.ip.port", Integer.toString(smsc.getPort()));
+            props.setProperty("smsj.ucp.receiver.port", "0");
+
+            final BlockingQueue<UcpSeries50> notifications = new LinkedBlockingQueue<UcpSeries50>();
+            UcpTransport transport = new UcpTransport();
+            transport.init(props);
+            transport.setDeliveryListener(new UcpDeliveryListener()
+            {
+                public void deliverShortMessage(UcpSeries50 msg)
+                {
+                }
+
+                public void deliveryNotification(UcpSeries50 notification)
+                {
+                    notifications.add(notification);
+                }
+            });
+            transport.connect();
+            int port = transport.getReceiverPort();
+
+            Socket inbound = new Socket("127.0.0.1", port);
+            try
+            {
+                // Lose the submit connection, once the SMSC has seen it, and get it back
+                transport.ping();
+                smsc.dropConnections();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (transport.isConnected() && (System.currentTimeMillis() < deadline))
+                {
+                    Thread.sleep(10);
+                }
+                assertFalse(transport.isConnected());
+                transport.reconnect();
+                assertEquals(port, transport.getReceiverPort());
+
+                UcpSeries50 notification = new UcpSeries50(UcpSeries50.OP_DELIVER_NOTIFICATION);
+                notification.setTRN(1);
+                notification.setField(UcpSeries50.FIELD_ADC, "46712345678");
+                notification.setField(UcpSeries50.FIELD_OADC, "4699");
+                notification.setField(UcpSeries50.FIELD_SCTS, "171026120000");
+                notification.setField(UcpSeries50.FIELD_DST, "0");
+                inbound.getOutputStream().write(notification.getCommand());
+
+                assertEquals("46712345678:171026120000", readResponse(inbound).getSystemMessage());
+                assertEquals("46712345678:171026120000",
+                        notifications.poll(5, TimeUnit.SECONDS).getMessageId());
+            }
+            finally
+            {
+                inbound.close();
+                transport.disconnect();
+            }
+            assertEquals(-1, transport.getReceiverPort());
+        }
+        finally
+        {
+            smsc.close();
+        }
+    }
+
+    public void testBatchKeepsIdsWhenConnectionDrops() throws Exception
+    {
+        UcpSmscSimulator smsc = new UcpSmscSimulator();
+        try
+        {
+            smsc.setDropAt(5);
+
+            Properties props = new Properties();
+            props.setProperty("smsj.ucp.ip.host", "127.0.0.1");
+            props.setProperty("smsj.ucp.ip.port", Integer.toString(smsc.getPort()));
+
+            UcpTransport transport = new UcpTransport();
+            transport.init(props);
+            transport.connect();
+
+            List<SmsAddress> dests = new ArrayList<SmsAddress>();
+            for (int i = 0; i < 10; i++)
+            {
+                dests.add(new SmsAddress("4671234567" + i));
+            }
+            String[] ids = transport.sendBatch(new SmsTextMessage("hi"), dests, sender_);
+
+            assertEquals(10, ids.length);
+            for (int i = 0; i < 4; i++)
+            {
+                assertEquals("4671234567" + i + ":00000000000" + (i + 1), ids[i]);
+            }
+            for (int i = 4; i < 10; i++)
+            {
+                assertNull(ids[i]);
+            }
+            assertFalse(transport.isConnected());
+
+            transport.disconnect();
+        }
+        finally
+        {
+            smsc.close();
+        }
+    }
+
+    public void testKeepAlivePingIsBounded() throws Exception
+    {
+        UcpSmscSimulator smsc = new UcpSmscSimulator();
+        try
+        {
+            Properties props = new Properties();
+            props.setProperty("smsj.ucp.ip.host", "127.0.0.1");
+            props.setProperty("smsj.ucp.ip.port", Integer.toString(smsc.getPort()));
+            props.setProperty("smsj.ucp.keepalive", "100");
+
+            UcpTransport transport = new UcpTransport();
+            transport.init(props);
+            transport.connect();
+
+            // A half-open connection, the SMSC never answers the ping
+            smsc.setLatency(60000);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (transport.isConnected() && (System.currentTimeMillis() < deadline))
+            {
+                Thread.sleep(10);
+            }
+            assertFalse(transport.isConnected());
+            assertEquals(1, smsc.getAlertCount());
+
+            transport.disconnect();
+        }
+        finally
+        {
+            smsc.close();
+        }
+    }
+
+    public void testKeepAliveAndReconnect() throws Exception
+    {
+        UcpSmscSimulator smsc = new UcpSmscSimulator();
+        try
+        {
+            smsc.setLogin("user", "secret");
+
+            Properties props = new Properties();
+            props.setProperty("smsj.ucp.ip.host", "127.0.0.1");
+            props.setProperty("smsj.ucp.ip.port", Integer.toString(smsc.getPort()));
+            props.setProperty("smsj.ucp.ucp60.uid", "user");
+            props.setProperty("smsj.ucp.ucp60.password", "secret");
+            props.setProperty("smsj.ucp.keepalive", "100");
+            props.setProperty("smsj.ucp.reconnect", "true");
+
+            UcpTransport transport = new UcpTransport();
+            transport.init(props);
+            transport.connect();
+
+            // Idle connections are pinged
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((smsc.getAlertCount() == 0) && (System.currentTimeMillis() < deadline))
+            {
+                Thread.sleep(10);
+            }
+            assertTrue(smsc.getAlertCount() > 0);
+
+            // A lost connection is reestablished before the next message
+            smsc.dropConnections();
+            while (((smsc.getLoginCount() < 2) || !transport.isConnected())
+                   && (System.currentTimeMillis() < deadline))
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(2, smsc.getLoginCount());
+            assertTrue(transport.isConnected());
+            assertNotNull(transport.send(new SmsTextMessage("hi"), destination_, sender_));
+
+            transport.disconnect();
+        }
+        finally
+        {
+            smsc.close();
+        }
+    }
+
+    private static UcpResponse readResponse(Socket socket) throws Exception
+    {
+        UcpFrameCodec codec = new UcpFrameCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(UcpFrameCodec.MAX_FRAME_SIZE + 2);
+        InputStream is = socket.getInputStream();
+
+        while (true)
+        {
+            int b = is.read();
+            assertTrue("Connection closed", b >= 0);
+            buffer.put((byte) b);
+            buffer.flip();
+            String frame = codec.decode(buffer);
+            if (frame != null)
+            {
+                return UcpResponse.parseResponse(frame);
+            }
+            buffer.compact();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is "SMS Library for the Java platform".
+ *
+ * The Initial Developer of the Original Code is Markus Eriksson.
+ * Portions created by the Initial Developer are Copyright (C) 2002
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.marre.sms.transport.ucp;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * @author Markus Eriksson
+ * @version $Id$
+ */
+public class UcpWindowTest extends TestCase
+{
+    public void testTrnRotation() throws Exception
+    {
+        UcpWindow window = new UcpWindow(2);
+        UcpSeries50 op = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
+
+        UcpFuture f0 = window.open(op);
+        assertEquals(0, op.getTRN());
+        UcpFuture f1 = window.open(op);
+        assertEquals(1, op.getTRN());
+        assertEquals(2, window.getOutstanding());
+
+        // Responses may arrive out of order
+        UcpResponse ack = UcpResponse.ack(op, "0612345678:171026120000");
+        assertTrue(window.complete(ack));
+        assertTrue(f1.isDone());
+        assertFalse(f0.isDone());
+        assertSame(ack, f1.get());
+
+        // Unknown TRN
+        assertFalse(window.complete(ack));
+
+        window.open(op);
+        assertEquals(2, op.getTRN());
+        assertEquals(2, window.getOutstanding());
+    }
+
+    public void testTrnWrapsAndSkipsPending() throws Exception
+    {
+        UcpWindow window = new UcpWindow(UcpWindow.MAX_TRN);
+        UcpSeries50 op = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
+
+        for (int i = 0; i < UcpWindow.MAX_TRN; i++)
+        {
+            window.open(op);
+            assertEquals(i, op.getTRN());
+        }
+
+        op.setTRN(42);
+        window.complete(UcpResponse.ack(op, null));
+        op.setTRN(0);
+        window.open(op);
+        assertEquals(42, op.getTRN());
+    }
+
+    public void testParseResponse() throws Exception
+    {
+        UcpSeries50 op = new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE);
+        op.setTRN(1);
+
+        UcpResponse ack = UcpResponse.parseResponse(UcpResponse.ack(op, "0612345678:171026120000").toString());
+        assertEquals(1, ack.getTRN());
+        assertTrue(ack.isAck());
+        assertEquals("0612345678:171026120000", ack.getSystemMessage());
+
+        UcpResponse nack = UcpResponse.parseResponse(
+                UcpResponse.nack(op, UcpResponse.EC_MESSAGE_TOO_LONG, null).toString());
+        assertFalse(nack.isAck());
+        assertEquals(UcpResponse.EC_MESSAGE_TOO_LONG, nack.getErrorCode());
+        assertEquals("SMSC rejected part 1 of 1, error 24: null", getRejection(nack));
+    }
+
+    public void testParseTwoFieldAck() throws Exception
+    {
+        UcpAlert alert = new UcpAlert("4699");
+        alert.setTRN(2);
+
+        String frame = UcpResponse.ack(alert, "0000").toString();
+        assertEquals("02/00023/R/31/A/0000/28", frame);
+
+        UcpResponse ack = UcpResponse.parseResponse(frame);
+        assertTrue(ack.isAck());
+        assertEquals("0000", ack.getSystemMessage());
+
+        UcpResponse nack = UcpResponse.parseResponse(
+                UcpResponse.nack(alert, UcpResponse.EC_SYNTAX_ERROR, "bad").toString());
+        assertEquals(UcpResponse.EC_SYNTAX_ERROR, nack.getErrorCode());
+        assertEquals("bad", nack.getSystemMessage());
+    }
+
+    private static String getRejection(UcpResponse response)
+    {
+        try
+        {
+            UcpTransport.getMessageIds(new UcpResponse[] { response });
+            return null;
+        }
+        catch (org.marre.sms.SmsException ex)
+        {
+            return ex.getMessage();
+        }
+    }
+
+    public void testFailAll() throws Exception
+    {
+        UcpWindow window = new UcpWindow(5);
+        UcpFuture future = window.open(new UcpSeries50(UcpSeries50.OP_SUBMIT_SHORT_MESSAGE));
+
+        window.failAll(new IOException("closed"));
+        assertEquals(0, window.getOutstanding());
+
+        try
+        {
+            future.get();
+            fail("Expected ExecutionException");
+        }
+        catch (ExecutionException ex)
+        {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+    }
+}